@@ -0,0 +1,77 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение ProductCacheSerializer с прежним GenericJackson2JsonRedisSerializer на странице витрины:
+ * список Product и список плиток ProductTile (для них у сериализатора отдельный тип).
+ * Время кодирования/декодирования меряет JMH, размер payload печатается в Setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductCacheSerializerBenchmark {
+
+    @Param({"10", "100"})
+    private int pageSize;
+
+    @Param({"json", "binary", "binary-lz4"})
+    private String format;
+
+    @Param({"product", "tile"})
+    private String payloadType;
+
+    private RedisSerializer<Object> serializer;
+    private List<?> page;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        serializer = switch (format) {
+            case "json" -> new GenericJackson2JsonRedisSerializer();
+            case "binary" -> new ProductCacheSerializer(Integer.MAX_VALUE);
+            default -> new ProductCacheSerializer(0);
+        };
+        List<Product> products = new ArrayList<>(pageSize);
+        for (long id = 1; id <= pageSize; id++) {
+            products.add(new Product(id, "Товар " + id, 100.0 + id,
+                    "Описание товара " + id + ": удобный, прочный, подходит для повседневной носки",
+                    "images/product-" + id + ".jpg", 0));
+        }
+        page = "tile".equals(payloadType) ? products.stream().map(ProductTile::of).toList() : products;
+        payload = serializer.serialize(page);
+        System.out.printf("%n[%s, %s, pageSize=%d] payload: %d bytes%n",
+                format, payloadType, pageSize, payload.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize(page);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return serializer.deserialize(payload);
+    }
+}
@@ -0,0 +1,73 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import reactor.core.Disposable;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Рассылка инвалидаций локального (L1) кеша между инстансами main-app через Redis pub/sub.
+ * <p>
+ * Сообщение: {@code <nodeId>|<cacheName>|<key>}; пустой key означает очистку всего кеша.
+ * Собственные сообщения инстанс игнорирует - свой L1 он уже поправил синхронно.
+ */
+@Slf4j
+public class CacheInvalidationBus {
+
+    private static final String SEPARATOR = "|";
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ReactiveRedisMessageListenerContainer listenerContainer;
+    private final ChannelTopic topic;
+    private volatile Disposable subscription;
+
+    public CacheInvalidationBus(ReactiveStringRedisTemplate redisTemplate,
+                                ReactiveRedisMessageListenerContainer listenerContainer,
+                                String channel) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.topic = ChannelTopic.of(channel);
+    }
+
+    public record Invalidation(String cacheName, String key) {
+        public boolean isClear() {
+            return key.isEmpty();
+        }
+    }
+
+    /**
+     * Fire-and-forget: ошибка публикации не должна ломать запрос, L1 всё равно ограничен TTL.
+     */
+    public void publish(String cacheName, String key) {
+        String message = nodeId + SEPARATOR + cacheName + SEPARATOR + (key != null ? key : "");
+        redisTemplate.convertAndSend(topic.getTopic(), message)
+                .subscribe(
+                        receivers -> log.trace("Invalidation {} delivered to {} receivers", message, receivers),
+                        e -> log.warn("Failed to publish cache invalidation {}: {}", message, e.getMessage()));
+    }
+
+    public void listen(Consumer<Invalidation> handler) {
+        subscription = listenerContainer.receive(topic)
+                .map(message -> message.getMessage())
+                .filter(message -> !message.startsWith(nodeId + SEPARATOR))
+                .subscribe(message -> {
+                    String[] parts = message.split("\\|", 3);
+                    if (parts.length == 3) {
+                        handler.accept(new Invalidation(parts[1], parts[2]));
+                    }
+                }, e -> log.error("Cache invalidation listener stopped: {}", e.getMessage()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
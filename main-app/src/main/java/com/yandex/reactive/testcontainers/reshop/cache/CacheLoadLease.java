@@ -0,0 +1,81 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Короткая аренда (SET NX PX) на пересчёт ключа кеша между инстансами.
+ * <p>
+ * Инстанс, взявший аренду, выполняет loader; остальные опрашивают Redis, пока значение
+ * не появится, и только по истечении аренды считают сами. Аренда снимается, когда loader
+ * завершился, поэтому loader должен завершаться уже после записи значения в Redis. Если Redis недоступен,
+ * каждый инстанс просто считает сам - аренда не должна становиться точкой отказа.
+ */
+@Slf4j
+public class CacheLoadLease {
+
+    private static final String KEY_PREFIX = "lease:";
+    // удаляем аренду, только если она всё ещё наша (могла истечь и перейти к другому инстансу)
+    private static final RedisScript<Long> RELEASE = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final Duration leaseTime;
+    private final Duration pollInterval;
+
+    public CacheLoadLease(ReactiveStringRedisTemplate redisTemplate, Duration leaseTime, Duration pollInterval) {
+        this.redisTemplate = redisTemplate;
+        this.leaseTime = leaseTime;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * @param key    ключ кеша (вместе с именем кеша)
+     * @param loader вычисление значения с записью в Redis, выполняется только держателем аренды
+     * @param lookup чтение значения из Redis: пустой Mono - значения ещё нет,
+     *               Optional.empty() - закешированный null
+     */
+    public <T> CompletableFuture<T> load(String key,
+                                         Supplier<CompletableFuture<T>> loader,
+                                         Supplier<Mono<Optional<T>>> lookup) {
+        String leaseKey = KEY_PREFIX + key;
+        String token = UUID.randomUUID().toString();
+        Mono<Optional<T>> fromLoader = Mono.fromFuture(loader)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+
+        return redisTemplate.opsForValue().setIfAbsent(leaseKey, token, leaseTime)
+                .onErrorResume(e -> {
+                    log.warn("Cache lease {} is unavailable, loading locally: {}", leaseKey, e.getMessage());
+                    return Mono.just(Boolean.TRUE);
+                })
+                .flatMap(acquired -> Boolean.TRUE.equals(acquired)
+                        ? fromLoader.doFinally(signal -> release(leaseKey, token))
+                        : awaitOtherNode(lookup).switchIfEmpty(fromLoader))
+                .map(value -> value.orElse(null))
+                .toFuture();
+    }
+
+    private <T> Mono<Optional<T>> awaitOtherNode(Supplier<Mono<Optional<T>>> lookup) {
+        long maxPolls = Math.max(1, leaseTime.toMillis() / Math.max(1, pollInterval.toMillis()));
+        return Mono.defer(lookup)
+                .repeatWhenEmpty(attempts -> attempts.take(maxPolls).delayElements(pollInterval));
+    }
+
+    private void release(String leaseKey, String token) {
+        redisTemplate.execute(RELEASE, List.of(leaseKey), List.of(token))
+                .subscribe(
+                        released -> log.trace("Cache lease {} released: {}", leaseKey, released),
+                        e -> log.debug("Failed to release cache lease {}: {}", leaseKey, e.getMessage()));
+    }
+}
@@ -0,0 +1,52 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+
+import java.util.Collection;
+
+/**
+ * Приблизительный размер значения в байтах для ограничения L1 по памяти, а не по числу записей:
+ * страница из 100 товаров и одна карточка товара весят по-разному.
+ */
+class CacheWeigher implements Weigher<Object, Object> {
+
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int REFERENCE = 8;
+    private static final int UNKNOWN_VALUE = 256;
+
+    @Override
+    public int weigh(Object key, Object value) {
+        long weight = estimate(key) + estimate(value);
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    static long estimate(Object value) {
+        if (value == null) {
+            return REFERENCE;
+        }
+        if (value instanceof String s) {
+            return OBJECT_OVERHEAD + 24 + 2L * s.length();
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return OBJECT_OVERHEAD + 8;
+        }
+        if (value instanceof Product p) {
+            return OBJECT_OVERHEAD + 8 + 8 + 4 + 4 * REFERENCE
+                    + estimate(p.getName()) + estimate(p.getDescription()) + estimate(p.getImgPath());
+        }
+        if (value instanceof ProductTile t) {
+            return OBJECT_OVERHEAD + 8 + 8 + 4 * REFERENCE
+                    + estimate(t.name()) + estimate(t.description()) + estimate(t.imgPath());
+        }
+        if (value instanceof Collection<?> c) {
+            long weight = OBJECT_OVERHEAD + 16 + (long) REFERENCE * c.size();
+            for (Object element : c) {
+                weight += estimate(element);
+            }
+            return weight;
+        }
+        return UNKNOWN_VALUE;
+    }
+}
@@ -0,0 +1,48 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.util.ByteUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Читает время записи значения в Redis-кеше, не трогая само значение: GETRANGE первых
+ * ProductCacheSerializer.HEADER байт и разбор заголовка (см. ProductCacheSerializer#writtenAt).
+ * Так время не входит в контракт значения, которое отдаёт RedisCache.
+ */
+public class CacheWriteTimeReader {
+
+    private final RedisCacheManager redisCacheManager;
+    private final ReactiveRedisConnectionFactory connectionFactory;
+
+    public CacheWriteTimeReader(RedisCacheManager redisCacheManager,
+                                ReactiveRedisConnectionFactory connectionFactory) {
+        this.redisCacheManager = redisCacheManager;
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * @return время записи, epoch ms (0 - неизвестно), или null, если записи нет
+     */
+    public CompletableFuture<Long> writtenAt(String cacheName, Object key) {
+        Cache cache = redisCacheManager.getCache(cacheName);
+        if (!(cache instanceof RedisCache redisCache)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ByteBuffer rawKey = MultiGetCache.rawKey(cacheName, redisCache.getCacheConfiguration(), key);
+        return Mono.usingWhen(
+                        Mono.fromSupplier(connectionFactory::getReactiveConnection),
+                        connection -> connection.stringCommands().getRange(rawKey, 0, ProductCacheSerializer.HEADER - 1),
+                        ReactiveRedisConnection::closeLater)
+                // GETRANGE по отсутствующему ключу возвращает пустую строку
+                .filter(ByteBuffer::hasRemaining)
+                .map(header -> ProductCacheSerializer.writtenAt(ByteUtils.getBytes(header)))
+                .toFuture();
+    }
+}
@@ -0,0 +1,162 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveStringCommands;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Пакетные операции над кешами RedisCacheManager, которых нет в Spring Cache API.
+ * <p>
+ * getAll: сначала локальный уровень NearCache, затем один MGET по оставшимся ключам.
+ * putAll: все записи одним пайплайном SET ... PX. Ключи, сериализация значений и TTL
+ * берутся из конфигурации того же RedisCache, поэтому записи неотличимы от тех,
+ * что кладёт @Cacheable: findById и findAllByIds делят одни и те же "products::&lt;id&gt;".
+ * Ошибки Redis не пробрасываются - вызывающий просто идёт в БД. Значение, которое не удалось
+ * прочитать, считается промахом только для своего ключа, остальные ключи MGET не теряются.
+ */
+@Slf4j
+public class MultiGetCache {
+
+    // так RedisCache хранит закешированный null (RedisCache.BINARY_NULL_VALUE), мимо сериализатора значений
+    private static final ByteBuffer BINARY_NULL_VALUE =
+            ByteBuffer.wrap(RedisSerializer.java().serialize(NullValue.INSTANCE)).asReadOnlyBuffer();
+
+    private final CacheManager cacheManager;
+    private final RedisCacheManager redisCacheManager;
+    private final ReactiveRedisConnectionFactory connectionFactory;
+
+    public MultiGetCache(CacheManager cacheManager,
+                         RedisCacheManager redisCacheManager,
+                         ReactiveRedisConnectionFactory connectionFactory) {
+        this.cacheManager = cacheManager;
+        this.redisCacheManager = redisCacheManager;
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * @return найденные значения по ключам; промахи и закешированные null в результат не попадают
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> Mono<Map<K, V>> getAll(String cacheName, Collection<K> keys) {
+        Map<K, V> found = new HashMap<>();
+        NearCache near = nearCache(cacheName);
+        List<K> remoteKeys = new ArrayList<>();
+        for (K key : keys) {
+            Object local = near != null ? near.getLocal(key) : null;
+            if (local == null) {
+                remoteKeys.add(key);
+            } else if (local != NullValue.INSTANCE) {
+                found.put(key, (V) local);
+            }
+        }
+        RedisCacheConfiguration config = redisConfig(cacheName);
+        if (remoteKeys.isEmpty() || config == null) {
+            return Mono.just(found);
+        }
+
+        List<ByteBuffer> rawKeys = remoteKeys.stream()
+                .map(key -> rawKey(cacheName, config, key))
+                .toList();
+        return Mono.usingWhen(
+                        Mono.fromSupplier(connectionFactory::getReactiveConnection),
+                        connection -> connection.stringCommands().mGet(rawKeys),
+                        ReactiveRedisConnection::closeLater)
+                .map(values -> {
+                    for (int i = 0; i < values.size(); i++) {
+                        ByteBuffer raw = values.get(i);
+                        if (raw == null || !raw.hasRemaining()) {
+                            continue;
+                        }
+                        K key = remoteKeys.get(i);
+                        Object value;
+                        if (BINARY_NULL_VALUE.equals(raw)) {
+                            value = null;
+                        } else {
+                            try {
+                                value = config.getValueSerializationPair().read(raw);
+                            } catch (RuntimeException e) {
+                                log.warn("Cannot decode cached value {}::{}, treated as a miss: {}",
+                                        cacheName, key, e.getMessage());
+                                continue;
+                            }
+                        }
+                        if (near != null) {
+                            near.putLocal(key, value);
+                        }
+                        if (value != null && value != NullValue.INSTANCE) {
+                            found.put(key, (V) value);
+                        }
+                    }
+                    return found;
+                })
+                .onErrorResume(e -> {
+                    log.warn("MGET from cache '{}' failed, {} keys treated as misses: {}",
+                            cacheName, remoteKeys.size(), e.getMessage());
+                    return Mono.just(found);
+                });
+    }
+
+    /**
+     * Кладёт значения в Redis одним пайплайном и в локальный уровень, без рассылки инвалидаций.
+     */
+    public Mono<Void> putAll(String cacheName, Map<?, ?> values) {
+        RedisCacheConfiguration config = redisConfig(cacheName);
+        if (values.isEmpty() || config == null) {
+            return Mono.empty();
+        }
+        NearCache near = nearCache(cacheName);
+        if (near != null) {
+            values.forEach(near::putLocal);
+        }
+        Flux<ReactiveStringCommands.SetCommand> commands = Flux.fromIterable(values.entrySet())
+                .map(entry -> ReactiveStringCommands.SetCommand.set(rawKey(cacheName, config, entry.getKey()))
+                        .value(config.getValueSerializationPair().write(entry.getValue()))
+                        .expiring(expiration(config.getTtlFunction().getTimeToLive(entry.getKey(), entry.getValue()))));
+        return Mono.usingWhen(
+                        Mono.fromSupplier(connectionFactory::getReactiveConnection),
+                        connection -> connection.stringCommands().set(commands).then(),
+                        ReactiveRedisConnection::closeLater)
+                .onErrorResume(e -> {
+                    log.warn("Pipelined write to cache '{}' failed: {}", cacheName, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private NearCache nearCache(String cacheName) {
+        Cache cache = cacheManager.getCache(cacheName);
+        return cache instanceof NearCache near ? near : null;
+    }
+
+    private RedisCacheConfiguration redisConfig(String cacheName) {
+        Cache cache = redisCacheManager.getCache(cacheName);
+        return cache instanceof RedisCache redisCache ? redisCache.getCacheConfiguration() : null;
+    }
+
+    static ByteBuffer rawKey(String cacheName, RedisCacheConfiguration config, Object key) {
+        String stringKey = config.getConversionService().convert(key, String.class);
+        return config.getKeySerializationPair().write(config.getKeyPrefixFor(cacheName) + stringKey);
+    }
+
+    private static Expiration expiration(Duration ttl) {
+        return ttl == null || ttl.isZero() || ttl.isNegative() ? Expiration.persistent() : Expiration.from(ttl);
+    }
+}
@@ -0,0 +1,368 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.cache.support.SimpleValueWrapper;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.Callable;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Двухуровневый кеш: локальный Caffeine (L1) перед удалённым Redis-кешем (L2).
+ * <p>
+ * Чтение сначала смотрит в L1 и только при промахе идёт в Redis, результат из Redis
+ * кладётся в L1. Запись и удаление выполняются в Redis и в своём L1. Остальным инстансам
+ * через CacheInvalidationBus рассылаются удаление, очистка и запись, если в своём L1 не лежало
+ * то же значение; заполнение после промаха не рассылается - у соседей этого ключа либо нет,
+ * либо там то же значение, и инвалидация только выбила бы их свежие записи. Ключи L1 приводятся к строке,
+ * как это делает RedisCache ("products::10"), чтобы инвалидация по сети и локальный
+ * поиск совпадали.
+ * <p>
+ * Значения из L1 общие для всех запросов инстанса - изменять их нельзя.
+ * <p>
+ * retrieve(key, loader) (используется для @Cacheable(sync = true)) схлопывает одновременные
+ * промахи: на инстансе по ключу выполняется одна загрузка, остальные вызовы ждут её результата.
+ * Между инстансами загрузку координирует CacheLoadLease (если задан).
+ * <p>
+ * Stale-while-revalidate: TTL записи в Redis - жёсткий (hard TTL), а по времени записи
+ * отслеживается мягкий softTtl. После попадания в Redis время записи дочитывается отдельно
+ * (CacheWriteTimeReader), уже после ответа. Запись старше softTtl отдаётся сразу,
+ * а пересчёт запускается в фоне на ограниченном refreshScheduler (не больше одного на ключ).
+ * Если пересчёт не удался (например, MySQL недоступен), устаревшее значение продолжает
+ * отдаваться до истечения hard TTL.
+ */
+@Slf4j
+public class NearCache implements Cache {
+
+    private final Cache remote;
+    private final com.github.benmanes.caffeine.cache.Cache<Object, Object> local;
+    private final CacheInvalidationBus invalidationBus;
+    private final CacheLoadLease loadLease;
+    private final Duration softTtl;
+    private final CacheWriteTimeReader writeTimeReader;
+    private final Scheduler refreshScheduler;
+
+    // загрузки, которые сейчас выполняются на этом инстансе, по ключу L1
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    // ключи, для которых уже идёт фоновое обновление
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param loadLease        координация загрузок между инстансами, null - только в пределах инстанса
+     * @param softTtl          возраст записи, после которого она обновляется в фоне; null - не обновлять
+     * @param writeTimeReader  источник времени записи в Redis; null - не обновлять
+     * @param refreshScheduler планировщик фоновых обновлений
+     */
+    public NearCache(Cache remote,
+                     com.github.benmanes.caffeine.cache.Cache<Object, Object> local,
+                     CacheInvalidationBus invalidationBus,
+                     CacheLoadLease loadLease,
+                     Duration softTtl,
+                     CacheWriteTimeReader writeTimeReader,
+                     Scheduler refreshScheduler) {
+        this.remote = remote;
+        this.local = local;
+        this.invalidationBus = invalidationBus;
+        this.loadLease = loadLease;
+        this.softTtl = softTtl;
+        this.writeTimeReader = writeTimeReader;
+        this.refreshScheduler = refreshScheduler;
+    }
+
+    @Override
+    public String getName() {
+        return remote.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        Object cached = local.getIfPresent(localKey(key));
+        if (cached != null) {
+            return toWrapper(cached);
+        }
+        ValueWrapper wrapper = remote.get(key);
+        if (wrapper == null) {
+            return null;
+        }
+        Object value = fromStoreValue(wrapper.get());
+        local.put(localKey(key), toStoreValue(value));
+        return new SimpleValueWrapper(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException(
+                    "Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        Object cached = local.getIfPresent(localKey(key));
+        if (cached != null) {
+            return (T) fromStoreValue(cached);
+        }
+        T value = (T) fromStoreValue(remote.get(key, valueLoader));
+        local.put(localKey(key), toStoreValue(value));
+        return value;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        Object cached = local.getIfPresent(localKey(key));
+        if (cached != null) {
+            return CompletableFuture.completedFuture(toWrapper(cached));
+        }
+        CompletableFuture<?> future = remote.retrieve(key);
+        if (future == null) {
+            return null;
+        }
+        return future.thenApply(result -> {
+            if (result == null) {
+                return null;
+            }
+            Object value = fromStoreValue(result instanceof ValueWrapper wrapper ? wrapper.get() : result);
+            local.put(localKey(key), toStoreValue(value));
+            return new SimpleValueWrapper(value);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        String localKey = localKey(key);
+        Object cached = local.getIfPresent(localKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture((T) fromStoreValue(cached));
+        }
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(localKey, flight);
+        if (existing != null) {
+            // copy(): отмена одним подписчиком не должна отменять загрузку для остальных
+            return (CompletableFuture<T>) existing.copy();
+        }
+        loadThroughRemote(key, valueLoader).whenComplete((value, error) -> {
+            // сначала убираем из inFlight: следующий промах (после вытеснения из L1) начнёт новую загрузку
+            inFlight.remove(localKey, flight);
+            if (error != null) {
+                flight.completeExceptionally(error);
+            } else {
+                flight.complete(value);
+            }
+        });
+        return (CompletableFuture<T>) flight.copy();
+    }
+
+    private <T> CompletableFuture<Object> loadThroughRemote(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        // loader не вызывался - значение пришло из Redis и могло устареть
+        AtomicBoolean loaded = new AtomicBoolean();
+        Supplier<CompletableFuture<T>> loader = () -> {
+            loaded.set(true);
+            return valueLoader.get();
+        };
+        try {
+            return retrieveRemote(key, loader)
+                    .thenApply(result -> {
+                        Object value = fromStoreValue(result);
+                        local.put(localKey(key), toStoreValue(value));
+                        if (!loaded.get()) {
+                            refreshIfStale(key, valueLoader);
+                        }
+                        return value;
+                    });
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * С арендой под ней выполняется весь remote.retrieve: повторное чтение, загрузка и запись в Redis.
+     * Аренда снимается, когда retrieve завершился, то есть значение уже в Redis: иначе другой инстанс
+     * успел бы взять освободившуюся аренду, не найти значения и загрузить его ещё раз.
+     */
+    private <T> CompletableFuture<T> retrieveRemote(Object key, Supplier<CompletableFuture<T>> loader) {
+        if (loadLease == null) {
+            return remote.retrieve(key, loader);
+        }
+        return this.<T>lookupRemote(key)
+                .switchIfEmpty(Mono.fromFuture(() -> loadLease.load(getName() + "::" + localKey(key),
+                                () -> remote.retrieve(key, loader), () -> lookupRemote(key)))
+                        .map(Optional::of)
+                        .defaultIfEmpty(Optional.empty()))
+                .toFuture()
+                .thenApply(value -> value.orElse(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Mono<Optional<T>> lookupRemote(Object key) {
+        CompletableFuture<?> future = remote.retrieve(key);
+        if (future == null) {
+            return Mono.empty();
+        }
+        return Mono.fromFuture(future)
+                .map(result -> Optional.ofNullable((T) fromStoreValue(
+                        result instanceof ValueWrapper wrapper ? wrapper.get() : result)));
+    }
+
+    /**
+     * Дочитывает время записи из Redis и, если запись старше softTtl, обновляет её в фоне.
+     * Ошибка чтения времени только откладывает обновление до следующего промаха L1.
+     */
+    private <T> void refreshIfStale(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        if (softTtl == null || writeTimeReader == null || refreshing.contains(localKey(key))) {
+            return;
+        }
+        CompletableFuture<Long> writtenAt;
+        try {
+            writtenAt = writeTimeReader.writtenAt(getName(), key);
+        } catch (RuntimeException e) {
+            writtenAt = CompletableFuture.failedFuture(e);
+        }
+        writtenAt.whenComplete((time, error) -> {
+            if (error != null) {
+                log.debug("Cannot read write time of {}::{}: {}", getName(), localKey(key), error.getMessage());
+            } else if (time != null && System.currentTimeMillis() - time > softTtl.toMillis()) {
+                refreshInBackground(key, valueLoader);
+            }
+        });
+    }
+
+    /**
+     * Загрузчик завершается на потоке драйвера (R2DBC, Netty), поэтому результат переносится
+     * на refreshScheduler: put пишет в Redis блокирующе и не должен занимать event loop.
+     */
+    private <T> void refreshInBackground(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        String localKey = localKey(key);
+        if (refreshScheduler == null || !refreshing.add(localKey)) {
+            return;
+        }
+        Mono.fromFuture(valueLoader)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .subscribeOn(refreshScheduler)
+                .publishOn(refreshScheduler)
+                .doFinally(signal -> refreshing.remove(localKey))
+                .subscribe(
+                        value -> put(key, value.orElse(null)),
+                        e -> log.warn("Background refresh of {}::{} failed, serving stale value: {}",
+                                getName(), localKey, e.getMessage()));
+    }
+
+    /**
+     * Инвалидация не рассылается, только если в L1 уже лежало то же значение (например, фоновое
+     * обновление не нашло изменений). Решение принимается по L1 без чтения из Redis: если в L1
+     * записи нет, у соседей может быть старое значение, и запись рассылается.
+     */
+    @Override
+    public void put(Object key, Object value) {
+        String localKey = localKey(key);
+        Object previous = local.getIfPresent(localKey);
+        remote.put(key, value);
+        local.put(localKey, toStoreValue(value));
+        if (previous == null || !Objects.equals(fromStoreValue(previous), value)) {
+            invalidationBus.publish(getName(), localKey);
+        }
+    }
+
+    /**
+     * Ничего не рассылает: если значения не было, у соседей его тоже нет, а существующее не меняется.
+     */
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = remote.putIfAbsent(key, value);
+        // в Redis могло остаться как старое, так и новое значение - L1 перечитает его при следующем get
+        evictLocal(localKey(key));
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        evictLocal(localKey(key));
+        invalidationBus.publish(getName(), localKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = remote.evictIfPresent(key);
+        evictLocal(localKey(key));
+        invalidationBus.publish(getName(), localKey(key));
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearLocal();
+        invalidationBus.publish(getName(), null);
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = remote.invalidate();
+        clearLocal();
+        invalidationBus.publish(getName(), null);
+        return invalidated;
+    }
+
+    /**
+     * @return значение из L1 без обращения к Redis или null; закешированный null возвращается как NullValue
+     */
+    Object getLocal(Object key) {
+        return local.getIfPresent(localKey(key));
+    }
+
+    /**
+     * Заполняет L1 без рассылки инвалидаций: значение не менялось, а только дочитано из Redis или БД.
+     */
+    void putLocal(Object key, Object value) {
+        local.put(localKey(key), toStoreValue(value));
+    }
+
+    void evictLocal(String key) {
+        local.invalidate(key);
+    }
+
+    void clearLocal() {
+        local.invalidateAll();
+    }
+
+    static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+
+    // Caffeine не хранит null, поэтому кешированный null (пустой Mono) лежит в L1 как NullValue
+    private static Object toStoreValue(Object value) {
+        return value != null ? value : NullValue.INSTANCE;
+    }
+
+    private static Object fromStoreValue(Object stored) {
+        return stored == NullValue.INSTANCE ? null : stored;
+    }
+
+    private static ValueWrapper toWrapper(Object stored) {
+        return new SimpleValueWrapper(fromStoreValue(stored));
+    }
+}
@@ -0,0 +1,106 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * CacheManager, который оборачивает кеши удалённого менеджера (Redis) в NearCache.
+ * <p>
+ * Локальный уровень включается только для перечисленных кешей (cache.near.caches),
+ * остальные отдаются как есть. Каждый L1 ограничен по суммарному весу значений
+ * (см. CacheWeigher) и живёт не дольше expireAfterWrite - это страховка на случай
+ * потерянного pub/sub сообщения, поэтому TTL L1 должен быть короче TTL в Redis.
+ * Для кешей из softTtls включается фоновое обновление устаревших записей (см. NearCache).
+ */
+@Slf4j
+public class NearCacheManager implements CacheManager, DisposableBean {
+
+    private final CacheManager remoteCacheManager;
+    private final CacheInvalidationBus invalidationBus;
+    private final CacheLoadLease loadLease;
+    private final Set<String> nearCacheNames;
+    private final long maxWeightBytes;
+    private final Duration expireAfterWrite;
+    private final Map<String, Duration> softTtls;
+    private final CacheWriteTimeReader writeTimeReader;
+    private final Scheduler refreshScheduler;
+
+    private final ConcurrentMap<String, NearCache> nearCaches = new ConcurrentHashMap<>();
+
+    public NearCacheManager(CacheManager remoteCacheManager,
+                            CacheInvalidationBus invalidationBus,
+                            CacheLoadLease loadLease,
+                            Set<String> nearCacheNames,
+                            long maxWeightBytes,
+                            Duration expireAfterWrite,
+                            Map<String, Duration> softTtls,
+                            CacheWriteTimeReader writeTimeReader,
+                            Scheduler refreshScheduler) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.invalidationBus = invalidationBus;
+        this.loadLease = loadLease;
+        this.nearCacheNames = Set.copyOf(nearCacheNames);
+        this.maxWeightBytes = maxWeightBytes;
+        this.expireAfterWrite = expireAfterWrite;
+        this.softTtls = Map.copyOf(softTtls);
+        this.writeTimeReader = writeTimeReader;
+        this.refreshScheduler = refreshScheduler;
+        invalidationBus.listen(this::onInvalidation);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        if (!nearCacheNames.contains(name)) {
+            return remoteCacheManager.getCache(name);
+        }
+        return nearCaches.computeIfAbsent(name, this::createNearCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remoteCacheManager.getCacheNames();
+    }
+
+    private NearCache createNearCache(String name) {
+        Cache remote = remoteCacheManager.getCache(name);
+        if (remote == null) {
+            throw new IllegalStateException("Remote cache '" + name + "' is not configured");
+        }
+        com.github.benmanes.caffeine.cache.Cache<Object, Object> local = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher(new CacheWeigher())
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+        log.info("Near cache '{}' enabled: max {} bytes, expire after {}", name, maxWeightBytes, expireAfterWrite);
+        return new NearCache(remote, local, invalidationBus, loadLease, softTtls.get(name), writeTimeReader,
+                refreshScheduler);
+    }
+
+    @Override
+    public void destroy() {
+        refreshScheduler.dispose();
+    }
+
+    private void onInvalidation(CacheInvalidationBus.Invalidation invalidation) {
+        NearCache cache = nearCaches.get(invalidation.cacheName());
+        if (cache == null) {
+            return;
+        }
+        if (invalidation.isClear()) {
+            cache.clearLocal();
+        } else {
+            cache.evictLocal(invalidation.key());
+        }
+    }
+}
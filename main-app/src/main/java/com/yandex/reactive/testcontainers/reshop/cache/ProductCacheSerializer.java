@@ -0,0 +1,294 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Бинарный сериализатор значений кеша products: Product, List&lt;Product&gt; и страницы
+ * витрины List&lt;ProductTile&gt; (у плитки те же поля, что у Product, но описание обрезано).
+ * <p>
+ * Формат v2: [версия][тип|флаги][время записи, epoch ms][тело]. Тело - поля подряд, строки
+ * с префиксом длины (-1 для null), числа в big-endian. Если тело больше lz4Threshold и сжатие
+ * его уменьшает, пишется флаг LZ4, исходная длина и LZ4-блок. v1 - то же без времени записи.
+ * <p>
+ * Чтение возвращает само значение. Время записи в значение не входит: его отдельно читает
+ * writtenAt по первым HEADER байтам (см. CacheWriteTimeReader), а NearCache по нему решает,
+ * что запись устарела (soft TTL) и её пора обновить в фоне. Для записей v1 и старого JSON
+ * время неизвестно (0), они считаются устаревшими сразу.
+ * <p>
+ * Прочие значения (и NullValue из RedisCache) не ломаются: NullValue кодируется отдельным
+ * типом, остальное уходит в GenericJackson2JsonRedisSerializer. Записи в старом JSON-формате,
+ * оставшиеся в Redis после выкатки, читаются тем же Jackson (JSON не начинается с байта версии).
+ */
+public class ProductCacheSerializer implements RedisSerializer<Object> {
+
+    static final byte VERSION = 2;
+    private static final byte VERSION_1 = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_PRODUCT = 1;
+    private static final byte TYPE_PRODUCT_LIST = 2;
+    private static final byte TYPE_JSON = 3;
+    private static final byte TYPE_TILE_LIST = 4;
+    private static final byte FLAG_LZ4 = (byte) 0x80;
+    private static final byte TYPE_MASK = 0x0F;
+
+    static final int HEADER = 10;
+    private static final int HEADER_V1 = 2;
+
+    private final GenericJackson2JsonRedisSerializer fallback = new GenericJackson2JsonRedisSerializer();
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+    private final int lz4Threshold;
+
+    /**
+     * @param lz4Threshold минимальный размер тела в байтах, начиная с которого пробуем LZ4
+     *                     (Integer.MAX_VALUE - не сжимать никогда)
+     */
+    public ProductCacheSerializer(int lz4Threshold) {
+        this.lz4Threshold = lz4Threshold;
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        long writtenAt = System.currentTimeMillis();
+        if (value == null || value instanceof NullValue) {
+            Writer writer = new Writer(HEADER);
+            writer.header(TYPE_NULL, writtenAt);
+            return writer.toByteArray();
+        }
+        if (value instanceof Product product) {
+            Writer writer = new Writer(HEADER + sizeOf(product));
+            writer.header(TYPE_PRODUCT, writtenAt);
+            writer.product(product);
+            return maybeCompress(writer);
+        }
+        if (value instanceof List<?> list && list.stream().allMatch(Product.class::isInstance)) {
+            int size = HEADER + 4;
+            for (Object element : list) {
+                size += sizeOf((Product) element);
+            }
+            Writer writer = new Writer(size);
+            writer.header(TYPE_PRODUCT_LIST, writtenAt);
+            writer.buffer.putInt(list.size());
+            for (Object element : list) {
+                writer.product((Product) element);
+            }
+            return maybeCompress(writer);
+        }
+        if (value instanceof List<?> list && list.stream().allMatch(ProductTile.class::isInstance)) {
+            int size = HEADER + 4;
+            for (Object element : list) {
+                size += sizeOf((ProductTile) element);
+            }
+            Writer writer = new Writer(size);
+            writer.header(TYPE_TILE_LIST, writtenAt);
+            writer.buffer.putInt(list.size());
+            for (Object element : list) {
+                writer.tile((ProductTile) element);
+            }
+            return maybeCompress(writer);
+        }
+        byte[] json = fallback.serialize(value);
+        Writer writer = new Writer(HEADER + json.length);
+        writer.header(TYPE_JSON, writtenAt);
+        writer.buffer.put(json);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != VERSION && bytes[0] != VERSION_1) {
+            // запись в прежнем JSON-формате
+            return fallback.deserialize(bytes);
+        }
+        int header = bytes[0] == VERSION ? HEADER : HEADER_V1;
+        if (bytes.length < header) {
+            throw new SerializationException("Truncated cache value");
+        }
+        return readBody(bytes, header);
+    }
+
+    /**
+     * Время записи по заголовку значения, тело не читается - достаточно первых HEADER байт.
+     *
+     * @return epoch ms; 0, если время неизвестно (v1, старый JSON, чужой формат)
+     */
+    public static long writtenAt(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER || bytes[0] != VERSION) {
+            return 0L;
+        }
+        return ByteBuffer.wrap(bytes, 2, 8).getLong();
+    }
+
+    private Object readBody(byte[] bytes, int header) {
+        byte type = (byte) (bytes[1] & TYPE_MASK);
+        if (type == TYPE_NULL) {
+            return NullValue.INSTANCE;
+        }
+        if (type == TYPE_JSON) {
+            return fallback.deserialize(Arrays.copyOfRange(bytes, header, bytes.length));
+        }
+        try {
+            ByteBuffer body = (bytes[1] & FLAG_LZ4) != 0
+                    ? decompress(bytes, header)
+                    : ByteBuffer.wrap(bytes, header, bytes.length - header);
+            return switch (type) {
+                case TYPE_PRODUCT -> readProduct(body);
+                case TYPE_PRODUCT_LIST -> {
+                    int count = body.getInt();
+                    if (count < 0 || count > body.remaining()) {
+                        throw new SerializationException("Corrupted product list length: " + count);
+                    }
+                    List<Product> products = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        products.add(readProduct(body));
+                    }
+                    yield products;
+                }
+                case TYPE_TILE_LIST -> {
+                    int count = body.getInt();
+                    if (count < 0 || count > body.remaining()) {
+                        throw new SerializationException("Corrupted tile list length: " + count);
+                    }
+                    List<ProductTile> tiles = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        tiles.add(readTile(body));
+                    }
+                    yield tiles;
+                }
+                default -> throw new SerializationException("Unknown cache value type: " + type);
+            };
+        } catch (BufferUnderflowException | IllegalArgumentException | LZ4Exception e) {
+            throw new SerializationException("Corrupted cache value", e);
+        }
+    }
+
+    private byte[] maybeCompress(Writer writer) {
+        byte[] raw = writer.toByteArray();
+        int bodyLength = raw.length - HEADER;
+        if (bodyLength < lz4Threshold) {
+            return raw;
+        }
+        int maxCompressed = compressor.maxCompressedLength(bodyLength);
+        byte[] compressed = new byte[HEADER + 4 + maxCompressed];
+        int compressedLength = compressor.compress(raw, HEADER, bodyLength, compressed, HEADER + 4, maxCompressed);
+        if (HEADER + 4 + compressedLength >= raw.length) {
+            return raw; // несжимаемые данные храним как есть
+        }
+        System.arraycopy(raw, 0, compressed, 0, HEADER);
+        compressed[1] = (byte) (raw[1] | FLAG_LZ4);
+        ByteBuffer.wrap(compressed, HEADER, 4).putInt(bodyLength);
+        return Arrays.copyOf(compressed, HEADER + 4 + compressedLength);
+    }
+
+    private ByteBuffer decompress(byte[] bytes, int header) {
+        int originalLength = ByteBuffer.wrap(bytes, header, 4).getInt();
+        if (originalLength < 0) {
+            throw new SerializationException("Corrupted LZ4 block length: " + originalLength);
+        }
+        byte[] restored = new byte[originalLength];
+        decompressor.decompress(bytes, header + 4, restored, 0, originalLength);
+        return ByteBuffer.wrap(restored);
+    }
+
+    private static Product readProduct(ByteBuffer body) {
+        long id = body.getLong();
+        double price = body.getDouble();
+        String name = readString(body);
+        String description = readString(body);
+        String imgPath = readString(body);
+        return new Product(id, name, price, description, imgPath, 0);
+    }
+
+    private static ProductTile readTile(ByteBuffer body) {
+        long id = body.getLong();
+        double price = body.getDouble();
+        return new ProductTile(id, readString(body), price, readString(body), readString(body));
+    }
+
+    private static String readString(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > body.remaining()) {
+            throw new SerializationException("Corrupted string length: " + length);
+        }
+        String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return value;
+    }
+
+    // верхняя оценка: UTF-8 занимает не больше 3 байт на char
+    private static int sizeOf(Product product) {
+        return 8 + 8 + sizeOf(product.getName()) + sizeOf(product.getDescription()) + sizeOf(product.getImgPath());
+    }
+
+    private static int sizeOf(ProductTile tile) {
+        return 8 + 8 + sizeOf(tile.name()) + sizeOf(tile.description()) + sizeOf(tile.imgPath());
+    }
+
+    private static int sizeOf(String value) {
+        return 4 + (value == null ? 0 : value.length() * 3);
+    }
+
+    private static final class Writer {
+        private final ByteBuffer buffer;
+
+        Writer(int capacity) {
+            this.buffer = ByteBuffer.allocate(capacity);
+        }
+
+        void header(byte type, long writtenAt) {
+            buffer.put(VERSION).put(type).putLong(writtenAt);
+        }
+
+        void product(Product product) {
+            buffer.putLong(product.getId() != null ? product.getId() : 0L);
+            buffer.putDouble(product.getPrice());
+            string(product.getName());
+            string(product.getDescription());
+            string(product.getImgPath());
+        }
+
+        void tile(ProductTile tile) {
+            buffer.putLong(tile.id() != null ? tile.id() : 0L);
+            buffer.putDouble(tile.price());
+            string(tile.name());
+            string(tile.description());
+            string(tile.imgPath());
+        }
+
+        void string(String value) {
+            if (value == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import java.util.Map;
+
+/**
+ * Содержимое корзины в том виде, в каком его отдаёт CartStore.
+ *
+ * @param quantities productId -> количество единиц (только положительные)
+ * @param total      сумма корзины
+ */
+public record CartContents(Map<Long, Integer> quantities, double total) {
+
+    public static final CartContents EMPTY = new CartContents(Map.of(), 0.0);
+
+    public boolean isEmpty() {
+        return quantities.isEmpty();
+    }
+}
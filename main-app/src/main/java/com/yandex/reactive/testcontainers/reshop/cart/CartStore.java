@@ -0,0 +1,75 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище живого содержимого корзины. Реализация выбирается свойством cart.storage:
+ * <ul>
+ *     <li>db (по умолчанию) - строки cart_products и carts.total_price в MySQL, см. DbCartStore;</li>
+ *     <li>redis - Redis-хеш на корзину с отложенной записью в MySQL, см. RedisCartStore.</li>
+ * </ul>
+ * Сама корзина (строка carts) всегда создаётся и ищется в MySQL через CartService.
+ */
+public interface CartStore {
+
+    /**
+     * @param cart корзина, прочитанная из MySQL (сумма берётся из неё, если хранилище не ведёт свою)
+     */
+    Mono<CartContents> contents(Cart cart);
+
+    /**
+     * Количества только указанных товаров (например, товаров текущей страницы витрины).
+     * Товаров, которых нет в корзине, в результате нет.
+     */
+    Mono<Map<Long, Integer>> quantities(Cart cart, Collection<Long> productIds);
+
+    /**
+     * Добавляет одну единицу товара.
+     */
+    Mono<Void> add(Cart cart, Product product);
+
+    /**
+     * Убирает одну единицу товара; последняя единица убирается вместе со строкой.
+     */
+    Mono<Void> removeOne(Cart cart, Product product);
+
+    /**
+     * Убирает товар из корзины целиком.
+     */
+    Mono<Void> removeAll(Cart cart, Product product);
+
+    Mono<Void> clear(Cart cart);
+
+    /**
+     * Применяет пакет изменений по порядку как одно атомарное изменение корзины.
+     * Изменения уже проверены (CartItemChange.validate), products содержит все упомянутые товары.
+     */
+    Mono<Void> apply(Cart cart, List<CartItemChange> changes, Map<Long, Product> products);
+
+    /**
+     * Синхронно сохраняет корзину в MySQL (перед оформлением заказа).
+     * Для хранилищ, которые пишут в MySQL сразу, ничего не делает.
+     */
+    default Mono<Void> flush(Cart cart) {
+        return Mono.empty();
+    }
+
+    /**
+     * Забывает закешированное содержимое корзин перед тем, как CartReaper удалит их строки прямо
+     * в MySQL. Вызывается, пока строки carts заблокированы очисткой. Корзины, чью копию забыть
+     * нельзя (в ней есть ещё не записанные изменения), в результат не попадают и не очищаются.
+     * Для хранилищ без своей копии возвращает все корзины.
+     *
+     * @return корзины, которые можно очищать
+     */
+    default Mono<List<Long>> evict(Collection<Long> cartIds) {
+        return Mono.just(List.copyOf(cartIds));
+    }
+}
@@ -0,0 +1,146 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Корзина прямо в MySQL: строка cart_products на товар и сумма в carts.total_price.
+ * <p>
+ * Сумма сдвигается на цену изменённых единиц в той же транзакции, что и строка,
+ * поэтому стоимость клика не зависит от размера корзины. Полный пересчёт делает CartTotalReconciler.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.storage", havingValue = "db", matchIfMissing = true)
+public class DbCartStore implements CartStore {
+
+    private final CartRepository cartRepository;
+    private final CartProductRepository cartProductRepository;
+
+    public DbCartStore(CartRepository cartRepository, CartProductRepository cartProductRepository) {
+        this.cartRepository = cartRepository;
+        this.cartProductRepository = cartProductRepository;
+    }
+
+    @Override
+    public Mono<CartContents> contents(Cart cart) {
+        return cartProductRepository.findByCartId(cart.getId())
+                .collectMap(CartProduct::getProductId, CartProduct::getQuantity)
+                .map(quantities -> new CartContents(quantities, cart.getTotalPrice()));
+    }
+
+    @Override
+    public Mono<Map<Long, Integer>> quantities(Cart cart, Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return cartProductRepository.findByCartIdAndProductIdIn(cart.getId(), productIds)
+                .collectMap(CartProduct::getProductId, CartProduct::getQuantity);
+    }
+
+    @Override
+    @Transactional
+    public Mono<Void> add(Cart cart, Product product) {
+        // upsert: новая строка с quantity = 1 или +1 к существующей
+        return cartProductRepository.incrementQuantity(cart.getId(), product.getId())
+                .then(cartRepository.addToTotal(cart.getId(), product.getId(), 1))
+                .then();
+    }
+
+    @Override
+    @Transactional
+    public Mono<Void> removeOne(Cart cart, Product product) {
+        // -1, а последнюю единицу удаляем вместе со строкой
+        return cartProductRepository.decrementQuantity(cart.getId(), product.getId())
+                .flatMap(updated -> updated > 0
+                        ? Mono.just(updated)
+                        : cartProductRepository.deleteLastUnit(cart.getId(), product.getId()))
+                // сумму трогаем, только если единица действительно была убрана
+                .flatMap(removed -> removed > 0
+                        ? cartRepository.addToTotal(cart.getId(), product.getId(), -1)
+                        : Mono.just(0))
+                .then();
+    }
+
+    @Override
+    @Transactional
+    public Mono<Void> removeAll(Cart cart, Product product) {
+        // сначала вычитаем строку из суммы, затем удаляем её
+        return cartRepository.subtractLine(cart.getId(), product.getId())
+                .then(cartProductRepository.deleteByCartIdAndProductId(cart.getId(), product.getId()))
+                .then();
+    }
+
+    /**
+     * Строки корзины читаются один раз вместе с её версией, изменения сворачиваются в итоговые количества,
+     * затем пишутся только изменившиеся строки и сумма пересчитывается один раз.
+     * Без блокировок: если корзину за это время изменили, пересчёт суммы не найдёт прочитанную версию,
+     * транзакция откатится с OptimisticLockingFailureException и CartService повторит пакет.
+     */
+    @Override
+    @Transactional
+    public Mono<Void> apply(Cart cart, List<CartItemChange> changes, Map<Long, Product> products) {
+        Long cartId = cart.getId();
+        return Mono.zip(cartRepository.findById(cartId).map(Cart::getVersion),
+                        cartProductRepository.findByCartId(cartId)
+                                .collectMap(CartProduct::getProductId, CartProduct::getQuantity))
+                .flatMap(tuple -> {
+                    long version = tuple.getT1();
+                    Map<Long, Integer> current = tuple.getT2();
+                    Map<Long, Integer> targets = new LinkedHashMap<>();
+                    for (CartItemChange change : changes) {
+                        int before = targets.getOrDefault(change.productId(), current.getOrDefault(change.productId(), 0));
+                        targets.put(change.productId(), change.applyTo(before));
+                    }
+                    List<Long> removed = new ArrayList<>();
+                    Map<Long, Integer> updated = new LinkedHashMap<>();
+                    targets.forEach((productId, quantity) -> {
+                        if (quantity == 0) {
+                            if (current.containsKey(productId)) {
+                                removed.add(productId);
+                            }
+                        } else if (!quantity.equals(current.get(productId))) {
+                            updated.put(productId, quantity);
+                        }
+                    });
+                    if (removed.isEmpty() && updated.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    Mono<Integer> deleteRemoved = removed.isEmpty()
+                            ? Mono.just(0)
+                            : cartProductRepository.deleteByCartIdAndProductIdIn(cartId, removed);
+                    return Flux.fromIterable(updated.entrySet())
+                            .concatMap(line -> cartProductRepository.setQuantity(cartId, line.getKey(), line.getValue()))
+                            .then(deleteRemoved)
+                            .then(cartRepository.reconcileTotalIfVersion(cartId, version))
+                            .flatMap(reconciled -> reconciled > 0
+                                    ? Mono.just(reconciled)
+                                    : Mono.error(new OptimisticLockingFailureException(
+                                            "Cart " + cartId + " was modified concurrently")));
+                })
+                .then();
+    }
+
+    @Override
+    @Transactional
+    public Mono<Void> clear(Cart cart) {
+        return cartProductRepository.deleteByCartId(cart.getId())
+                .then(cartRepository.updateTotal(cart.getId(), 0.0))
+                .then();
+    }
+}
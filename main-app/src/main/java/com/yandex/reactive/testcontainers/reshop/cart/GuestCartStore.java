@@ -0,0 +1,124 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.yandex.reactive.testcontainers.reshop.domain.enums.CartAction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Корзина анонимного покупателя в Redis-хеше guest-cart:{guestId} (productId -> quantity).
+ * <p>
+ * В MySQL ничего не пишется: guestId приходит из подписанного cookie (GuestCartCookie),
+ * хеш живёт cart.guest.ttl с последнего изменения. Суммы нет - цены применяются
+ * при слиянии с корзиной пользователя после логина (CartService.mergeGuestCart).
+ */
+@Component
+public class GuestCartStore {
+
+    private static final String KEY_PREFIX = "guest-cart:";
+
+    // ARGV: productId, delta (1, -1 или 0 - убрать строку целиком), ttl в миллисекундах
+    private static final RedisScript<Long> CHANGE = RedisScript.of("""
+            local current = tonumber(redis.call('hget', KEYS[1], ARGV[1]) or '0')
+            local delta = tonumber(ARGV[2])
+            local next = 0
+            if delta ~= 0 then next = math.max(current + delta, 0) end
+            if next == 0 then
+                redis.call('hdel', KEYS[1], ARGV[1])
+            else
+                redis.call('hset', KEYS[1], ARGV[1], next)
+            end
+            redis.call('pexpire', KEYS[1], ARGV[3])
+            return next
+            """, Long.class);
+
+    // Забирает корзину целиком: HGETALL и DEL одним скриптом, второй вызов получит пустой ответ
+    private static final RedisScript<List> TAKE = RedisScript.of("""
+            local lines = redis.call('hgetall', KEYS[1])
+            redis.call('del', KEYS[1])
+            return lines
+            """, List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final Duration ttl;
+
+    public GuestCartStore(ReactiveStringRedisTemplate redisTemplate,
+                          @Value("${cart.guest.ttl:P7D}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return все строки гостевой корзины (пустая карта, если корзины нет или она истекла)
+     */
+    public Mono<Map<Long, Integer>> contents(String guestId) {
+        return redisTemplate.<String, String>opsForHash().entries(key(guestId))
+                .collectMap(entry -> Long.valueOf(entry.getKey()), entry -> Integer.valueOf(entry.getValue()));
+    }
+
+    /**
+     * Атомарно забирает гостевую корзину: строки возвращаются и удаляются из Redis одним скриптом.
+     * Из нескольких одновременных вызовов строки получит только один, остальные - пустую карту.
+     */
+    public Mono<Map<Long, Integer>> take(String guestId) {
+        return redisTemplate.execute(TAKE, List.of(key(guestId)), List.of())
+                .next()
+                .map(GuestCartStore::toLines)
+                .defaultIfEmpty(Map.of());
+    }
+
+    /**
+     * Количества только указанных товаров, как CartStore.quantities.
+     */
+    public Mono<Map<Long, Integer>> quantities(String guestId, Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        List<Long> ids = List.copyOf(productIds);
+        List<String> fields = ids.stream().map(String::valueOf).toList();
+        return redisTemplate.<String, String>opsForHash().multiGet(key(guestId), fields)
+                .map(values -> {
+                    Map<Long, Integer> quantities = new HashMap<>();
+                    for (int i = 0; i < ids.size(); i++) {
+                        if (values.get(i) != null) {
+                            quantities.put(ids.get(i), Integer.valueOf(values.get(i)));
+                        }
+                    }
+                    return quantities;
+                });
+    }
+
+    public Mono<Void> change(String guestId, Long productId, CartAction action) {
+        int delta = switch (action) {
+            case PLUS -> 1;
+            case MINUS -> -1;
+            case DELETE -> 0;
+        };
+        List<String> args = List.of(productId.toString(), Integer.toString(delta), Long.toString(ttl.toMillis()));
+        return redisTemplate.execute(CHANGE, List.of(key(guestId)), args).then();
+    }
+
+    public Mono<Void> delete(String guestId) {
+        return redisTemplate.delete(key(guestId)).then();
+    }
+
+    private static Map<Long, Integer> toLines(List<?> flat) {
+        Map<Long, Integer> lines = new HashMap<>();
+        for (int i = 0; i + 1 < flat.size(); i += 2) {
+            lines.put(Long.valueOf(flat.get(i).toString()), Integer.valueOf(flat.get(i + 1).toString()));
+        }
+        return lines;
+    }
+
+    private static String key(String guestId) {
+        return KEY_PREFIX + guestId;
+    }
+}
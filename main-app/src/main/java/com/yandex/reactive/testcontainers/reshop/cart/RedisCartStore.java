@@ -0,0 +1,456 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Живая корзина в Redis-хеше cart:{cartId}: поля productId -> quantity и total.
+ * <p>
+ * Клик - один Lua-скрипт, который меняет количество, сдвигает total и помечает корзину
+ * в множестве cart:dirty. Фоновый цикл раз в cart.write-behind.interval забирает помеченные
+ * корзины пачками и пишет их текущее состояние в MySQL, поэтому серия кликов превращается
+ * в одну запись. Перед оформлением заказа корзина сохраняется синхронно (flush).
+ * <p>
+ * Хеш создаётся из MySQL при первом обращении; поле total есть всегда,
+ * поэтому пустая корзина отличается от незагруженной.
+ * <p>
+ * Каждое изменение увеличивает поле rev хеша. Запись в MySQL идёт под SELECT ... FOR UPDATE
+ * строки carts и только если там записана более старая ревизия (carts.redis_revision), поэтому
+ * снимок, прочитанный раньше, не перезапишет более новый, даже если два инстанса пишут одну
+ * корзину одновременно. Записанный хеш без новых изменений живёт cart.write-behind.clean-ttl,
+ * любое изменение снимает TTL до следующей записи. Скрипты изменения не создают хеш заново:
+ * если он истёк между проверкой и скриптом, корзина перечитывается из MySQL.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cart.storage", havingValue = "redis")
+public class RedisCartStore implements CartStore {
+
+    private static final String KEY_PREFIX = "cart:";
+    static final String DIRTY_KEY = "cart:dirty";
+    private static final String TOTAL_FIELD = "total";
+    private static final String REVISION_FIELD = "rev";
+    // ответ скриптов изменения, если хеша нет (истёк или вытеснен)
+    private static final long NOT_LOADED = -1;
+    private static final Duration SHUTDOWN_FLUSH_TIMEOUT = Duration.ofSeconds(10);
+
+    // заполняем хеш из БД, только если его ещё никто не создал; ARGV: TTL в мс, затем пары поле-значение
+    private static final RedisScript<Long> LOAD = RedisScript.of("""
+            if redis.call('exists', KEYS[1]) == 1 then return 0 end
+            redis.call('hset', KEYS[1], unpack(ARGV, 2))
+            redis.call('pexpire', KEYS[1], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // ARGV: productId, delta (1, -1 или 0 - убрать строку целиком), price, cartId
+    private static final RedisScript<Long> CHANGE = RedisScript.of("""
+            if redis.call('exists', KEYS[1]) == 0 then return -1 end
+            local current = tonumber(redis.call('hget', KEYS[1], ARGV[1]) or '0')
+            local delta = tonumber(ARGV[2])
+            local next = 0
+            if delta ~= 0 then next = math.max(current + delta, 0) end
+            if next == current then return current end
+            if next == 0 then
+                redis.call('hdel', KEYS[1], ARGV[1])
+            else
+                redis.call('hset', KEYS[1], ARGV[1], next)
+            end
+            redis.call('hincrbyfloat', KEYS[1], 'total', (next - current) * tonumber(ARGV[3]))
+            redis.call('hincrby', KEYS[1], 'rev', 1)
+            redis.call('persist', KEYS[1])
+            redis.call('sadd', KEYS[2], ARGV[4])
+            return next
+            """, Long.class);
+
+    // ARGV: cartId, затем тройки productId, операция (plus, minus, delete, количество или сдвиг +N/-N), price
+    private static final RedisScript<Long> APPLY = RedisScript.of("""
+            if redis.call('exists', KEYS[1]) == 0 then return -1 end
+            local delta = 0
+            for i = 2, #ARGV, 3 do
+                local current = tonumber(redis.call('hget', KEYS[1], ARGV[i]) or '0')
+                local op = ARGV[i + 1]
+                local next
+                if op == 'plus' then next = current + 1
+                elseif op == 'minus' then next = math.max(current - 1, 0)
+                elseif op == 'delete' then next = 0
+                elseif string.sub(op, 1, 1) == '+' then next = current + tonumber(string.sub(op, 2))
+                elseif string.sub(op, 1, 1) == '-' then next = math.max(current - tonumber(string.sub(op, 2)), 0)
+                else next = tonumber(op) end
+                if next ~= current then
+                    if next == 0 then
+                        redis.call('hdel', KEYS[1], ARGV[i])
+                    else
+                        redis.call('hset', KEYS[1], ARGV[i], next)
+                    end
+                    delta = delta + (next - current) * tonumber(ARGV[i + 2])
+                end
+            end
+            if delta ~= 0 then redis.call('hincrbyfloat', KEYS[1], 'total', delta) end
+            redis.call('hincrby', KEYS[1], 'rev', 1)
+            redis.call('persist', KEYS[1])
+            redis.call('sadd', KEYS[2], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // ревизия продолжается: очищенная корзина должна перезаписать в MySQL всё, что было до неё
+    private static final RedisScript<Long> CLEAR = RedisScript.of("""
+            if redis.call('exists', KEYS[1]) == 0 then return -1 end
+            local rev = tonumber(redis.call('hget', KEYS[1], 'rev') or '0') + 1
+            redis.call('del', KEYS[1])
+            redis.call('hset', KEYS[1], 'total', '0', 'rev', rev)
+            redis.call('sadd', KEYS[2], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS: хеш корзины, cart:dirty; ARGV: cartId, записанная ревизия, TTL в мс.
+    // TTL ставится, только если после записи корзину не меняли
+    private static final RedisScript<Long> EXPIRE_CLEAN = RedisScript.of("""
+            if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then return 0 end
+            if redis.call('hget', KEYS[1], 'rev') ~= ARGV[2] then return 0 end
+            return redis.call('pexpire', KEYS[1], ARGV[3])
+            """, Long.class);
+
+    // KEYS: хеш корзины, cart:dirty; ARGV: cartId.
+    // Помеченную корзину не трогаем: покупатель её только что менял, и write-behind запишет её обратно
+    private static final RedisScript<Long> EVICT = RedisScript.of("""
+            if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then return 0 end
+            redis.call('del', KEYS[1])
+            return 1
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final CartRepository cartRepository;
+    private final CartProductRepository cartProductRepository;
+    private final TransactionalOperator transactionalOperator;
+    private final Duration flushInterval;
+    private final int batchSize;
+    private final Duration cleanTtl;
+
+    private volatile Disposable flushLoop;
+
+    public RedisCartStore(ReactiveStringRedisTemplate redisTemplate,
+                          CartRepository cartRepository,
+                          CartProductRepository cartProductRepository,
+                          TransactionalOperator transactionalOperator,
+                          @Value("${cart.write-behind.interval:PT1S}") Duration flushInterval,
+                          @Value("${cart.write-behind.batch-size:100}") int batchSize,
+                          @Value("${cart.write-behind.clean-ttl:PT1H}") Duration cleanTtl) {
+        this.redisTemplate = redisTemplate;
+        this.cartRepository = cartRepository;
+        this.cartProductRepository = cartProductRepository;
+        this.transactionalOperator = transactionalOperator;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        this.cleanTtl = cleanTtl;
+    }
+
+    @Override
+    public Mono<CartContents> contents(Cart cart) {
+        return ensureLoaded(cart)
+                .then(read(cart.getId()))
+                .defaultIfEmpty(CartContents.EMPTY);
+    }
+
+    @Override
+    public Mono<Map<Long, Integer>> quantities(Cart cart, Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        List<Long> ids = List.copyOf(productIds);
+        List<String> fields = ids.stream().map(String::valueOf).toList();
+        return ensureLoaded(cart)
+                .then(redisTemplate.<String, String>opsForHash().multiGet(key(cart.getId()), fields))
+                .map(values -> {
+                    Map<Long, Integer> quantities = new HashMap<>();
+                    for (int i = 0; i < ids.size(); i++) {
+                        if (values.get(i) != null) {
+                            quantities.put(ids.get(i), Integer.valueOf(values.get(i)));
+                        }
+                    }
+                    return quantities;
+                });
+    }
+
+    @Override
+    public Mono<Void> add(Cart cart, Product product) {
+        return change(cart, product, 1);
+    }
+
+    @Override
+    public Mono<Void> removeOne(Cart cart, Product product) {
+        return change(cart, product, -1);
+    }
+
+    @Override
+    public Mono<Void> removeAll(Cart cart, Product product) {
+        return change(cart, product, 0);
+    }
+
+    @Override
+    public Mono<Void> clear(Cart cart) {
+        return executeLoaded(cart, CLEAR, List.of(cart.getId().toString()));
+    }
+
+    /**
+     * Весь пакет применяется одним Lua-скриптом, т.е. атомарно и за один запрос к Redis.
+     */
+    @Override
+    public Mono<Void> apply(Cart cart, List<CartItemChange> changes, Map<Long, Product> products) {
+        List<String> args = new ArrayList<>(changes.size() * 3 + 1);
+        args.add(cart.getId().toString());
+        for (CartItemChange change : changes) {
+            args.add(change.productId().toString());
+            args.add(operation(change));
+            args.add(Double.toString(products.get(change.productId()).getPrice()));
+        }
+        return executeLoaded(cart, APPLY, args);
+    }
+
+    /**
+     * Снимает отметку и сразу пишет корзину в MySQL. При ошибке корзина снова помечается
+     * для фоновой записи, а ошибка пробрасывается вызывающему (оформление заказа не продолжится).
+     */
+    @Override
+    public Mono<Void> flush(Cart cart) {
+        Long cartId = cart.getId();
+        return redisTemplate.opsForSet().remove(DIRTY_KEY, cartId.toString())
+                .then(persist(cartId))
+                .onErrorResume(e -> markDirty(cartId).then(Mono.error(e)));
+    }
+
+    /**
+     * Хеш, созданный после удаления, уже пуст: загрузка ждёт блокировки строки carts (см. loadFromDb).
+     */
+    @Override
+    public Mono<List<Long>> evict(Collection<Long> cartIds) {
+        return Flux.fromIterable(cartIds)
+                .flatMapSequential(cartId -> redisTemplate.execute(EVICT, List.of(key(cartId), DIRTY_KEY),
+                                List.of(cartId.toString())).next()
+                        .filter(evicted -> evicted == 1)
+                        .map(evicted -> cartId))
+                .collectList();
+    }
+
+    /**
+     * Записывает в MySQL все помеченные корзины, пачками по batchSize.
+     *
+     * @return число записанных корзин
+     */
+    public Mono<Long> flushDirty() {
+        return flushBatch()
+                .expand(flushed -> flushed == batchSize ? flushBatch() : Mono.empty())
+                .reduce(0L, Long::sum);
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void startFlushLoop() {
+        flushLoop = Flux.interval(flushInterval, flushInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flushDirty()
+                        .onErrorResume(e -> {
+                            log.error("Cart write-behind failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopFlushLoop() {
+        if (flushLoop != null) {
+            flushLoop.dispose();
+        }
+        try {
+            Long flushed = flushDirty().block(SHUTDOWN_FLUSH_TIMEOUT);
+            log.info("Cart write-behind flushed {} carts on shutdown", flushed);
+        } catch (RuntimeException e) {
+            // корзины остаются помеченными в Redis и будут записаны следующим инстансом
+            log.warn("Cart write-behind flush on shutdown failed: {}", e.getMessage());
+        }
+    }
+
+    private Mono<Long> flushBatch() {
+        return redisTemplate.opsForSet().pop(DIRTY_KEY, batchSize)
+                .map(Long::valueOf)
+                .flatMap(cartId -> persist(cartId)
+                        .thenReturn(1L)
+                        .onErrorResume(e -> {
+                            log.warn("Cart {} write-behind failed, will retry: {}", cartId, e.getMessage());
+                            return markDirty(cartId).thenReturn(1L);
+                        }))
+                .count();
+    }
+
+    private static String operation(CartItemChange change) {
+        if (change.quantity() != null) {
+            return change.quantity().toString();
+        }
+        if (change.delta() != null) {
+            return change.delta() >= 0 ? "+" + change.delta() : change.delta().toString();
+        }
+        return change.action().toLowerCase();
+    }
+
+    private Mono<Void> change(Cart cart, Product product, int delta) {
+        List<String> args = List.of(
+                product.getId().toString(),
+                Integer.toString(delta),
+                Double.toString(product.getPrice()),
+                cart.getId().toString());
+        return executeLoaded(cart, CHANGE, args);
+    }
+
+    /**
+     * Выполняет скрипт изменения над загруженным хешем. Если хеш истёк между проверкой и скриптом,
+     * скрипт ничего не меняет - корзина перечитывается из MySQL и скрипт выполняется ещё раз.
+     */
+    private Mono<Void> executeLoaded(Cart cart, RedisScript<Long> script, List<String> args) {
+        List<String> keys = List.of(key(cart.getId()), DIRTY_KEY);
+        return ensureLoaded(cart)
+                .then(redisTemplate.execute(script, keys, args).next())
+                .flatMap(result -> result == NOT_LOADED
+                        ? loadFromDb(cart).then(redisTemplate.execute(script, keys, args).next())
+                        : Mono.just(result))
+                .flatMap(result -> result == NOT_LOADED
+                        ? Mono.error(new IllegalStateException("Cart " + cart.getId() + " is not loaded into Redis"))
+                        : Mono.empty());
+    }
+
+    private Mono<Void> ensureLoaded(Cart cart) {
+        return redisTemplate.hasKey(key(cart.getId()))
+                .flatMap(exists -> Boolean.TRUE.equals(exists) ? Mono.empty() : loadFromDb(cart));
+    }
+
+    /**
+     * Сумма и ревизия читаются из строки carts, а не из переданной корзины: это может быть ссылка
+     * без суммы (CartService.getCartRef). Ревизия продолжает записанную: иначе изменения
+     * перезагруженного хеша считались бы старее уже записанных.
+     * <p>
+     * Хеш создаётся под блокировкой строки carts: загрузка не пересекается с пачкой CartReaper,
+     * поэтому в Redis не попадут строки, которые очистка удаляет.
+     */
+    private Mono<Void> loadFromDb(Cart cart) {
+        return cartRepository.lockRedisRevision(cart.getId())
+                .then(cartRepository.findById(cart.getId()).defaultIfEmpty(new Cart()))
+                .zipWhen(stored -> cartProductRepository.findByCartId(cart.getId()).collectList())
+                .flatMap(tuple -> {
+                    Cart stored = tuple.getT1();
+                    List<CartProduct> lines = tuple.getT2();
+                    List<String> args = new ArrayList<>(lines.size() * 2 + 5);
+                    args.add(Long.toString(cleanTtl.toMillis()));
+                    args.add(TOTAL_FIELD);
+                    args.add(Double.toString(stored.getTotalPrice()));
+                    args.add(REVISION_FIELD);
+                    args.add(Long.toString(stored.getRedisRevision()));
+                    for (CartProduct line : lines) {
+                        args.add(line.getProductId().toString());
+                        args.add(Integer.toString(line.getQuantity()));
+                    }
+                    return redisTemplate.execute(LOAD, List.of(key(cart.getId())), args).then();
+                })
+                .as(transactionalOperator::transactional);
+    }
+
+    private Mono<CartContents> read(Long cartId) {
+        return readFields(cartId).map(RedisCartStore::toContents);
+    }
+
+    private Mono<Map<String, String>> readFields(Long cartId) {
+        return redisTemplate.<String, String>opsForHash().entries(key(cartId))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .filter(fields -> !fields.isEmpty());
+    }
+
+    /**
+     * Переписывает строки и сумму корзины в MySQL текущим состоянием хеша, если в MySQL записана
+     * более старая ревизия. Если хеша уже нет, писать нечего. После записи хешу ставится TTL.
+     */
+    private Mono<Void> persist(Long cartId) {
+        return readFields(cartId)
+                .flatMap(fields -> {
+                    CartContents contents = toContents(fields);
+                    long revision = Long.parseLong(fields.getOrDefault(REVISION_FIELD, "0"));
+                    return cartRepository.lockRedisRevision(cartId)
+                            .flatMap(written -> {
+                                if (written >= revision) {
+                                    log.debug("Cart {} revision {} is already written ({}), skipped",
+                                            cartId, revision, written);
+                                    return Mono.just(false);
+                                }
+                                return writeContents(cartId, contents, revision).thenReturn(true);
+                            })
+                            .as(transactionalOperator::transactional)
+                            .doOnNext(written -> {
+                                if (written) {
+                                    log.debug("Cart {} revision {} written to DB", cartId, revision);
+                                }
+                            })
+                            .then(expireIfClean(cartId, revision));
+                });
+    }
+
+    private Mono<Integer> writeContents(Long cartId, CartContents contents, long revision) {
+        Map<Long, Integer> quantities = contents.quantities();
+        Mono<Integer> removeMissing = quantities.isEmpty()
+                ? cartProductRepository.deleteByCartId(cartId)
+                : cartProductRepository.deleteByCartIdAndProductIdNotIn(cartId, quantities.keySet());
+        return Flux.fromIterable(quantities.entrySet())
+                .concatMap(line -> cartProductRepository.setQuantity(cartId, line.getKey(), line.getValue()))
+                .then(removeMissing)
+                .then(cartRepository.updateTotalFromRedis(cartId, contents.total(), revision));
+    }
+
+    private Mono<Void> expireIfClean(Long cartId, long revision) {
+        return redisTemplate.execute(EXPIRE_CLEAN, List.of(key(cartId), DIRTY_KEY),
+                        List.of(cartId.toString(), Long.toString(revision), Long.toString(cleanTtl.toMillis())))
+                .then();
+    }
+
+    private Mono<Long> markDirty(Long cartId) {
+        return redisTemplate.opsForSet().add(DIRTY_KEY, cartId.toString())
+                .onErrorResume(e -> {
+                    log.error("Failed to mark cart {} for write-behind: {}", cartId, e.getMessage());
+                    return Mono.just(0L);
+                });
+    }
+
+    static CartContents toContents(Map<String, String> fields) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        double total = 0.0;
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (TOTAL_FIELD.equals(field.getKey())) {
+                total = Double.parseDouble(field.getValue());
+            } else if (!REVISION_FIELD.equals(field.getKey())) {
+                quantities.put(Long.valueOf(field.getKey()), Integer.valueOf(field.getValue()));
+            }
+        }
+        return new CartContents(quantities, total);
+    }
+
+    private static String key(Long cartId) {
+        return KEY_PREFIX + cartId;
+    }
+}
@@ -1,30 +1,130 @@
 package com.yandex.reactive.testcontainers.reshop.config;
 
+import com.yandex.reactive.testcontainers.reshop.cache.CacheInvalidationBus;
+import com.yandex.reactive.testcontainers.reshop.cache.CacheLoadLease;
+import com.yandex.reactive.testcontainers.reshop.cache.CacheWriteTimeReader;
+import com.yandex.reactive.testcontainers.reshop.cache.MultiGetCache;
+import com.yandex.reactive.testcontainers.reshop.cache.NearCacheManager;
+import com.yandex.reactive.testcontainers.reshop.cache.ProductCacheSerializer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.cache.RedisCacheManagerBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
 import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
 
 @Configuration
 public class RedisCacheConfig {
 
+    /**
+     * TTL записи в Redis - жёсткий (hard-ttl): до него устаревшее значение ещё можно отдать,
+     * пока оно обновляется в фоне. Мягкий soft-ttl обрабатывает NearCache.
+     */
     @Bean
-    public RedisCacheManagerBuilderCustomizer productsCacheCustomizer() {
+    public RedisCacheManagerBuilderCustomizer productsCacheCustomizer(
+            @Value("${cache.products.lz4-threshold-bytes:4096}") int lz4ThresholdBytes,
+            @Value("${cache.products.hard-ttl:PT1H}") Duration hardTtl) {
         return builder -> builder
                 .withCacheConfiguration(
                         "products",                    // Имя кеша
                         RedisCacheConfiguration.defaultCacheConfig()
-                                .entryTtl(Duration.ofMinutes(5))  // TTL 5 минут
-                                .serializeValuesWith(             // Сериализация JSON
+                                .entryTtl(hardTtl)
+                                .serializeValuesWith(             // Компактный бинарный формат (см. ProductCacheSerializer)
                                         RedisSerializationContext.SerializationPair.fromSerializer(
-                                                new GenericJackson2JsonRedisSerializer())
+                                                new ProductCacheSerializer(lz4ThresholdBytes))
                                 )
                 );
     }
 
-}
+    /**
+     * Redis-кеш (L2). Собирается вручную, т.к. при своём CacheManager автоконфигурация кеша отключается,
+     * но кастомайзеры применяются те же.
+     */
+    @Bean
+    public RedisCacheManager redisCacheManager(RedisConnectionFactory connectionFactory,
+                                               ObjectProvider<RedisCacheManagerBuilderCustomizer> customizers) {
+        RedisCacheManager.RedisCacheManagerBuilder builder = RedisCacheManager.builder(connectionFactory)
+                .cacheDefaults(RedisCacheConfiguration.defaultCacheConfig());
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        return builder.build();
+    }
+
+    @Bean
+    public ReactiveRedisMessageListenerContainer cacheInvalidationListenerContainer(
+            ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveRedisMessageListenerContainer(connectionFactory);
+    }
+
+    @Bean
+    public CacheInvalidationBus cacheInvalidationBus(
+            ReactiveStringRedisTemplate redisTemplate,
+            ReactiveRedisMessageListenerContainer cacheInvalidationListenerContainer,
+            @Value("${cache.near.invalidation-channel:cache:invalidation}") String channel) {
+        return new CacheInvalidationBus(redisTemplate, cacheInvalidationListenerContainer, channel);
+    }
 
+    /**
+     * Аренда на пересчёт ключа: при одновременном промахе на нескольких инстансах в БД идёт только один.
+     */
+    @Bean
+    public CacheLoadLease cacheLoadLease(ReactiveStringRedisTemplate redisTemplate,
+                                        @Value("${cache.single-flight.lease-time:PT3S}") Duration leaseTime,
+                                        @Value("${cache.single-flight.poll-interval:PT0.05S}") Duration pollInterval) {
+        return new CacheLoadLease(redisTemplate, leaseTime, pollInterval);
+    }
+
+    /**
+     * Время записи значений в Redis для фонового обновления устаревших записей (soft-ttl).
+     */
+    @Bean
+    public CacheWriteTimeReader cacheWriteTimeReader(RedisCacheManager redisCacheManager,
+                                                     ReactiveRedisConnectionFactory connectionFactory) {
+        return new CacheWriteTimeReader(redisCacheManager, connectionFactory);
+    }
+
+    /**
+     * Основной CacheManager для @Cacheable: локальный L1 (Caffeine) перед Redis.
+     */
+    @Bean
+    @Primary
+    public NearCacheManager cacheManager(RedisCacheManager redisCacheManager,
+                                         CacheInvalidationBus cacheInvalidationBus,
+                                         CacheLoadLease cacheLoadLease,
+                                         CacheWriteTimeReader cacheWriteTimeReader,
+                                         @Value("${cache.near.caches:products}") Set<String> nearCacheNames,
+                                         @Value("${cache.near.max-weight-bytes:33554432}") long maxWeightBytes,
+                                         @Value("${cache.near.expire-after-write:PT1M}") Duration expireAfterWrite,
+                                         @Value("${cache.products.soft-ttl:PT5M}") Duration productsSoftTtl,
+                                         @Value("${cache.refresh.threads:4}") int refreshThreads,
+                                         @Value("${cache.refresh.queue-size:256}") int refreshQueueSize) {
+        // фоновые обновления не должны отнимать соединения у пользовательских запросов без ограничений
+        Scheduler refreshScheduler = Schedulers.newBoundedElastic(refreshThreads, refreshQueueSize, "cache-refresh");
+        return new NearCacheManager(redisCacheManager, cacheInvalidationBus, cacheLoadLease, nearCacheNames,
+                maxWeightBytes, expireAfterWrite, Map.of("products", productsSoftTtl), cacheWriteTimeReader, refreshScheduler);
+    }
+
+    /**
+     * MGET / пайплайн SET для пакетной загрузки товаров (ProductService#findAllByIds).
+     */
+    @Bean
+    public MultiGetCache multiGetCache(NearCacheManager cacheManager,
+                                       RedisCacheManager redisCacheManager,
+                                       ReactiveRedisConnectionFactory connectionFactory) {
+        return new MultiGetCache(cacheManager, redisCacheManager, connectionFactory);
+    }
+
+}
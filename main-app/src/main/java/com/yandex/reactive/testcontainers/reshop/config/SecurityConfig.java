@@ -1,8 +1,11 @@
 package com.yandex.reactive.testcontainers.reshop.config;
 
+import com.yandex.reactive.testcontainers.reshop.security.GuestCartCookie;
 import com.yandex.reactive.testcontainers.reshop.service.KeycloakUserSyncService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
@@ -15,8 +18,12 @@ import org.springframework.security.oauth2.client.registration.ReactiveClientReg
 import org.springframework.security.oauth2.client.userinfo.ReactiveOAuth2UserService;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.RedirectServerAuthenticationSuccessHandler;
+import org.springframework.security.web.server.authentication.ServerAuthenticationSuccessHandler;
 import org.springframework.security.web.server.authentication.logout.ServerLogoutSuccessHandler;
+import reactor.core.publisher.Mono;
 
+@Slf4j
 @Configuration
 @EnableWebFluxSecurity
 public class SecurityConfig {
@@ -47,15 +54,23 @@ public class SecurityConfig {
                 .flatMap(syncService::syncUser);
     }
 
+    /**
+     * Витрина и гостевая корзина (POST /main/items/{id}) доступны без логина.
+     */
     @Bean
-    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
+                                                         KeycloakUserSyncService syncService,
+                                                         GuestCartCookie guestCartCookie) {
         http
             .authorizeExchange(exchanges -> exchanges
                 .pathMatchers("/", "/main/items", "/items/**", "/login", "/oauth2/**", "/actuator/**").permitAll()
+                .pathMatchers(HttpMethod.POST, "/main/items/*").permitAll()
                 .anyExchange().authenticated()
             )
             .csrf(ServerHttpSecurity.CsrfSpec::disable)
-            .oauth2Login(Customizer.withDefaults())
+            .oauth2Login(login -> login
+                .authenticationSuccessHandler(loginSuccessHandler(syncService, guestCartCookie))
+            )
             .oauth2Client(Customizer.withDefaults())  //main-app выступает как OAuth2 client
             .logout(logout -> logout
                 .logoutSuccessHandler(oidcLogoutSuccessHandler())
@@ -64,6 +79,26 @@ public class SecurityConfig {
         return http.build();
     }
 
+    /**
+     * После логина переносит гостевую корзину из cookie в корзину пользователя и удаляет cookie,
+     * затем обычный редирект на сохранённый запрос. Ошибка слияния логин не ломает.
+     */
+    private ServerAuthenticationSuccessHandler loginSuccessHandler(KeycloakUserSyncService syncService,
+                                                                   GuestCartCookie guestCartCookie) {
+        var redirect = new RedirectServerAuthenticationSuccessHandler();
+        return (webFilterExchange, authentication) -> {
+            var exchange = webFilterExchange.getExchange();
+            return Mono.justOrEmpty(guestCartCookie.read(exchange.getRequest().getCookies()))
+                .flatMap(guestId -> syncService.mergeGuestCart(authentication.getPrincipal(), guestId)
+                    .then(Mono.fromRunnable(() -> exchange.getResponse().addCookie(guestCartCookie.expire())))
+                    .onErrorResume(e -> {
+                        log.warn("Guest cart {} merge failed: {}", guestId, e.getMessage());
+                        return Mono.empty();
+                    }))
+                .then(redirect.onAuthenticationSuccess(webFilterExchange, authentication));
+        };
+    }
+
     private ServerLogoutSuccessHandler oidcLogoutSuccessHandler() {
         var successHandler =
             new OidcClientInitiatedServerLogoutSuccessHandler(clientRegistrationRepository);
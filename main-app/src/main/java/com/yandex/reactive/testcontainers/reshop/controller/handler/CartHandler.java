@@ -1,17 +1,16 @@
 package com.yandex.reactive.testcontainers.reshop.controller.handler;
 
-import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
 import com.yandex.reactive.testcontainers.reshop.dto.CartItemDto;
-import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
-import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
 import com.yandex.reactive.testcontainers.reshop.service.CartService;
 import com.yandex.reactive.testcontainers.reshop.service.PaymentClientService;
+import com.yandex.reactive.testcontainers.reshop.service.ProductService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 
@@ -27,22 +26,19 @@ import java.util.stream.Collectors;
 public class CartHandler {
 
     private final CartService cartService;
-    private final CartProductRepository cartProductRepository;
-    private final ProductRepository productRepository;
+    private final ProductService productService;
     private final PaymentClientService paymentClientService;
 
     public CartHandler(CartService cartService,
-                       CartProductRepository cartProductRepository,
-                       ProductRepository productRepository, PaymentClientService paymentClientService) {
+                       ProductService productService, PaymentClientService paymentClientService) {
         this.cartService = cartService;
-        this.cartProductRepository = cartProductRepository;
-        this.productRepository = productRepository;
+        this.productService = productService;
         this.paymentClientService = paymentClientService;
     }
 
     /**
      * GET "/cart/items" – отображение корзины.
-     * Получает корзину, затем через join‑таблицу формирует список уникальных товаров с посчитанным количеством.
+     * Получает корзину, затем по её содержимому (CartStore) формирует список товаров с их количеством.
      * Рендерит шаблон "cart.html" с параметрами:
      * - products: список CartItemDto,
      * - total: общая сумма корзины,
@@ -50,29 +46,21 @@ public class CartHandler {
      */
     public Mono<ServerResponse> getCartItems(ServerRequest request) {
         return cartService.getCart().flatMap(cart ->
-                cartProductRepository.findByCartId(cart.getId())
-                        .collectList()
-                        .flatMap(cartProducts -> {
-                            // Группируем записи из join‑таблицы по productId с подсчетом количества
-                            Map<Long, Long> productCounts = cartProducts.stream()
-                                    .collect(Collectors.groupingBy(
-                                            CartProduct::getProductId,
-                                            Collectors.counting()
-                                    ));
+                cartService.getContents(cart)
+                        .flatMap(contents -> {
+                            Map<Long, Integer> productCounts = contents.quantities();
                             Set<Long> productIds = productCounts.keySet();
-                            // Получаем список уникальных продуктов
-                            return Flux.fromIterable(productIds)
-                                    .flatMap(productRepository::findById)
-                                    .collectList()
+                            // Получаем уникальные продукты одним пакетным запросом
+                            return productService.findAllByIds(productIds)
                                     .flatMap(products -> {
-                                        List<CartItemDto> cartItemDtos = products.stream()
+                                        List<CartItemDto> cartItemDtos = products.values().stream()
                                                 .map(product -> CartItemDto.builder()
                                                         .id(product.getId())
                                                         .name(product.getName())
                                                         .description(product.getDescription())
                                                         .imgPath(product.getImgPath())
                                                         .price(product.getPrice())
-                                                        .count(productCounts.get(product.getId()).intValue())
+                                                        .count(productCounts.get(product.getId()))
                                                         .build())
                                                 .collect(Collectors.toList());
 
@@ -83,7 +71,7 @@ public class CartHandler {
                                                             log.error("Health check failed: {}", e.getMessage());
                                                             return Mono.just(false);
                                                         }),
-                                                paymentClientService.checkBalance(String.valueOf(cart.getUserId()), cart.getTotalPrice())
+                                                paymentClientService.checkBalance(String.valueOf(cart.getUserId()), contents.total())
                                                         .onErrorResume(e -> {
                                                             log.error("Balance check failed: {}", e.getMessage());
                                                             return Mono.just(false);
@@ -96,7 +84,7 @@ public class CartHandler {
                                             boolean canBuy = paymentHealthy && sufficientBalance;
                                             Map<String, Object> model = new HashMap<>();
                                             model.put("products", cartItemDtos);
-                                            model.put("total", cart.getTotalPrice());
+                                            model.put("total", contents.total());
                                             model.put("canBuy", canBuy);
                                             model.put("sufficientBalance", sufficientBalance);
                                             // If payment service is down, display error message
@@ -109,6 +97,30 @@ public class CartHandler {
                 .render("not-found", Map.of("errorMessage", "Корзина не найдена")));
     }
 
+    /**
+     * POST "/cart/items" – пакетное изменение корзины.
+     * JSON: массив CartItemChange, в ответ - содержимое корзины после изменения.
+     * Форма: повторяющееся поле items ("productId:action" или "productId:quantity"),
+     * после изменения редирект на "/cart/items".
+     */
+    public Mono<ServerResponse> modifyCartItems(ServerRequest request) {
+        boolean json = request.headers().contentType()
+                .filter(MediaType.APPLICATION_JSON::isCompatibleWith)
+                .isPresent();
+        if (json) {
+            return request.bodyToFlux(CartItemChange.class)
+                    .collectList()
+                    .flatMap(cartService::modifyItems)
+                    .flatMap(contents -> ServerResponse.ok()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(contents));
+        }
+        return request.formData()
+                .map(formData -> CartItemChange.parseForm(formData.getOrDefault("items", List.of())))
+                .flatMap(cartService::modifyItems)
+                .then(ServerResponse.seeOther(URI.create("/cart/items")).build());
+    }
+
     /**
      * POST "/cart/items/{id}"
      * Извлекает из path переменную productId и action из formData.
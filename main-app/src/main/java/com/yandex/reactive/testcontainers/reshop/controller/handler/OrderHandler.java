@@ -1,9 +1,11 @@
 package com.yandex.reactive.testcontainers.reshop.controller.handler;
 
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
-import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderCursor;
 import com.yandex.reactive.testcontainers.reshop.dto.OrderDTO;
+import com.yandex.reactive.testcontainers.reshop.dto.Paging;
 import com.yandex.reactive.testcontainers.reshop.exception.PaymentException;
+import com.yandex.reactive.testcontainers.reshop.security.ShopOidcUser;
 import com.yandex.reactive.testcontainers.reshop.service.OrderProcessingService;
 import com.yandex.reactive.testcontainers.reshop.service.OrderService;
 import lombok.extern.slf4j.Slf4j;
@@ -21,12 +23,16 @@ import reactor.core.publisher.Mono;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 public class OrderHandler {
 
+    private static final int DEFAULT_PAGE_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final OrderService orderService;
     private final OrderProcessingService orderProcessingService;
 
@@ -36,7 +42,8 @@ public class OrderHandler {
     }
 
     /**
-     * POST "/buy" – Покупка товаров из корзины: создание заказа, очистка корзины и редирект на детали заказа.
+     * POST "/buy" – Покупка товаров из корзины: оплата, создание заказа и редирект на детали заказа.
+     * Строки заказа и очистка корзины доделываются в фоне (OrderOutboxWorker).
      * В случае payment failure, рендеринг payment-error темплейта.
      */
     public Mono<ServerResponse> buy(ServerRequest request) {
@@ -60,10 +67,6 @@ public class OrderHandler {
 
         return orderService.findByIdWithProducts(id)
                 .flatMap(order -> {
-                    List<Product> groupedProducts = orderService.groupProductsWithCounts(order.getProducts());
-                    order.setProducts(groupedProducts);
-                    double totalSum = orderService.calculateTotalSum(order);
-                    order.setTotalSum(totalSum);
                     OrderDTO orderDTO = convertToDTO(order);
                     model.addAttribute("order", orderDTO);
                     model.addAttribute("newOrder", newOrder);
@@ -73,9 +76,23 @@ public class OrderHandler {
     }
 
     /**
-     * GET "/orders" – отображение списка заказов для текущего юзера.
+     * GET "/orders" – отображение списка заказов для текущего юзера, страницами от новых к старым.
+     * Следующая страница запрашивается по keyset-курсору (query-параметр cursor) последнего заказа страницы.
      */
     public Mono<ServerResponse> orders(ServerRequest request) {
+        // параметры разбираются внутри defer: невалидный курсор становится ошибкой цепочки, и роутер отвечает 400
+        return Mono.defer(() -> ordersPage(request));
+    }
+
+    private Mono<ServerResponse> ordersPage(ServerRequest request) {
+        int pageSize = Math.min(Math.max(
+                Integer.parseInt(request.queryParam("pageSize").orElse(String.valueOf(DEFAULT_PAGE_SIZE))), 1),
+                MAX_PAGE_SIZE);
+        int pageNumber = Integer.parseInt(request.queryParam("pageNumber").orElse("1"));
+        OrderCursor after = OrderCursor.decode(request.queryParam("cursor").orElse(null));
+        // на один заказ больше, чтобы узнать, есть ли следующая страница
+        int limit = pageSize + 1;
+
         var authenticationMono = request.principal()
                 .cast(Authentication.class)
                 .filter(auth -> auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken))
@@ -95,19 +112,24 @@ public class OrderHandler {
 
         var model = new ConcurrentModel();
 
-        var ordersForUser = usernameMono
-                .flatMapMany(orderService::findOrdersForUsername);
+        // id пользователя из principal (ShopOidcUser), для старых сессий - поиск по username
+        var ordersForUser = authenticationMono
+                .flatMap(auth -> Mono.justOrEmpty(ShopOidcUser.userId(auth.getPrincipal())))
+                .map(userId -> orderService.findOrdersForUser(userId, after, limit))
+                .switchIfEmpty(usernameMono.map(username -> orderService.findOrdersForUsername(username, after, limit)))
+                .flatMapMany(Function.identity());
 
         return ordersForUser
-                .flatMap(order -> orderService.findByIdWithProducts(order.getId()))
                 .collectList()
+                .flatMap(page -> {
+                    boolean hasNext = page.size() > pageSize;
+                    List<Order> orders = hasNext ? page.subList(0, pageSize) : page;
+                    String nextCursor = hasNext ? OrderCursor.of(orders.get(orders.size() - 1)).encode() : null;
+                    model.addAttribute("paging", new Paging(pageNumber, pageSize, hasNext, after != null, nextCursor));
+                    // строки всех заказов страницы читаются одним запросом, а не по заказу
+                    return orderService.attachProducts(orders);
+                })
                 .flatMap(orders -> {
-                    orders.forEach(order -> {
-                        List<Product> groupedProducts = orderService.groupProductsWithCounts(order.getProducts());
-                        order.setProducts(groupedProducts);
-                        double totalSum = orderService.calculateTotalSum(order);
-                        order.setTotalSum(totalSum);
-                    });
                     List<OrderDTO> orderDTOs = orders.stream()
                             .map(this::convertToDTO)
                             .collect(Collectors.toList());
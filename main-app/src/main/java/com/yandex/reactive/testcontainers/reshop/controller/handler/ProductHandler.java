@@ -1,14 +1,17 @@
 package com.yandex.reactive.testcontainers.reshop.controller.handler;
 
 
-import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
 import com.yandex.reactive.testcontainers.reshop.dto.Paging;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
 import com.yandex.reactive.testcontainers.reshop.dto.ProductDTO;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
 import com.yandex.reactive.testcontainers.reshop.exception.ResourceNotFoundException;
-import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.security.GuestCartCookie;
 import com.yandex.reactive.testcontainers.reshop.service.CartService;
 import com.yandex.reactive.testcontainers.reshop.service.ProductService;
+import com.yandex.reactive.testcontainers.reshop.service.CatalogWarmupRunner;
+import com.yandex.reactive.testcontainers.reshop.service.ProductViewStats;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -20,6 +23,7 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,14 +35,17 @@ public class ProductHandler {
 
     private final ProductService productService;
     private final CartService cartService;
-    private final CartProductRepository cartProductRepository;
+    private final ProductViewStats productViewStats;
+    private final GuestCartCookie guestCartCookie;
 
     public ProductHandler(ProductService productService,
                           CartService cartService,
-                          CartProductRepository cartProductRepository) {
+                          ProductViewStats productViewStats,
+                          GuestCartCookie guestCartCookie) {
         this.productService = productService;
         this.cartService = cartService;
-        this.cartProductRepository = cartProductRepository;
+        this.productViewStats = productViewStats;
+        this.guestCartCookie = guestCartCookie;
     }
 
     // GET "/" – redirect to "/main/items"
@@ -49,14 +56,16 @@ public class ProductHandler {
     /**
      * GET "/main/items" – витрина продуктов.
      * Извлекает query-параметры, выполняет поиск, сортировку и пагинацию.
+     * Переход "вперёд" идёт по keyset-курсору (query-параметр cursor) последнего товара страницы.
      * Затем группирует товары (например, по 3 в ряд) и формирует список DTO для отображения.
-     * Количество для каждого продукта берётся через локальный метод getProductCounts().
+     * Количество в корзине запрашивается через getProductCounts() только для товаров этой страницы.
      */
     public Mono<ServerResponse> mainItems(ServerRequest request) {
         String search = request.queryParam("search").orElse("");
         String sort = request.queryParam("sort").orElse("NO");
         int pageSize = Integer.parseInt(request.queryParam("pageSize").orElse("10"));
         int pageNumber = Integer.parseInt(request.queryParam("pageNumber").orElse("1"));
+        String cursor = request.queryParam("cursor").filter(c -> !c.isBlank()).orElse(null);
 
         Mono<Authentication> authenticationMono = request.principal()
                 .cast(Authentication.class)
@@ -79,41 +88,44 @@ public class ProductHandler {
                 .map(auth -> true)
                 .defaultIfEmpty(false);
 
-        Flux<Product> productFlux = productService.getProducts(search, sort, pageNumber, pageSize)
+        Flux<ProductTile> productFlux = productService.getProducts(search, sort, pageNumber, pageSize, cursor)
                 .doOnError(e -> log.error("Error in getProducts", e));
 
-        Mono<List<List<Product>>> groupedMono = productService.groupProducts(productFlux)
-                .doOnError(e -> log.error("Error in groupProducts", e));
+        Mono<List<List<ProductTile>>> groupedMono = productService.groupProducts(productFlux)
+                .doOnError(e -> log.error("Error in groupProducts", e))
+                .cache();
 
-        Mono<Map<Long, Integer>> countsMono = getProductCounts()
+        Mono<Map<Long, Integer>> countsMono = groupedMono
+                .flatMap(groupedProducts -> getProductCounts(request, groupedProducts.stream()
+                        .flatMap(List::stream)
+                        .map(ProductTile::id)
+                        .toList()))
                 .doOnError(e -> log.error("Error in getProductCounts", e));
 
         return Mono.zip(groupedMono, countsMono, usernameMono, isAuthenticatedMono)
                 .doOnError(e -> log.error("Error during zipping", e))
                 .flatMap(tuple -> {
-                    List<List<Product>> groupedProducts = tuple.getT1();
+                    List<List<ProductTile>> groupedProducts = tuple.getT1();
                     Map<Long, Integer> counts = tuple.getT2();
                     String username = tuple.getT3();
                     Boolean isAuthenticated = tuple.getT4();
 
-                    // Для каждого продукта устанавливаем поле count из полученных данных (если не найден – 0)
-                    groupedProducts.forEach(row ->
-                            row.forEach(p -> p.setCount(counts.getOrDefault(p.getId(), 0)))
-                    );
-
-                    // Конвертация в DTO для отображения
+                    // Конвертация в DTO для отображения, count берётся из корзины (если не найден – 0).
                     List<List<ProductDTO>> groupedDTOs = groupedProducts.stream()
                             .map(row -> row.stream()
-                                    .map(this::convertToDTO)
+                                    .map(p -> convertToDTO(p, counts.getOrDefault(p.id(), 0)))
                                     .collect(Collectors.toList())
                             )
                             .collect(Collectors.toList());
 
                     // если выдано ровно pageSize товаров, то есть следующая страница
                     int displayedCount = groupedProducts.stream().mapToInt(List::size).sum();
-                    boolean hasNext = displayedCount == pageSize;
+                    boolean hasNext = displayedCount > 0 && displayedCount == pageSize;
                     boolean hasPrevious = pageNumber > 1;
-                    Paging paging = new Paging(pageNumber, pageSize, hasNext, hasPrevious);
+                    String nextCursor = hasNext
+                            ? ProductCursor.of(lastProduct(groupedProducts)).encode()
+                            : null;
+                    Paging paging = new Paging(pageNumber, pageSize, hasNext, hasPrevious, nextCursor);
 
                     Map<String, Object> model = new HashMap<>();
                     model.put("items", groupedDTOs);
@@ -131,6 +143,7 @@ public class ProductHandler {
     /**
      * POST "/main/items/{id}" – изменение количества товара в корзине.
      * Извлекает из formData параметр action и вызывает метод изменения в CartService.
+     * Анонимный покупатель меняет гостевую корзину в Redis (cookie GUEST_CART выдаётся или продлевается).
      * После выполнения выполняется редирект на "/main/items".
      */
     public Mono<ServerResponse> modifyMainItems(ServerRequest request) {
@@ -146,14 +159,24 @@ public class ProductHandler {
             if (action == null || action.isEmpty()) {
                 return ServerResponse.badRequest().build();
             }
-            return cartService.modifyItem(productId, action)
-                    .then(ServerResponse.seeOther(URI.create("/main/items")).build());
+            return isAuthenticated(request).flatMap(authenticated -> authenticated
+                    ? cartService.modifyItem(productId, action)
+                            .then(ServerResponse.seeOther(URI.create("/main/items")).build())
+                    : modifyGuestItem(request, productId, action));
         });
     }
 
+    private Mono<ServerResponse> modifyGuestItem(ServerRequest request, Long productId, String action) {
+        String guestId = guestCartCookie.read(request.cookies()).orElseGet(GuestCartCookie::newGuestId);
+        return cartService.modifyGuestItem(guestId, productId, action)
+                .then(ServerResponse.seeOther(URI.create("/main/items"))
+                        .cookie(guestCartCookie.issue(guestId))
+                        .build());
+    }
+
     /**
      * GET "/items/{id}" – отображение деталей продукта.
-     * Получает продукт по id, обновляет его значение count, конвертирует в DTO и рендерит шаблон "item".
+     * Получает продукт по id, конвертирует в DTO с количеством из корзины и рендерит шаблон "item".
      */
     public Mono<ServerResponse> getSingleItem(ServerRequest request) {
         String idStr = request.pathVariable("id");
@@ -166,47 +189,78 @@ public class ProductHandler {
         return productService.findById(productId)
                 .doOnError(e -> log.error("Error in getSingleItem", e))
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Продукт с id " + productId + " не найден")))
+                .doOnNext(product -> {
+                    // для прогрева кеша при старте; собственные запросы прогрева не считаются
+                    if (!request.headers().header(CatalogWarmupRunner.WARMUP_HEADER).contains("true")) {
+                        productViewStats.recordView(product.getId());
+                    }
+                })
                 .flatMap(product ->
-                        getProductCounts().map(counts -> {
-                            product.setCount(counts.getOrDefault(product.getId(), 0));
-                            return product;
-                        })
+                        getProductCounts(request, List.of(product.getId()))
+                                .map(counts -> convertToDTO(product, counts.getOrDefault(product.getId(), 0)))
                 )
-                .flatMap(product -> {
-                    ProductDTO dto = convertToDTO(product);
+                .flatMap(dto -> {
                     Map<String, Object> model = new HashMap<>();
                     model.put("item", dto);
                     return ServerResponse.ok().render("item", model);
                 });
     }
 
+    private static Mono<Boolean> isAuthenticated(ServerRequest request) {
+        return request.principal()
+                .cast(Authentication.class)
+                .filter(auth -> auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken))
+                .hasElement();
+    }
+
+    private static ProductTile lastProduct(List<List<ProductTile>> groupedProducts) {
+        List<ProductTile> lastRow = groupedProducts.get(groupedProducts.size() - 1);
+        return lastRow.get(lastRow.size() - 1);
+    }
+
     /**
-     * Вспомогательный метод для получения количества каждого продукта для текущей корзины.
-     * Группировка происходит по записям из join‑таблицы (CartProductRepository).
+     * Вспомогательный метод для получения количества указанных продуктов в текущей корзине.
+     * Из CartStore читаются только эти строки, а не вся корзина.
+     * Для анонимного покупателя - из гостевой корзины по cookie, без обращения к MySQL.
      */
-    private Mono<Map<Long, Integer>> getProductCounts() {
-        return cartService.getCart()
+    private Mono<Map<Long, Integer>> getProductCounts(ServerRequest request, Collection<Long> productIds) {
+        return isAuthenticated(request)
+                .flatMap(authenticated -> authenticated
+                        ? getCustomerCounts(productIds)
+                        : guestCartCookie.read(request.cookies())
+                                .map(guestId -> cartService.getGuestQuantities(guestId, productIds))
+                                .orElseGet(() -> Mono.just(Map.of())));
+    }
+
+    private Mono<Map<Long, Integer>> getCustomerCounts(Collection<Long> productIds) {
+        return cartService.getCartRef()
                 .onErrorResume(ResourceNotFoundException.class, ex -> {
                     log.debug("User not authenticated, returning empty counts map.", ex);
                     return Mono.empty();
                 })
-                .flatMapMany(cart ->
-                        cartProductRepository.findByCartId(cart.getId())
-                )
-                .collect(Collectors.groupingBy(
-                        CartProduct::getProductId,
-                        Collectors.summingInt(cp -> 1)
-                ));
+                .flatMap(cart -> cartService.getQuantities(cart, productIds))
+                .defaultIfEmpty(Map.of());
+    }
+
+    private ProductDTO convertToDTO(ProductTile tile, int count) {
+        return new ProductDTO(
+                tile.id(),
+                tile.name(),
+                tile.description(),
+                tile.price(),
+                tile.imgPath(),
+                count
+        );
     }
 
-    private ProductDTO convertToDTO(Product product) {
+    private ProductDTO convertToDTO(Product product, int count) {
         return new ProductDTO(
                 product.getId(),
                 product.getName(),
                 product.getDescription(),
                 product.getPrice(),
                 product.getImgPath(),
-                product.getCount()
+                count
         );
     }
 }
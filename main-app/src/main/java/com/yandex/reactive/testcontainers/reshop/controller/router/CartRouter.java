@@ -8,6 +8,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
 
 import java.util.Map;
 
@@ -19,6 +20,7 @@ public class CartRouter {
         return RouterFunctions.route()
                 .path("/cart/items", builder -> builder
                         .GET("", handler::getCartItems)
+                        .POST("", handler::modifyCartItems)
                         .POST("/{id}", handler::modifyCartItem)
                 )
                 .onError(ResourceNotFoundException.class, (ex, request) ->
@@ -27,6 +29,8 @@ public class CartRouter {
                 )
                 .onError(IllegalArgumentException.class, (ex, request) ->
                         ServerResponse.badRequest().build())
+                .onError(ServerWebInputException.class, (ex, request) ->
+                        ServerResponse.badRequest().build())
                 .onError(Exception.class, (ex, request) ->
                         ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).build())
                 .build();
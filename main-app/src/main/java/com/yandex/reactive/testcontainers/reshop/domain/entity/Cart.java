@@ -8,7 +8,10 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.annotation.Version;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,4 +32,17 @@ public class Cart {
 
     @Column("total_price")
     private double totalPrice;
+
+    @Version
+    private Long version;
+
+    // ставит MySQL (ON UPDATE CURRENT_TIMESTAMP) при любом изменении строки carts, см. CartReaper
+    @ReadOnlyProperty
+    @Column("updated_at")
+    private LocalDateTime updatedAt;
+
+    // ревизия Redis-хеша корзины, записанная в MySQL последней (только cart.storage=redis), см. RedisCartStore
+    @ReadOnlyProperty
+    @Column("redis_revision")
+    private long redisRevision;
 }
@@ -7,7 +7,8 @@ import lombok.NoArgsConstructor;
 
 import org.springframework.data.annotation.Id;
 
-// id для уникальной идентификации записи в join‑таблице. Это упрощает работу с удалением конкретной записи.
+// Одна строка на пару (cart_id, product_id), количество единиц товара хранится в quantity.
+// Уникальность пары обеспечивает индекс uk_cart_products_cart_product (см. createDBAndTables.sql).
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -18,4 +19,5 @@ public class CartProduct {
     private Long id;
     private Long cartId;
     private Long productId;
-}
\ No newline at end of file
+    private int quantity;
+}
@@ -0,0 +1,55 @@
+package com.yandex.reactive.testcontainers.reshop.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+
+/**
+ * Событие outbox: работа по заказу, записанная в одной транзакции с заказом и выполняемая
+ * в фоне (OrderOutboxWorker). Строка удаляется, когда работа сделана.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("order_outbox")
+public class OrderOutboxEvent {
+
+    @Id
+    private Long id;
+
+    @Column("order_id")
+    private Long orderId;
+
+    // имя OutboxEventType
+    @Column("event_type")
+    private String eventType;
+
+    // JSON, формат зависит от eventType
+    @Column("payload")
+    private String payload;
+
+    @Column("attempts")
+    private int attempts;
+
+    // ставит MySQL при вставке, дальше сдвигается только запросами OrderOutboxRepository
+    @ReadOnlyProperty
+    @Column("next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Column("last_error")
+    private String lastError;
+
+    @ReadOnlyProperty
+    @Column("created_at")
+    private LocalDateTime createdAt;
+
+    public static OrderOutboxEvent of(Long orderId, String eventType, String payload) {
+        return new OrderOutboxEvent(null, orderId, eventType, payload, 0, null, null, null);
+    }
+}
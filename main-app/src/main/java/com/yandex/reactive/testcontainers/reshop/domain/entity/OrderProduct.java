@@ -1,11 +1,16 @@
 package com.yandex.reactive.testcontainers.reshop.domain.entity;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+/**
+ * Строка заказа: товар и его количество, а также цена, название и картинка на момент покупки.
+ * Страницы заказов показываются по этим полям и не зависят от текущего каталога.
+ */
 @Data
 @Table("order_products")
 @AllArgsConstructor
@@ -16,4 +21,31 @@ public class OrderProduct {
     private Long id;
     private Long orderId;
     private Long productId;
+
+    @Column("quantity")
+    private int quantity;
+
+    @Column("unit_price")
+    private double unitPrice;
+
+    @Column("name")
+    private String name;
+
+    @Column("img_path")
+    private String imgPath;
+
+    /**
+     * Снимок товара в заказе: count товара - количество единиц (не меньше одной).
+     */
+    public static OrderProduct snapshot(Long orderId, Product product) {
+        return new OrderProduct(null, orderId, product.getId(), Math.max(product.getCount(), 1),
+                product.getPrice(), product.getName(), product.getImgPath());
+    }
+
+    /**
+     * Товар для отображения в заказе: цена и название из снимка, count - количество единиц.
+     */
+    public Product toProduct() {
+        return new Product(productId, name, unitPrice, null, imgPath, quantity);
+    }
 }
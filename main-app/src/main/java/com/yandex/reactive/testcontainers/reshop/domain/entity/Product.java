@@ -3,6 +3,7 @@ package com.yandex.reactive.testcontainers.reshop.domain.entity;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.With;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
@@ -29,6 +30,7 @@ public class Product {
     @Column("img_path")
     private String imgPath;
 
+    @With // товары из кеша общие между запросами: количество задаётся на копии
     @Transient
     private int count; // Количество товара в корзине (вычисляется динамически)
 }
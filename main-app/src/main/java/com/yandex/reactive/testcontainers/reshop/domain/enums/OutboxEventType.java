@@ -0,0 +1,13 @@
+package com.yandex.reactive.testcontainers.reshop.domain.enums;
+
+/**
+ * Работа после оплаты заказа, которую доделывает OrderOutboxWorker.
+ */
+public enum OutboxEventType {
+    /** Вставка строк заказа (payload - снимки строк OrderProduct). */
+    ORDER_LINES,
+    /** Удаление купленных товаров из корзины (payload - CartCheckout). */
+    CART_CHECKOUT,
+    /** Уведомление о новом заказе в Redis-канал (payload - OrderPlaced). */
+    ORDER_PLACED
+}
@@ -0,0 +1,10 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+import java.util.Map;
+
+/**
+ * Payload события CART_CHECKOUT: какие товары и сколько единиц купили из корзины.
+ * Из корзины убираются именно они - товары, добавленные уже после оплаты, остаются.
+ */
+public record CartCheckout(Long cartId, Long userId, Map<Long, Integer> quantities) {
+}
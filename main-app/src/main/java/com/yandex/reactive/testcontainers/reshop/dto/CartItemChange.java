@@ -0,0 +1,102 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+import com.yandex.reactive.testcontainers.reshop.domain.enums.CartAction;
+
+import java.util.List;
+
+/**
+ * Одно изменение строки корзины в пакетном запросе POST /cart/items.
+ * Задаётся ровно одно из: действие (plus, minus, delete), абсолютное количество (0 - убрать товар)
+ * или сдвиг количества delta (не ниже нуля) - им слияние корзин и оформление заказа
+ * меняют количество на N одним изменением.
+ * <p>
+ * В JSON: {"productId": 10, "action": "plus"}, {"productId": 11, "quantity": 3} или {"productId": 12, "delta": -2}.
+ * В форме: повторяющееся поле items со значениями вида "10:plus", "11:3" или "12:-2" ("12:+2").
+ */
+public record CartItemChange(Long productId, String action, Integer quantity, Integer delta) {
+
+    private static final String FORM_SEPARATOR = ":";
+
+    public CartItemChange(Long productId, String action, Integer quantity) {
+        this(productId, action, quantity, null);
+    }
+
+    public static CartItemChange delta(Long productId, int delta) {
+        return new CartItemChange(productId, null, null, delta);
+    }
+
+    /**
+     * @throws IllegalArgumentException если не задан productId или задано не ровно одно из action/quantity/delta
+     */
+    public void validate() {
+        if (productId == null) {
+            throw new IllegalArgumentException("productId is required");
+        }
+        int forms = (action != null ? 1 : 0) + (quantity != null ? 1 : 0) + (delta != null ? 1 : 0);
+        if (forms != 1) {
+            throw new IllegalArgumentException(
+                    "Exactly one of action, quantity or delta is required for product " + productId);
+        }
+        if (quantity != null && quantity < 0) {
+            throw new IllegalArgumentException("Negative quantity for product " + productId);
+        }
+        if (action != null) {
+            cartAction();
+        }
+    }
+
+    /**
+     * @return количество товара после применения изменения к current
+     */
+    public int applyTo(int current) {
+        if (quantity != null) {
+            return quantity;
+        }
+        if (delta != null) {
+            return (int) Math.min(Math.max((long) current + delta, 0L), Integer.MAX_VALUE);
+        }
+        return switch (cartAction()) {
+            case PLUS -> current + 1;
+            case MINUS -> Math.max(current - 1, 0);
+            case DELETE -> 0;
+        };
+    }
+
+    private CartAction cartAction() {
+        try {
+            return CartAction.valueOf(action.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown action: " + action);
+        }
+    }
+
+    /**
+     * Разбирает значения поля items формы: "productId:action" или "productId:quantity".
+     *
+     * @throws IllegalArgumentException если значение не в этом формате
+     */
+    public static List<CartItemChange> parseForm(List<String> items) {
+        return items.stream()
+                .map(CartItemChange::parseFormItem)
+                .toList();
+    }
+
+    private static CartItemChange parseFormItem(String item) {
+        String[] parts = item.split(FORM_SEPARATOR, 2);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Malformed cart item: " + item);
+        }
+        try {
+            Long productId = Long.valueOf(parts[0].trim());
+            String value = parts[1].trim();
+            if (value.startsWith("+") || value.startsWith("-")) {
+                return delta(productId, Integer.parseInt(value));
+            }
+            return value.chars().allMatch(Character::isDigit) && !value.isEmpty()
+                    ? new CartItemChange(productId, null, Integer.valueOf(value))
+                    : new CartItemChange(productId, value, null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cart item: " + item);
+        }
+    }
+}
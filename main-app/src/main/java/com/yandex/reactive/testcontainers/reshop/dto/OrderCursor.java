@@ -0,0 +1,52 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Keyset-курсор истории заказов: последний показанный заказ страницы (order_date, id).
+ * Заказы идут от новых к старым, следующая страница начинается строго после курсора,
+ * поэтому её стоимость не зависит от того, сколько заказов уже пролистано.
+ * <p>
+ * В URL передаётся в виде непрозрачной base64url-строки, как и ProductCursor.
+ */
+public record OrderCursor(long id, LocalDateTime orderDate) {
+
+    private static final String SEPARATOR = ":";
+
+    public static OrderCursor of(Order order) {
+        return new OrderCursor(order.getId(), order.getOrderDate());
+    }
+
+    public String encode() {
+        String raw = id + SEPARATOR + orderDate;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param value строка из query-параметра cursor
+     * @return курсор или null, если параметр не передан
+     * @throws IllegalArgumentException если строка не является валидным курсором
+     */
+    public static OrderCursor decode(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            // в дате тоже есть ':', поэтому режем только по первому разделителю
+            String[] parts = raw.split(SEPARATOR, 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Malformed cursor: " + value);
+            }
+            return new OrderCursor(Long.parseLong(parts[0]), LocalDateTime.parse(parts[1]));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            // роутер отвечает на IllegalArgumentException статусом 400
+            throw new IllegalArgumentException("Malformed cursor: " + value, ex);
+        }
+    }
+}
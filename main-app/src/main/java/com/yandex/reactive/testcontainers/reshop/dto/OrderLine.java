@@ -0,0 +1,9 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+
+/**
+ * Строка order_products вместе с полями товара, прочитанными тем же запросом (история заказов).
+ */
+public record OrderLine(Long orderId, Product product) {
+}
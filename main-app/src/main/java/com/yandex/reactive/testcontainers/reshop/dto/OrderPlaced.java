@@ -0,0 +1,7 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+/**
+ * Payload события ORDER_PLACED и сообщение о новом заказе в Redis-канале order.outbox.channel.
+ */
+public record OrderPlaced(Long orderId, String number, Long userId, double totalSum) {
+}
@@ -1,9 +1,13 @@
 package com.yandex.reactive.testcontainers.reshop.dto;
 
+/**
+ * @param nextCursor keyset-курсор для перехода на следующую страницу (null, если следующей нет)
+ */
 public record Paging(
         int pageNumber,
         int pageSize,
         boolean hasNext,
-        boolean hasPrevious
+        boolean hasPrevious,
+        String nextCursor
 ) {
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset-курсор витрины: последний показанный товар страницы (id, price, name).
+ * Следующая страница начинается строго после него в порядке выбранной сортировки,
+ * поэтому глубокие страницы стоят столько же, сколько первая.
+ * <p>
+ * В URL передаётся в виде непрозрачной base64url-строки.
+ */
+public record ProductCursor(long id, double price, String name) {
+
+    private static final String SEPARATOR = ":";
+
+    public static ProductCursor of(Product product) {
+        return new ProductCursor(product.getId(), product.getPrice(), product.getName());
+    }
+
+    public static ProductCursor of(ProductTile tile) {
+        return new ProductCursor(tile.id(), tile.price(), tile.name());
+    }
+
+    public String encode() {
+        String raw = id + SEPARATOR + price + SEPARATOR + (name != null ? name : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param value строка из query-параметра cursor
+     * @return курсор или null, если параметр не передан
+     * @throws IllegalArgumentException если строка не является валидным курсором
+     */
+    public static ProductCursor decode(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            String[] parts = raw.split(SEPARATOR, 3);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Malformed cursor: " + value);
+            }
+            return new ProductCursor(Long.parseLong(parts[0]), Double.parseDouble(parts[1]), parts[2]);
+        } catch (IllegalArgumentException ex) {
+            // NumberFormatException тоже IllegalArgumentException, роутеры отвечают на неё 400
+            throw new IllegalArgumentException("Malformed cursor: " + value, ex);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.yandex.reactive.testcontainers.reshop.dto;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+
+/**
+ * Облегчённая проекция товара для плитки витрины: без полного описания.
+ * <p>
+ * Страничные запросы ProductRepository выбирают только эти колонки и обрезают description
+ * на стороне MySQL (LEFT(description, DESCRIPTION_LENGTH)), в таком же виде страницы лежат
+ * в кеше products. Полный Product загружается только для карточки товара.
+ *
+ * @param description первые DESCRIPTION_LENGTH символов описания
+ */
+public record ProductTile(Long id, String name, double price, String description, String imgPath) {
+
+    public static final int DESCRIPTION_LENGTH = 120;
+
+    public static ProductTile of(Product product) {
+        return new ProductTile(product.getId(), product.getName(), product.getPrice(),
+                truncate(product.getDescription()), product.getImgPath());
+    }
+
+    /**
+     * Обрезает описание так же, как LEFT() в SQL, не разрывая суррогатную пару.
+     */
+    public static String truncate(String description) {
+        if (description == null || description.length() <= DESCRIPTION_LENGTH) {
+            return description;
+        }
+        int end = DESCRIPTION_LENGTH;
+        if (Character.isHighSurrogate(description.charAt(end - 1))) {
+            end--;
+        }
+        return description.substring(0, end);
+    }
+}
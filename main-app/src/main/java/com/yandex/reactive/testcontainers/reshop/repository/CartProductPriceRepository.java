@@ -0,0 +1,17 @@
+package com.yandex.reactive.testcontainers.reshop.repository;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import reactor.core.publisher.Flux;
+
+/**
+ * Строки корзины вместе с текущими ценами товаров (фрагмент CartProductRepository).
+ */
+public interface CartProductPriceRepository {
+
+    /**
+     * Товары корзины одним запросом cart_products JOIN products: цена и название - текущие
+     * из MySQL, count - количество в корзине. Сумма оплаты и строки заказа считаются по одному
+     * результату, поэтому не расходятся. Строки товаров, которых уже нет в каталоге, пропускаются.
+     */
+    Flux<Product> findProductsInCart(Long cartId);
+}
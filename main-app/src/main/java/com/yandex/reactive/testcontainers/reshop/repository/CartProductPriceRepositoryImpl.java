@@ -0,0 +1,33 @@
+package com.yandex.reactive.testcontainers.reshop.repository;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+class CartProductPriceRepositoryImpl implements CartProductPriceRepository {
+
+    private final DatabaseClient databaseClient;
+
+    CartProductPriceRepositoryImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Flux<Product> findProductsInCart(Long cartId) {
+        return databaseClient.sql("""
+                        SELECT p.id, p.name, p.price, p.img_path, cp.quantity
+                        FROM cart_products cp JOIN products p ON p.id = cp.product_id
+                        WHERE cp.cart_id = :cartId
+                        ORDER BY cp.id
+                        """)
+                .bind("cartId", cartId)
+                .map(row -> new Product(
+                        row.get("id", Long.class),
+                        row.get("name", String.class),
+                        row.get("price", Double.class),
+                        null,
+                        row.get("img_path", String.class),
+                        row.get("quantity", Integer.class)))
+                .all();
+    }
+}
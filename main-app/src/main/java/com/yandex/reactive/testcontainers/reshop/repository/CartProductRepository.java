@@ -1,15 +1,88 @@
 package com.yandex.reactive.testcontainers.reshop.repository;
 
 import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
 
-public interface CartProductRepository extends ReactiveCrudRepository<CartProduct, Long> {
+/**
+ * Строки корзины: одна запись на (cart_id, product_id) с количеством в quantity.
+ * Изменение количества выполняется одним атомарным запросом, без чтения строки.
+ */
+public interface CartProductRepository extends ReactiveCrudRepository<CartProduct, Long>, CartProductPriceRepository {
     Flux<CartProduct> findByCartId(Long cartId);
-    Flux<CartProduct> findAllByCartIdAndProductId(Long cartId, Long productId);
-    Mono<CartProduct> findFirstByCartIdAndProductId(Long cartId, Long productId);
-}
 
+    /**
+     * Строки корзины только для указанных товаров (счётчики на странице витрины и карточке товара).
+     */
+    Flux<CartProduct> findByCartIdAndProductIdIn(Long cartId, Collection<Long> productIds);
+
+    /**
+     * Добавляет одну единицу товара: создаёт строку с quantity = 1 или увеличивает существующую.
+     */
+    @Modifying
+    @Query("""
+            INSERT INTO cart_products (cart_id, product_id, quantity) VALUES (:cartId, :productId, 1)
+            ON DUPLICATE KEY UPDATE quantity = quantity + 1
+            """)
+    Mono<Integer> incrementQuantity(Long cartId, Long productId);
+
+    /**
+     * Убирает одну единицу товара, если их больше одной.
+     *
+     * @return число изменённых строк: 0, если строки нет или в ней ровно одна единица
+     */
+    @Modifying
+    @Query("""
+            UPDATE cart_products SET quantity = quantity - 1
+            WHERE cart_id = :cartId AND product_id = :productId AND quantity > 1
+            """)
+    Mono<Integer> decrementQuantity(Long cartId, Long productId);
+
+    /**
+     * Удаляет строку с последней единицей товара. Если за это время количество выросло, строка остаётся.
+     */
+    @Modifying
+    @Query("DELETE FROM cart_products WHERE cart_id = :cartId AND product_id = :productId AND quantity <= 1")
+    Mono<Integer> deleteLastUnit(Long cartId, Long productId);
+
+    /**
+     * Записывает количество как есть (отложенная запись корзины из Redis).
+     */
+    @Modifying
+    @Query("""
+            INSERT INTO cart_products (cart_id, product_id, quantity) VALUES (:cartId, :productId, :quantity)
+            ON DUPLICATE KEY UPDATE quantity = :quantity
+            """)
+    Mono<Integer> setQuantity(Long cartId, Long productId, int quantity);
 
+    /**
+     * Удаляет строки товаров, которых больше нет в корзине.
+     */
+    @Modifying
+    @Query("DELETE FROM cart_products WHERE cart_id = :cartId AND product_id NOT IN (:productIds)")
+    Mono<Integer> deleteByCartIdAndProductIdNotIn(Long cartId, Collection<Long> productIds);
+
+    @Modifying
+    @Query("DELETE FROM cart_products WHERE cart_id = :cartId AND product_id IN (:productIds)")
+    Mono<Integer> deleteByCartIdAndProductIdIn(Long cartId, Collection<Long> productIds);
+
+    @Modifying
+    @Query("DELETE FROM cart_products WHERE cart_id = :cartId AND product_id = :productId")
+    Mono<Integer> deleteByCartIdAndProductId(Long cartId, Long productId);
+
+    @Modifying
+    @Query("DELETE FROM cart_products WHERE cart_id = :cartId")
+    Mono<Integer> deleteByCartId(Long cartId);
+
+    /**
+     * Удаляет все строки нескольких корзин одним запросом (очистка брошенных корзин).
+     */
+    @Modifying
+    @Query("DELETE FROM cart_products WHERE cart_id IN (:cartIds)")
+    Mono<Integer> deleteByCartIdIn(Collection<Long> cartIds);
+}
@@ -1,12 +1,139 @@
 package com.yandex.reactive.testcontainers.reshop.repository;
 
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
+/**
+ * total_price поддерживается инкрементально: каждое изменение строки корзины сдвигает его
+ * на price * изменение количества, без чтения остальных строк.
+ * Полный пересчёт (reconcileTotalIfVersion/reconcileTotals) исправляет накопившиеся расхождения,
+ * например после смены цены товара. Оформление заказа суммой корзины не пользуется: оплачивается
+ * сумма строк с текущими ценами (CartProductRepository.findProductsInCart).
+ * <p>
+ * Каждое изменение корзины увеличивает carts.version. Операции "прочитал - посчитал - записал"
+ * (пакетное изменение) проверяют версию при записи и повторяются при конфликте, см. CartService.
+ * UPDATE строки carts заодно сдвигает updated_at (ON UPDATE CURRENT_TIMESTAMP), по нему CartReaper
+ * находит брошенные корзины. Служебные UPDATE, которые не означают действий покупателя (reconcileTotals),
+ * присваивают updated_at = updated_at, чтобы его сохранить.
+ */
 @Repository
 public interface CartRepository extends R2dbcRepository<Cart, Long> {
     Mono<Cart> findByUserId(Long userId);
-}
 
+    /**
+     * Сдвигает сумму корзины на цену товара, умноженную на units (отрицательное - уменьшение).
+     */
+    @Modifying
+    @Query("""
+            UPDATE carts c JOIN products p ON p.id = :productId
+            SET c.total_price = c.total_price + p.price * :units, c.version = c.version + 1
+            WHERE c.id = :cartId
+            """)
+    Mono<Integer> addToTotal(Long cartId, Long productId, int units);
+
+    /**
+     * Вычитает из суммы корзины всю строку товара (price * quantity). Вызывается до удаления строки.
+     */
+    @Modifying
+    @Query("""
+            UPDATE carts c
+                JOIN cart_products cp ON cp.cart_id = c.id
+                JOIN products p ON p.id = cp.product_id
+            SET c.total_price = c.total_price - p.price * cp.quantity, c.version = c.version + 1
+            WHERE c.id = :cartId AND cp.product_id = :productId
+            """)
+    Mono<Integer> subtractLine(Long cartId, Long productId);
+
+    @Modifying
+    @Query("UPDATE carts SET total_price = :total, version = version + 1 WHERE id = :cartId")
+    Mono<Integer> updateTotal(Long cartId, double total);
+
+    /**
+     * Блокирует строку корзины до конца транзакции: записи Redis-хеша одной корзины
+     * с разных инстансов выполняются по очереди.
+     *
+     * @return ревизия хеша, записанная последней
+     */
+    @Query("SELECT redis_revision FROM carts WHERE id = :cartId FOR UPDATE")
+    Mono<Long> lockRedisRevision(Long cartId);
+
+    @Modifying
+    @Query("""
+            UPDATE carts SET total_price = :total, redis_revision = :revision, version = version + 1
+            WHERE id = :cartId
+            """)
+    Mono<Integer> updateTotalFromRedis(Long cartId, double total, long revision);
+
+    /**
+     * Полный пересчёт суммы, только если корзину никто не менял с момента чтения version.
+     * Это запись пакетного изменения покупателя (DbCartStore.apply), поэтому updated_at сдвигается.
+     *
+     * @return 0, если версия уже другая (конфликт)
+     */
+    @Modifying
+    @Query("""
+            UPDATE carts c
+            SET c.total_price = (SELECT COALESCE(SUM(p.price * cp.quantity), 0)
+                                 FROM cart_products cp JOIN products p ON p.id = cp.product_id
+                                 WHERE cp.cart_id = c.id),
+                c.version = c.version + 1
+            WHERE c.id = :cartId AND c.version = :version
+            """)
+    Mono<Integer> reconcileTotalIfVersion(Long cartId, long version);
+
+    /**
+     * Пересчитывает суммы корзин с id в [fromId, toId) и обновляет только разошедшиеся.
+     * Запрос блокирует только строки диапазона, поэтому вызывающий идёт по таблице
+     * ограниченными диапазонами. total_price - DOUBLE, и накопленные дельты отличаются от суммы
+     * строк в последних знаках: расхождением считается разница больше полукопейки.
+     * updated_at не меняется: сверка не продлевает жизнь брошенной корзине.
+     *
+     * @return число исправленных корзин
+     */
+    @Modifying
+    @Query("""
+            UPDATE carts c
+                LEFT JOIN (SELECT cp.cart_id, SUM(p.price * cp.quantity) AS total
+                           FROM cart_products cp JOIN products p ON p.id = cp.product_id
+                           WHERE cp.cart_id >= :fromId AND cp.cart_id < :toId
+                           GROUP BY cp.cart_id) actual ON actual.cart_id = c.id
+            SET c.total_price = COALESCE(actual.total, 0), c.version = c.version + 1,
+                c.updated_at = c.updated_at
+            WHERE c.id >= :fromId AND c.id < :toId
+              AND ABS(c.total_price - COALESCE(actual.total, 0)) > 0.005
+            """)
+    Mono<Integer> reconcileTotals(long fromId, long toId);
+
+    @Query("SELECT COALESCE(MAX(id), 0) FROM carts")
+    Mono<Long> findMaxId();
+
+    /**
+     * Брошенные корзины: не менялись дольше maxAgeSeconds (по часам MySQL) и ещё содержат строки.
+     * Выбранные строки carts блокируются до конца транзакции, а корзины, которые сейчас
+     * меняет покупатель, пропускаются (SKIP LOCKED) - очистка их не ждёт и не задерживает.
+     */
+    @Query("""
+            SELECT c.id FROM carts c
+            WHERE c.updated_at < NOW() - INTERVAL :maxAgeSeconds SECOND
+              AND EXISTS (SELECT 1 FROM cart_products cp WHERE cp.cart_id = c.id)
+            ORDER BY c.updated_at, c.id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """)
+    Flux<Long> lockAbandoned(long maxAgeSeconds, int limit);
+
+    /**
+     * Обнуляет сумму очищенных корзин. Версия увеличивается, чтобы параллельное
+     * пакетное изменение, прочитавшее корзину до очистки, повторилось.
+     */
+    @Modifying
+    @Query("UPDATE carts SET total_price = 0, version = version + 1 WHERE id IN (:cartIds)")
+    Mono<Integer> resetTotals(Collection<Long> cartIds);
+}
@@ -0,0 +1,67 @@
+package com.yandex.reactive.testcontainers.reshop.repository;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderOutboxEvent;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Очередь order_outbox. Время везде по часам MySQL, чтобы несколько инстансов не зависели
+ * от расхождения своих часов.
+ * <p>
+ * Обработчик забирает события в короткой транзакции: lockDue + claim сдвигают next_attempt_at
+ * на срок аренды, и до его истечения событие не видно другим обработчикам. Если обработчик упал,
+ * событие вернётся в работу само, когда аренда истечёт.
+ */
+@Repository
+public interface OrderOutboxRepository extends R2dbcRepository<OrderOutboxEvent, Long> {
+
+    /**
+     * События, которые пора выполнить и у которых не кончились попытки. Выбранные строки
+     * блокируются до конца транзакции, занятые другим обработчиком пропускаются (SKIP LOCKED).
+     */
+    @Query("""
+            SELECT * FROM order_outbox
+            WHERE next_attempt_at <= NOW(3) AND attempts < :maxAttempts
+            ORDER BY next_attempt_at, id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """)
+    Flux<OrderOutboxEvent> lockDue(int maxAttempts, int limit);
+
+    /**
+     * Забирает события в работу: засчитывает попытку и прячет их на leaseSeconds.
+     */
+    @Modifying
+    @Query("""
+            UPDATE order_outbox
+            SET attempts = attempts + 1, next_attempt_at = NOW(3) + INTERVAL :leaseSeconds SECOND
+            WHERE id IN (:ids)
+            """)
+    Mono<Integer> claim(Collection<Long> ids, long leaseSeconds);
+
+    /**
+     * Событие выполнено.
+     *
+     * @return 0, если его уже завершил другой обработчик (например, после истечения аренды)
+     */
+    @Modifying
+    @Query("DELETE FROM order_outbox WHERE id = :id")
+    Mono<Integer> complete(Long id);
+
+    /**
+     * Откладывает неудавшееся событие на delayMillis и запоминает ошибку.
+     */
+    @Modifying
+    @Query("""
+            UPDATE order_outbox
+            SET next_attempt_at = NOW(3) + INTERVAL (:delayMillis * 1000) MICROSECOND, last_error = :error
+            WHERE id = :id
+            """)
+    Mono<Integer> reschedule(Long id, long delayMillis, String error);
+}
@@ -0,0 +1,29 @@
+package com.yandex.reactive.testcontainers.reshop.repository;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderLine;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Пакетные операции над строками order_products (фрагмент OrderProductRepository).
+ */
+public interface OrderProductBatchRepository {
+
+    /**
+     * Вставляет строки заказа многострочными INSERT: одна строка на товар с количеством
+     * и снимком цены, названия и картинки. orderId строк не используется.
+     *
+     * @return число вставленных строк
+     */
+    Mono<Long> insertLines(Long orderId, List<OrderProduct> lines);
+
+    /**
+     * Строки сразу нескольких заказов одним запросом, товары собираются из снимка в строке
+     * (без обращения к products).
+     */
+    Flux<OrderLine> findLinesByOrderIds(Collection<Long> orderIds);
+}
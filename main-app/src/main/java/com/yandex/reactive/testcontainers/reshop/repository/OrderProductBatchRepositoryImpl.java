@@ -0,0 +1,85 @@
+package com.yandex.reactive.testcontainers.reshop.repository;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderLine;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Строки заказа вставляются пачками по CHUNK_SIZE в одном INSERT ... VALUES (...), (...),
+ * поэтому число запросов на оформление заказа не зависит от размера корзины.
+ * Строки истории заказов читаются одним запросом на все заказы страницы, а не запросами на каждый заказ.
+ */
+class OrderProductBatchRepositoryImpl implements OrderProductBatchRepository {
+
+    static final int CHUNK_SIZE = 500;
+
+    private final DatabaseClient databaseClient;
+
+    OrderProductBatchRepositoryImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Mono<Long> insertLines(Long orderId, List<OrderProduct> lines) {
+        if (lines.isEmpty()) {
+            return Mono.just(0L);
+        }
+        int chunks = (lines.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return Flux.range(0, chunks)
+                .map(chunk -> lines.subList(chunk * CHUNK_SIZE,
+                        Math.min((chunk + 1) * CHUNK_SIZE, lines.size())))
+                .concatMap(chunk -> insertChunk(orderId, chunk))
+                .reduce(0L, Long::sum);
+    }
+
+    @Override
+    public Flux<OrderLine> findLinesByOrderIds(Collection<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return databaseClient.sql("""
+                        SELECT id, order_id, product_id, quantity, unit_price, name, img_path
+                        FROM order_products
+                        WHERE order_id IN (:orderIds)
+                        ORDER BY order_id, id
+                        """)
+                .bind("orderIds", orderIds)
+                .map(row -> new OrderProduct(
+                        row.get("id", Long.class),
+                        row.get("order_id", Long.class),
+                        row.get("product_id", Long.class),
+                        row.get("quantity", Integer.class),
+                        row.get("unit_price", Double.class),
+                        row.get("name", String.class),
+                        row.get("img_path", String.class)))
+                .all()
+                .map(line -> new OrderLine(line.getOrderId(), line.toProduct()));
+    }
+
+    private Mono<Long> insertChunk(Long orderId, List<OrderProduct> lines) {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO order_products (order_id, product_id, quantity, unit_price, name, img_path) VALUES ");
+        for (int i = 0; i < lines.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+                    .append("(:orderId, :p").append(i).append(", :q").append(i).append(", :u").append(i)
+                    .append(", :n").append(i).append(", :i").append(i).append(')');
+        }
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString()).bind("orderId", orderId);
+        for (int i = 0; i < lines.size(); i++) {
+            OrderProduct line = lines.get(i);
+            spec = spec.bind("p" + i, line.getProductId())
+                    .bind("q" + i, line.getQuantity())
+                    .bind("u" + i, line.getUnitPrice())
+                    .bind("n" + i, line.getName());
+            spec = line.getImgPath() != null
+                    ? spec.bind("i" + i, line.getImgPath())
+                    : spec.bindNull("i" + i, String.class);
+        }
+        return spec.fetch().rowsUpdated();
+    }
+}
@@ -5,7 +5,7 @@ import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 
 
-public interface OrderProductRepository extends ReactiveCrudRepository<OrderProduct, Long> {
+public interface OrderProductRepository extends ReactiveCrudRepository<OrderProduct, Long>, OrderProductBatchRepository {
     Flux<OrderProduct> findByOrderId(Long orderId);
     Flux<OrderProduct> findByOrderIdAndProductId(Long orderId, Long productId);
 }
@@ -2,12 +2,40 @@ package com.yandex.reactive.testcontainers.reshop.repository;
 
 
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+
+/**
+ * История заказов пользователя читается страницами от новых к старым по индексу
+ * idx_orders_user_date (user_id, order_date, id): первая страница - без курсора,
+ * следующие - строго после последнего показанного заказа (keyset).
+ */
 @Repository
 public interface OrderRepository extends R2dbcRepository<Order, Long> {
-    Flux<Order> findByUserId(Long userId);
-    Flux<Order> findByNumber(String number);
+    /**
+     * Поиск по номеру заказа (уникальный индекс uk_orders_number).
+     */
+    Mono<Order> findByNumber(String number);
+
+    @Query("""
+            SELECT * FROM orders
+            WHERE user_id = :userId
+            ORDER BY order_date DESC, id DESC
+            LIMIT :limit
+            """)
+    Flux<Order> findFirstPageByUserId(Long userId, int limit);
+
+    @Query("""
+            SELECT * FROM orders
+            WHERE user_id = :userId
+              AND (order_date < :lastDate OR (order_date = :lastDate AND id < :lastId))
+            ORDER BY order_date DESC, id DESC
+            LIMIT :limit
+            """)
+    Flux<Order> findPageByUserIdAfter(Long userId, LocalDateTime lastDate, Long lastId, int limit);
 }
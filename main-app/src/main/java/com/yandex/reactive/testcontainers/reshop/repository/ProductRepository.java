@@ -1,11 +1,52 @@
 package com.yandex.reactive.testcontainers.reshop.repository;
 
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 
+/**
+ * Страничные запросы витрины сортируют и режут выборку на стороне MySQL.
+ * <p>
+ * search == null означает "без поиска", lastId == null означает "первая страница"
+ * (либо переход по номеру страницы через offset). Если lastId передан,
+ * используется keyset-условие по (ключ сортировки, id) и offset должен быть 0.
+ * Индексы (name, id) и (price, id) см. в createDBAndTables.sql.
+ * <p>
+ * Страницы выбирают только колонки плитки (ProductTile), описание обрезается
+ * до ProductTile.DESCRIPTION_LENGTH символов прямо в запросе (SELECT_TILES).
+ */
 @Repository
 public interface ProductRepository extends R2dbcRepository<Product, Long> {
+
+    String SELECT_TILES = "SELECT id, name, price, LEFT(description, " + ProductTile.DESCRIPTION_LENGTH
+            + ") AS description, img_path FROM products\n";
+
     Flux<Product> findByNameContainingIgnoreCaseOrDescriptionContainingIgnoreCase(String name, String description);
+
+    @Query(SELECT_TILES + """
+            WHERE (:search IS NULL OR name LIKE :search OR description LIKE :search)
+              AND (:lastId IS NULL OR id > :lastId)
+            ORDER BY id
+            LIMIT :limit OFFSET :offset
+            """)
+    Flux<ProductTile> findPageOrderById(String search, Long lastId, int limit, long offset);
+
+    @Query(SELECT_TILES + """
+            WHERE (:search IS NULL OR name LIKE :search OR description LIKE :search)
+              AND (:lastId IS NULL OR name > :lastName OR (name = :lastName AND id > :lastId))
+            ORDER BY name, id
+            LIMIT :limit OFFSET :offset
+            """)
+    Flux<ProductTile> findPageOrderByName(String search, String lastName, Long lastId, int limit, long offset);
+
+    @Query(SELECT_TILES + """
+            WHERE (:search IS NULL OR name LIKE :search OR description LIKE :search)
+              AND (:lastId IS NULL OR price > :lastPrice OR (price = :lastPrice AND id > :lastId))
+            ORDER BY price, id
+            LIMIT :limit OFFSET :offset
+            """)
+    Flux<ProductTile> findPageOrderByPrice(String search, Double lastPrice, Long lastId, int limit, long offset);
 }
@@ -0,0 +1,103 @@
+package com.yandex.reactive.testcontainers.reshop.security;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Cookie гостевой корзины: "{guestId}.{HMAC-SHA256(guestId)}".
+ * <p>
+ * Подпись не даёт подобрать чужой guestId. Ключ задаётся cart.guest.secret (GUEST_CART_SECRET);
+ * если он не задан, генерируется при старте - гостевые корзины тогда не переживают рестарт
+ * и не работают между несколькими инстансами.
+ */
+@Slf4j
+@Component
+public class GuestCartCookie {
+
+    public static final String NAME = "GUEST_CART";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char SEPARATOR = '.';
+
+    private final SecretKeySpec key;
+    private final Duration ttl;
+
+    public GuestCartCookie(@Value("${cart.guest.secret:}") String secret,
+                           @Value("${cart.guest.ttl:P7D}") Duration ttl) {
+        byte[] keyBytes;
+        if (secret.isBlank()) {
+            log.warn("cart.guest.secret is not set, guest carts will not survive restart");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttl = ttl;
+    }
+
+    public static String newGuestId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * @return guestId из cookie, если подпись верна
+     */
+    public Optional<String> read(MultiValueMap<String, HttpCookie> cookies) {
+        HttpCookie cookie = cookies.getFirst(NAME);
+        if (cookie == null) {
+            return Optional.empty();
+        }
+        String value = cookie.getValue();
+        int separator = value.lastIndexOf(SEPARATOR);
+        if (separator <= 0) {
+            return Optional.empty();
+        }
+        String guestId = value.substring(0, separator);
+        byte[] expected = sign(guestId).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = value.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, actual) ? Optional.of(guestId) : Optional.empty();
+    }
+
+    public ResponseCookie issue(String guestId) {
+        return ResponseCookie.from(NAME, guestId + SEPARATOR + sign(guestId))
+                .httpOnly(true)
+                .path("/")
+                .sameSite("Lax")
+                .maxAge(ttl)
+                .build();
+    }
+
+    public ResponseCookie expire() {
+        return ResponseCookie.from(NAME, "")
+                .httpOnly(true)
+                .path("/")
+                .maxAge(Duration.ZERO)
+                .build();
+    }
+
+    private String sign(String guestId) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            byte[] signature = mac.doFinal(guestId.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign guest cart cookie", e);
+        }
+    }
+}
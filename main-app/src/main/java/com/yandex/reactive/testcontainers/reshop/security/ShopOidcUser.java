@@ -0,0 +1,65 @@
+package com.yandex.reactive.testcontainers.reshop.security;
+
+import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+
+import java.io.Serial;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * OIDC-пользователь Keycloak с id пользователя и корзины из MySQL в атрибутах.
+ * <p>
+ * Атрибуты заполняются один раз при логине (KeycloakUserSyncService.syncUser) и живут в сессии,
+ * поэтому обработка запроса берёт их из principal без запросов в БД. У сессий, созданных
+ * до появления атрибутов, их нет - тогда используется поиск по username.
+ */
+public class ShopOidcUser extends DefaultOidcUser {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public static final String USER_ID_ATTRIBUTE = "shop_user_id";
+    public static final String CART_ID_ATTRIBUTE = "shop_cart_id";
+
+    private final Map<String, Object> attributes;
+
+    /**
+     * Имя пользователя берётся из claim sub, как у OidcReactiveOAuth2UserService по умолчанию.
+     */
+    public ShopOidcUser(OidcUser source, Long userId, Long cartId) {
+        super(source.getAuthorities(), source.getIdToken(), source.getUserInfo());
+        Map<String, Object> merged = new LinkedHashMap<>(super.getAttributes());
+        merged.put(USER_ID_ATTRIBUTE, userId);
+        merged.put(CART_ID_ATTRIBUTE, cartId);
+        this.attributes = Collections.unmodifiableMap(merged);
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return id пользователя из атрибутов principal или empty для старых сессий и других типов principal
+     */
+    public static Optional<Long> userId(Object principal) {
+        return longAttribute(principal, USER_ID_ATTRIBUTE);
+    }
+
+    /**
+     * @return id корзины из атрибутов principal или empty для старых сессий и других типов principal
+     */
+    public static Optional<Long> cartId(Object principal) {
+        return longAttribute(principal, CART_ID_ATTRIBUTE);
+    }
+
+    private static Optional<Long> longAttribute(Object principal, String name) {
+        if (principal instanceof OidcUser oidcUser && oidcUser.getAttributes().get(name) instanceof Number value) {
+            return Optional.of(value.longValue());
+        }
+        return Optional.empty();
+    }
+}
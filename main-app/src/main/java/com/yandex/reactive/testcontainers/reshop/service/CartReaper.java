@@ -0,0 +1,171 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.cart.CartStore;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Периодически очищает брошенные корзины - те, что не менялись дольше cart.reaper.max-age.
+ * <p>
+ * Удаляются только строки cart_products и обнуляется сумма; сама строка carts остаётся,
+ * потому что её id хранится в сессии пользователя (ShopOidcUser). Корзины обрабатываются
+ * пачками по batch-size в отдельных транзакциях с паузой batch-pause между ними, и не больше
+ * max-batches-per-run пачек за проход - остаток дочищает следующий проход.
+ * <p>
+ * Метрики: cart.reaper.carts и cart.reaper.lines - сколько корзин и строк очищено,
+ * cart.reaper.batch - время одной пачки.
+ */
+@Slf4j
+@Service
+public class CartReaper {
+
+    private final CartRepository cartRepository;
+    private final CartProductRepository cartProductRepository;
+    private final CartStore cartStore;
+    private final TransactionalOperator transactionalOperator;
+    private final boolean enabled;
+    private final Duration interval;
+    private final Duration maxAge;
+    private final int batchSize;
+    private final Duration batchPause;
+    private final int maxBatchesPerRun;
+
+    private final Counter purgedCarts;
+    private final Counter purgedLines;
+    private final Timer batchTimer;
+
+    private volatile Disposable reaperLoop;
+
+    public CartReaper(CartRepository cartRepository,
+                      CartProductRepository cartProductRepository,
+                      CartStore cartStore,
+                      TransactionalOperator transactionalOperator,
+                      MeterRegistry meterRegistry,
+                      @Value("${cart.reaper.enabled:true}") boolean enabled,
+                      @Value("${cart.reaper.interval:PT1H}") Duration interval,
+                      @Value("${cart.reaper.max-age:P30D}") Duration maxAge,
+                      @Value("${cart.reaper.batch-size:200}") int batchSize,
+                      @Value("${cart.reaper.batch-pause:PT0.2S}") Duration batchPause,
+                      @Value("${cart.reaper.max-batches-per-run:50}") int maxBatchesPerRun) {
+        this.cartRepository = cartRepository;
+        this.cartProductRepository = cartProductRepository;
+        this.cartStore = cartStore;
+        this.transactionalOperator = transactionalOperator;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.maxAge = maxAge;
+        this.batchSize = batchSize;
+        this.batchPause = batchPause;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.purgedCarts = Counter.builder("cart.reaper.carts")
+                .description("Abandoned carts emptied by the reaper")
+                .register(meterRegistry);
+        this.purgedLines = Counter.builder("cart.reaper.lines")
+                .description("cart_products rows deleted by the reaper")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("cart.reaper.batch")
+                .description("Time to purge one batch of abandoned carts")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Один проход: пачки подряд, пока очередная не окажется неполной или не кончится лимит пачек.
+     *
+     * @return число очищенных корзин
+     */
+    public Mono<Long> reap() {
+        return purgeBatch()
+                .expand(batch -> batch.locked() == batchSize
+                        ? Mono.delay(batchPause).then(purgeBatch())
+                        : Mono.empty())
+                .take(maxBatchesPerRun)
+                .map(batch -> (long) batch.cartIds().size())
+                .reduce(0L, Long::sum)
+                .doOnNext(purged -> {
+                    if (purged > 0) {
+                        log.info("Cart reaper emptied {} abandoned carts", purged);
+                    } else {
+                        log.debug("Cart reaper found no abandoned carts");
+                    }
+                });
+    }
+
+    /**
+     * Блокирует до batchSize брошенных корзин, сбрасывает их копию в хранилище корзин, удаляет строки
+     * и обнуляет суммы в одной транзакции. Копия сбрасывается до удаления: иначе клик между коммитом
+     * и сбросом изменил бы старую копию, и write-behind вернул бы удалённые строки. Корзины, чью копию
+     * сбросить нельзя, остаются как есть.
+     */
+    private Mono<PurgedBatch> purgeBatch() {
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            return cartRepository.lockAbandoned(maxAge.toSeconds(), batchSize)
+                    .collectList()
+                    .flatMap(locked -> locked.isEmpty()
+                            ? Mono.just(new PurgedBatch(0, locked, 0))
+                            : cartStore.evict(locked).flatMap(cartIds -> purge(locked.size(), cartIds)))
+                    .as(transactionalOperator::transactional)
+                    // метрики только после коммита
+                    .doOnNext(batch -> {
+                        purgedCarts.increment(batch.cartIds().size());
+                        purgedLines.increment(batch.lines());
+                        batchTimer.record(Duration.ofNanos(System.nanoTime() - startedAt));
+                    });
+        });
+    }
+
+    private Mono<PurgedBatch> purge(int locked, List<Long> cartIds) {
+        if (cartIds.isEmpty()) {
+            return Mono.just(new PurgedBatch(locked, cartIds, 0));
+        }
+        return cartProductRepository.deleteByCartIdIn(cartIds)
+                .flatMap(lines -> cartRepository.resetTotals(cartIds)
+                        .thenReturn(new PurgedBatch(locked, cartIds, lines)));
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void startReaperLoop() {
+        if (!enabled) {
+            log.info("Abandoned cart reaper is disabled");
+            return;
+        }
+        reaperLoop = Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> reap()
+                        .onErrorResume(e -> {
+                            log.error("Abandoned cart reaper failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopReaperLoop() {
+        if (reaperLoop != null) {
+            reaperLoop.dispose();
+        }
+    }
+
+    /**
+     * @param locked  сколько корзин выбрано; полная пачка значит, что брошенные корзины, возможно, ещё есть
+     * @param cartIds очищенные корзины
+     */
+    private record PurgedBatch(int locked, List<Long> cartIds, int lines) {
+    }
+}
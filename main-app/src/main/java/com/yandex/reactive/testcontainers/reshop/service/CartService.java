@@ -1,38 +1,74 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
+import com.yandex.reactive.testcontainers.reshop.cart.CartContents;
+import com.yandex.reactive.testcontainers.reshop.cart.CartStore;
+import com.yandex.reactive.testcontainers.reshop.cart.GuestCartStore;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
-import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
 import com.yandex.reactive.testcontainers.reshop.domain.enums.CartAction;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
 import com.yandex.reactive.testcontainers.reshop.exception.ResourceNotFoundException;
-import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
-import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.UserRepository;
+import com.yandex.reactive.testcontainers.reshop.security.ShopOidcUser;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class CartService {
 
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Повтор изменения корзины при конфликте версий или взаимной блокировке в MySQL
+     * (вкладки и двойные клики по одной корзине). Случайная задержка (jitter) разводит
+     * повторы конкурирующих запросов, чтобы они не столкнулись снова.
+     */
+    static final RetryBackoffSpec CONFLICT_RETRY = Retry.backoff(5, Duration.ofMillis(5))
+            .maxBackoff(Duration.ofMillis(200))
+            .jitter(0.5)
+            .filter(ConcurrencyFailureException.class::isInstance)
+            .doBeforeRetry(signal -> log.debug("Cart conflict, retry #{}: {}",
+                    signal.totalRetries() + 1, signal.failure().getMessage()))
+            .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+
     private final CartRepository cartRepository;
-    private final ProductRepository productRepository;
     private final UserRepository userRepository;
-    private final CartProductRepository cartProductRepository;
+    private final ProductService productService;
+    private final CartStore cartStore;
+    private final GuestCartStore guestCartStore;
 
     public CartService(CartRepository cartRepository,
-                       ProductRepository productRepository,
                        UserRepository userRepository,
-                       CartProductRepository cartProductRepository) {
+                       ProductService productService,
+                       CartStore cartStore,
+                       GuestCartStore guestCartStore) {
         this.cartRepository = cartRepository;
-        this.productRepository = productRepository;
         this.userRepository = userRepository;
-        this.cartProductRepository = cartProductRepository;
+        this.productService = productService;
+        this.cartStore = cartStore;
+        this.guestCartStore = guestCartStore;
     }
 
     /**
@@ -43,75 +79,88 @@ public class CartService {
         log.debug("Fetching cart for user with id {}", userId);
         return userRepository.findById(userId)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Пользователь не найден")))
-                .flatMap(user ->
-                        cartRepository.findByUserId(user.getId())
-                                .switchIfEmpty(Mono.defer(() -> {
-                                    log.info("No cart found for user with id {}, creating a new one", userId);
-                                    Cart cart = new Cart();
-                                    cart.setUserId(user.getId());
-                                    // Поле products теперь можно не заполнять, так как данные хранятся в join‑таблице
-                                    cart.setTotalPrice(0.0);
-                                    return cartRepository.save(cart);
-                                }))
-                );
+                .flatMap(user -> getOrCreateCart(user.getId()));
+    }
+
+    /**
+     * Корзина пользователя, существование которого уже проверено (например, при логине).
+     * Если корзины ещё нет, создаёт пустую.
+     */
+    public Mono<Cart> getOrCreateCart(Long userId) {
+        return cartRepository.findByUserId(userId)
+                .switchIfEmpty(Mono.defer(() -> {
+                    log.info("No cart found for user with id {}, creating a new one", userId);
+                    Cart cart = new Cart();
+                    cart.setUserId(userId);
+                    // Поле products теперь можно не заполнять, так как данные хранятся в join‑таблице
+                    cart.setTotalPrice(0.0);
+                    return cartRepository.save(cart);
+                }));
     }
 
     /**
      * Получение корзины для currently authenticated пользователя.
-     * If the authentication principal is an OIDC user, the preferred username is used for lookup.
+     * Если id корзины есть в principal (см. ShopOidcUser), корзина читается по первичному ключу,
+     * иначе (старые сессии, не OIDC) - поиск пользователя по username и его корзины.
      *
      * @return a Mono with existing or brand-new Cart
      * @throws ResourceNotFoundException if the user is not authenticated or not found in the DB
      */
     public Mono<Cart> getCart() {
+        return currentAuthentication()
+                .flatMap(auth -> ShopOidcUser.cartId(auth.getPrincipal())
+                        .map(cartId -> cartRepository.findById(cartId)
+                                .switchIfEmpty(Mono.defer(() -> lookupCart(auth))))
+                        .orElseGet(() -> lookupCart(auth)));
+    }
+
+    /**
+     * Ссылка на корзину текущего пользователя: заполнены только id и userId.
+     * Для операций, которым не нужны сумма и версия (клики, счётчики на витрине, очистка);
+     * если id есть в principal, запросов в БД нет. Иначе то же, что getCart().
+     */
+    public Mono<Cart> getCartRef() {
+        return currentAuthentication()
+                .flatMap(auth -> {
+                    Optional<Long> cartId = ShopOidcUser.cartId(auth.getPrincipal());
+                    Optional<Long> userId = ShopOidcUser.userId(auth.getPrincipal());
+                    if (cartId.isEmpty() || userId.isEmpty()) {
+                        return lookupCart(auth);
+                    }
+                    Cart cart = new Cart();
+                    cart.setId(cartId.get());
+                    cart.setUserId(userId.get());
+                    return Mono.just(cart);
+                });
+    }
+
+    private Mono<Authentication> currentAuthentication() {
         return ReactiveSecurityContextHolder.getContext()
                 .map(SecurityContext::getAuthentication)
                 .doOnNext(auth -> log.debug("Authentication found: {}", auth.getName()))
-                .switchIfEmpty(Mono.error(new ResourceNotFoundException("User not authenticated")))
-                .flatMap(auth -> {
-                    String username;
-                    if (auth.getPrincipal() instanceof OidcUser oidcUser) {
-                        username = oidcUser.getPreferredUsername();
-                    } else {
-                        username = auth.getName();
-                    }
-                    return userRepository.findByUsername(username)
-                            .switchIfEmpty(Mono.error(new ResourceNotFoundException("User not found in DB")));
-                })
-                .flatMap(user ->
-                        cartRepository.findByUserId(user.getId())
-                                .switchIfEmpty(Mono.defer(() -> {
-                                    log.info("No cart found for user with id {}, creating a new one", user.getId());
-                                    Cart newCart = new Cart();
-                                    newCart.setUserId(user.getId());
-                                    newCart.setTotalPrice(0.0);
-                                    return cartRepository.save(newCart);
-                                }))
-                );
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("User not authenticated")));
     }
 
     /**
-     * Вспомогательный метод для пересчета итоговой суммы корзины.
-     *
-     * @param cart корзина
-     * @return Mono<Cart> с обновленным totalPrice
-     */
-    private Mono<Cart> updateCartTotal(Cart cart) {
-        return cartProductRepository.findByCartId(cart.getId())
-                .flatMap(cartProduct ->
-                        productRepository.findById(cartProduct.getProductId())
-                )
-                .map(Product::getPrice)
-                .reduce(0.0, Double::sum)
-                .flatMap(total -> {
-                    cart.setTotalPrice(total);
-                    return cartRepository.save(cart);
-                });
+     * Поиск корзины по username (If the authentication principal is an OIDC user, the preferred username is used).
+     */
+    private Mono<Cart> lookupCart(Authentication auth) {
+        String username;
+        if (auth.getPrincipal() instanceof OidcUser oidcUser) {
+            username = oidcUser.getPreferredUsername();
+        } else {
+            username = auth.getName();
+        }
+        return userRepository.findByUsername(username)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("User not found in DB")))
+                .flatMap(user -> getOrCreateCart(user.getId()));
     }
 
     /**
      * Модифицирует содержимое корзины для товара с указанным id.
      * В зависимости от действия (plus, minus, delete) добавляет или удаляет элемент.
+     * Само изменение и сумму корзины ведёт CartStore (MySQL или Redis, см. cart.storage);
+     * товар берётся через ProductService, т.е. из снимка каталога или кеша, без запроса в БД.
      *
      * @param productId идентификатор продукта
      * @param action    действие: "plus", "minus", "delete"
@@ -119,64 +168,194 @@ public class CartService {
      */
     public Mono<Void> modifyItem(Long productId, String action) {
         log.info("Modifying item with id {} using action {}", productId, action);
-        return Mono.zip(getCart(), productRepository.findById(productId))
+        return Mono.zip(getCartRef(), productService.findById(productId))
                 .flatMap(tuple -> {
                     Cart cart = tuple.getT1();
                     Product product = tuple.getT2();
 
                     CartAction cartAction;
                     try {
-                        cartAction = CartAction.valueOf(action.toUpperCase());
+                        cartAction = parseAction(action);
                     } catch (IllegalArgumentException ex) {
-                        log.error("Unknown action: {}", action);
-                        return Mono.error(new IllegalArgumentException("Unknown action: " + action));
+                        return Mono.error(ex);
                     }
 
-                    switch (cartAction) {
-                        case PLUS:
-                            CartProduct cp = new CartProduct();
-                            cp.setCartId(cart.getId());
-                            cp.setProductId(productId);
-                            return cartProductRepository.save(cp)
-                                    .then(updateCartTotal(cart));
-                        case MINUS:
-                            // Удаляем первый найденный экземпляр
-                            return cartProductRepository.findFirstByCartIdAndProductId(cart.getId(), productId)
-                                    .flatMap(cpToRemove -> cartProductRepository.deleteById(cpToRemove.getId()))
-                                    .then(updateCartTotal(cart));
-                        case DELETE:
-                            // Удаляем все вхождения продукта из корзины
-                            return cartProductRepository.findAllByCartIdAndProductId(cart.getId(), productId)
-                                    .flatMap(cpToRemove -> cartProductRepository.deleteById(cpToRemove.getId()))
-                                    .then(updateCartTotal(cart));
-                        default:
-                            return Mono.error(new IllegalArgumentException("Unknown action: " + action));
+                    return Mono.defer(() -> switch (cartAction) {
+                        case PLUS -> cartStore.add(cart, product);
+                        case MINUS -> cartStore.removeOne(cart, product);
+                        case DELETE -> cartStore.removeAll(cart, product);
+                    }).retryWhen(CONFLICT_RETRY);
+                })
+                .doOnSuccess(ignored -> log.info("Cart item {} modified with action {}", productId, action));
+    }
+
+    /**
+     * Применяет пакет изменений корзины (POST /cart/items) как одно изменение:
+     * все товары проверяются одним запросом ProductService.findAllByIds, затем CartStore
+     * пишет итоговые строки и пересчитывает сумму один раз. Изменения одного товара
+     * применяются по порядку. При конфликте с параллельным изменением пакет повторяется (CONFLICT_RETRY).
+     *
+     * @return содержимое корзины после изменения
+     * @throws IllegalArgumentException если пакет пуст, больше MAX_BATCH_SIZE,
+     *                                  содержит некорректное изменение или неизвестный товар
+     */
+    public Mono<CartContents> modifyItems(List<CartItemChange> changes) {
+        if (changes.isEmpty() || changes.size() > MAX_BATCH_SIZE) {
+            return Mono.error(new IllegalArgumentException(
+                    "Batch must contain from 1 to " + MAX_BATCH_SIZE + " changes, got " + changes.size()));
+        }
+        try {
+            changes.forEach(CartItemChange::validate);
+        } catch (IllegalArgumentException ex) {
+            return Mono.error(ex);
+        }
+        Set<Long> productIds = changes.stream()
+                .map(CartItemChange::productId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        log.info("Modifying {} cart items with {} changes", productIds.size(), changes.size());
+        return Mono.zip(getCartRef(), productService.findAllByIds(productIds))
+                .flatMap(tuple -> {
+                    Cart cart = tuple.getT1();
+                    Map<Long, Product> products = tuple.getT2();
+                    List<Long> unknown = productIds.stream()
+                            .filter(id -> !products.containsKey(id))
+                            .toList();
+                    if (!unknown.isEmpty()) {
+                        return Mono.error(new IllegalArgumentException("Unknown products: " + unknown));
                     }
+                    // сумма пересчитана в CartStore, поэтому корзину перечитываем
+                    return Mono.defer(() -> cartStore.apply(cart, changes, products))
+                            .retryWhen(CONFLICT_RETRY)
+                            .then(Mono.defer(() -> cartRepository.findById(cart.getId())))
+                            .flatMap(cartStore::contents);
+                });
+    }
+
+    /**
+     * Изменение гостевой корзины анонимного покупателя (только Redis, без записи в MySQL).
+     * Товар проверяется через ProductService, т.е. по снимку каталога или кешу.
+     */
+    public Mono<Void> modifyGuestItem(String guestId, Long productId, String action) {
+        CartAction cartAction;
+        try {
+            cartAction = parseAction(action);
+        } catch (IllegalArgumentException ex) {
+            return Mono.error(ex);
+        }
+        return productService.findById(productId)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Продукт с id " + productId + " не найден")))
+                .flatMap(product -> guestCartStore.change(guestId, product.getId(), cartAction));
+    }
+
+    /**
+     * @return количества указанных товаров в гостевой корзине
+     */
+    public Mono<Map<Long, Integer>> getGuestQuantities(String guestId, Collection<Long> productIds) {
+        return guestCartStore.quantities(guestId, productIds);
+    }
+
+    /**
+     * Переносит гостевую корзину в корзину пользователя пакетным изменением (CartStore.apply):
+     * количества складываются, товары, удалённые из каталога, пропускаются.
+     * <p>
+     * Гостевая корзина сначала забирается из Redis атомарно (GuestCartStore.take), и сливаются
+     * только забранные строки: два одновременных логина с одним cookie не удвоят количества,
+     * а повторный логин после слияния не добавит товары ещё раз.
+     */
+    public Mono<Void> mergeGuestCart(Cart cart, String guestId) {
+        return guestCartStore.take(guestId)
+                .filter(lines -> !lines.isEmpty())
+                .flatMap(lines -> {
+                    log.info("Merging guest cart {} ({} products) into cart {}", guestId, lines.size(), cart.getId());
+                    return shiftQuantities(cart, lines, true);
+                });
+    }
+
+    /**
+     * Сдвигает количества товаров корзины на deltas (отрицательные - уменьшение, не ниже нуля):
+     * по одному изменению delta на товар, пакетами не больше MAX_BATCH_SIZE. Товары, которых уже
+     * нет в каталоге, пропускаются.
+     *
+     * @param retryConflicts повторять пакет при конфликте (CONFLICT_RETRY); внутри чужой транзакции
+     *                       повтор бесполезен - она уже помечена на откат и повторяется целиком
+     */
+    private Mono<Void> shiftQuantities(Cart cart, Map<Long, Integer> deltas, boolean retryConflicts) {
+        return productService.findAllByIds(deltas.keySet())
+                .flatMapMany(products -> {
+                    List<CartItemChange> changes = deltas.entrySet().stream()
+                            .filter(line -> products.containsKey(line.getKey()) && line.getValue() != 0)
+                            .map(line -> CartItemChange.delta(line.getKey(), line.getValue()))
+                            .toList();
+                    return Flux.range(0, (changes.size() + MAX_BATCH_SIZE - 1) / MAX_BATCH_SIZE)
+                            .map(batch -> changes.subList(batch * MAX_BATCH_SIZE,
+                                    Math.min((batch + 1) * MAX_BATCH_SIZE, changes.size())))
+                            .concatMap(batch -> {
+                                Mono<Void> apply = Mono.defer(() -> cartStore.apply(cart, batch, products));
+                                return retryConflicts ? apply.retryWhen(CONFLICT_RETRY) : apply;
+                            });
                 })
-                .doOnSuccess(updatedCart ->
-                        log.info("Cart updated with new total price: {}", updatedCart.getTotalPrice()))
                 .then();
     }
 
+    /**
+     * Убирает из корзины купленное: для каждого товара - столько единиц, сколько оплачено
+     * (см. CartCheckout). Не очищает корзину целиком, поэтому товары, добавленные после оплаты,
+     * остаются. Вызывается в фоне (OrderOutboxWorker), без контекста безопасности, внутри транзакции
+     * удаления события: конфликт здесь не повторяется, а откатывает и повторяет всю транзакцию.
+     */
+    public Mono<Void> removePurchased(Long cartId, Long userId, Map<Long, Integer> purchased) {
+        if (purchased.isEmpty()) {
+            return Mono.empty();
+        }
+        Cart cart = new Cart();
+        cart.setId(cartId);
+        cart.setUserId(userId);
+        Map<Long, Integer> deltas = new HashMap<>();
+        purchased.forEach((productId, quantity) -> deltas.put(productId, -quantity));
+        log.info("Removing {} purchased products from cart {}", purchased.size(), cartId);
+        return shiftQuantities(cart, deltas, false);
+    }
+
+    /**
+     * @return количества товаров и сумма корзины из CartStore
+     */
+    public Mono<CartContents> getContents(Cart cart) {
+        return cartStore.contents(cart);
+    }
+
+    /**
+     * @return количества указанных товаров в корзине (без остальных строк и суммы)
+     */
+    public Mono<Map<Long, Integer>> getQuantities(Cart cart, Collection<Long> productIds) {
+        return cartStore.quantities(cart, productIds);
+    }
 
     /**
-     * Очищает корзину, удаляя все записи из join‑таблицы и сбрасывая итоговую сумму.
+     * Синхронно сохраняет корзину в MySQL (нужно, если она ведётся в Redis).
+     */
+    public Mono<Void> flush(Cart cart) {
+        return cartStore.flush(cart);
+    }
+
+
+    private static CartAction parseAction(String action) {
+        try {
+            return CartAction.valueOf(action.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            log.error("Unknown action: {}", action);
+            throw new IllegalArgumentException("Unknown action: " + action);
+        }
+    }
+
+    /**
+     * Очищает корзину: удаляет все строки и сбрасывает итоговую сумму.
      */
     public Mono<Void> clearCart() {
         log.info("Clearing the cart");
-        return getCart()
-                .flatMap(cart ->
-                        cartProductRepository.findByCartId(cart.getId())
-                                .flatMap(cp -> cartProductRepository.deleteById(cp.getId()))
-                                .then(Mono.defer(() -> {
-                                    cart.setTotalPrice(0.0);
-                                    return cartRepository.save(cart);
-                                }))
-                )
-                .doOnSuccess(updatedCart ->
-                        log.info("Cart cleared and total price reset"))
-                .then();
+        return getCartRef()
+                .flatMap(cartStore::clear)
+                .doOnSuccess(ignored ->
+                        log.info("Cart cleared and total price reset"));
     }
 
 }
-
@@ -0,0 +1,85 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Периодически сверяет carts.total_price с суммой price * quantity по строкам корзины.
+ * <p>
+ * CartService меняет сумму только на дельту изменённой строки, поэтому расхождения возможны
+ * при смене цены товара или при сбое между запросами. Сверка идёт по таблице диапазонами
+ * по batch-size id: каждый диапазон - отдельный UPDATE, который блокирует только свои строки
+ * и переписывает только разошедшиеся корзины (см. CartRepository#reconcileTotals).
+ */
+@Slf4j
+@Service
+public class CartTotalReconciler {
+
+    private final CartRepository cartRepository;
+    private final boolean enabled;
+    private final Duration interval;
+    private final int batchSize;
+
+    private volatile Disposable reconcileLoop;
+
+    public CartTotalReconciler(CartRepository cartRepository,
+                               @Value("${cart.reconcile.enabled:true}") boolean enabled,
+                               @Value("${cart.reconcile.interval:PT15M}") Duration interval,
+                               @Value("${cart.reconcile.batch-size:1000}") int batchSize) {
+        this.cartRepository = cartRepository;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return число корзин, сумма которых была исправлена
+     */
+    public Mono<Integer> reconcile() {
+        return cartRepository.findMaxId()
+                .flatMapMany(maxId -> Flux.range(0, (int) (maxId / batchSize) + 1)
+                        .map(batch -> (long) batch * batchSize))
+                .concatMap(fromId -> cartRepository.reconcileTotals(fromId, fromId + batchSize))
+                .reduce(0, Integer::sum)
+                .doOnNext(fixed -> {
+                    if (fixed > 0) {
+                        log.warn("Cart totals reconciled: {} carts were out of sync", fixed);
+                    } else {
+                        log.debug("Cart totals are in sync");
+                    }
+                });
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void startReconcileLoop() {
+        if (!enabled) {
+            log.info("Cart total reconciliation is disabled");
+            return;
+        }
+        reconcileLoop = Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> reconcile()
+                        .onErrorResume(e -> {
+                            log.error("Cart total reconciliation failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopReconcileLoop() {
+        if (reconcileLoop != null) {
+            reconcileLoop.dispose();
+        }
+    }
+}
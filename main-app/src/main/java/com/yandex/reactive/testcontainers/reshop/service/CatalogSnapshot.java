@@ -0,0 +1,221 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.ProductSort;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Неизменяемый снимок каталога в компактных примитивных массивах.
+ * <p>
+ * Товары лежат по позициям в порядке возрастания id, строковые колонки упакованы
+ * в один буфер со смещениями. Для ALPHA и PRICE заранее посчитаны массивы позиций
+ * в нужном порядке, поэтому страница витрины - это просто срез массива.
+ * Поиск идёт через триграммный ProductSearchIndex: найденные позиции упорядочиваются
+ * по рангу в выбранной сортировке, без прохода по всему каталогу.
+ * Страницы отдаются как ProductTile с обрезанным описанием, полный Product - только по id.
+ * Каждый вызов возвращает новые экземпляры, снимок ими не делится.
+ * <p>
+ * Названия сравниваются как в MySQL (utf8mb4_0900_ai_ci): без учёта регистра и диакритики,
+ * поэтому страницы ALPHA и курсоры совпадают с SQL-путём ProductRepository.
+ */
+public final class CatalogSnapshot {
+
+    private static final Collator NAME_COLLATOR = nameCollator();
+
+    private final long[] ids;
+    private final double[] prices;
+    private final PackedStrings names;
+    private final PackedStrings descriptions;
+    private final PackedStrings imgPaths;
+
+    private final int[] idOrder;
+    private final int[] alphaOrder;
+    private final int[] priceOrder;
+    private final int[] alphaRank;
+    private final int[] priceRank;
+
+    private final ProductSearchIndex searchIndex;
+
+    private CatalogSnapshot(List<Product> products) {
+        List<Product> byId = new ArrayList<>(products);
+        byId.sort(Comparator.comparing(Product::getId));
+        int size = byId.size();
+
+        this.ids = new long[size];
+        this.prices = new double[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = byId.get(i).getId();
+            prices[i] = byId.get(i).getPrice();
+        }
+        this.names = PackedStrings.of(byId.stream().map(Product::getName).toList());
+        this.descriptions = PackedStrings.of(byId.stream().map(Product::getDescription).toList());
+        this.imgPaths = PackedStrings.of(byId.stream().map(Product::getImgPath).toList());
+
+        this.idOrder = IntStream.range(0, size).toArray();
+        // ключи сортировки считаются один раз на товар, а не при каждом сравнении
+        CollationKey[] nameKeys = new CollationKey[size];
+        for (int i = 0; i < size; i++) {
+            String name = names.get(i);
+            nameKeys[i] = name != null ? NAME_COLLATOR.getCollationKey(name) : null;
+        }
+        this.alphaOrder = sortedPositions(size, (a, b) -> compareByName(nameKeys, a, b));
+        this.priceOrder = sortedPositions(size, (a, b) -> compareByPrice(a, b));
+        this.alphaRank = ranks(alphaOrder);
+        this.priceRank = ranks(priceOrder);
+
+        this.searchIndex = ProductSearchIndex.build(names, descriptions);
+    }
+
+    public static CatalogSnapshot of(List<Product> products) {
+        return new CatalogSnapshot(products);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return товар по id или null, если его нет в снимке
+     */
+    public Product findById(long id) {
+        int pos = Arrays.binarySearch(ids, id);
+        return pos >= 0 ? materialize(pos) : null;
+    }
+
+    /**
+     * Страница витрины с теми же правилами, что и у SQL-запросов ProductRepository:
+     * с курсором страница начинается строго после него, без курсора - через offset.
+     */
+    public List<ProductTile> page(String search, ProductSort sort, int pageNumber, int pageSize, ProductCursor cursor) {
+        int[] order = (search == null || search.isBlank())
+                ? orderFor(sort)
+                : inSortOrder(searchIndex.search(search), sort);
+        int from = cursor != null
+                ? firstAfter(order, sort, cursor)
+                : (int) Math.min(Math.max(pageNumber - 1L, 0) * pageSize, order.length);
+
+        List<ProductTile> page = new ArrayList<>(Math.max(pageSize, 0));
+        for (int i = from; i < order.length && page.size() < pageSize; i++) {
+            page.add(tile(order[i]));
+        }
+        return page;
+    }
+
+    /**
+     * Упорядочивает найденные позиции по рангу в сортировке: O(k log k) от числа совпадений.
+     */
+    private int[] inSortOrder(int[] positions, ProductSort sort) {
+        int[] rank = switch (sort) {
+            case ALPHA -> alphaRank;
+            case PRICE -> priceRank;
+            default -> null; // позиции уже упорядочены по id
+        };
+        if (rank == null) {
+            return positions;
+        }
+        long[] keyed = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            keyed[i] = ((long) rank[positions[i]] << 32) | positions[i];
+        }
+        Arrays.sort(keyed);
+        int[] ordered = new int[keyed.length];
+        for (int i = 0; i < keyed.length; i++) {
+            ordered[i] = (int) keyed[i];
+        }
+        return ordered;
+    }
+
+    private int[] orderFor(ProductSort sort) {
+        return switch (sort) {
+            case ALPHA -> alphaOrder;
+            case PRICE -> priceOrder;
+            default -> idOrder;
+        };
+    }
+
+    /**
+     * Бинарный поиск первой позиции в order, которая строго больше курсора по (ключ сортировки, id).
+     */
+    private int firstAfter(int[] order, ProductSort sort, ProductCursor cursor) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareToCursor(order[mid], sort, cursor) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compareToCursor(int pos, ProductSort sort, ProductCursor cursor) {
+        int byKey = switch (sort) {
+            case ALPHA -> compareNullable(names.get(pos), cursor.name());
+            case PRICE -> Double.compare(prices[pos], cursor.price());
+            default -> 0;
+        };
+        return byKey != 0 ? byKey : Long.compare(ids[pos], cursor.id());
+    }
+
+    private int compareByName(CollationKey[] nameKeys, int a, int b) {
+        int byName = Comparator.nullsFirst(Comparator.<CollationKey>naturalOrder()).compare(nameKeys[a], nameKeys[b]);
+        return byName != 0 ? byName : Long.compare(ids[a], ids[b]);
+    }
+
+    private int compareByPrice(int a, int b) {
+        int byPrice = Double.compare(prices[a], prices[b]);
+        return byPrice != 0 ? byPrice : Long.compare(ids[a], ids[b]);
+    }
+
+    private static int compareNullable(String a, String b) {
+        return Comparator.nullsFirst(NAME_COLLATOR).compare(a, b);
+    }
+
+    /**
+     * PRIMARY - различаются только базовые буквы: "Кеды", "кеды" и "КЕДЫ", "Ёлка" и "Елка" равны,
+     * как в *_ai_ci, и порядок между ними задаёт id. Правила ru: у Locale.ROOT кириллица сравнивается
+     * по кодам символов, с учётом регистра. Collator синхронизирован, общий экземпляр потокобезопасен.
+     */
+    private static Collator nameCollator() {
+        Collator collator = Collator.getInstance(Locale.forLanguageTag("ru"));
+        collator.setStrength(Collator.PRIMARY);
+        return collator;
+    }
+
+    private static int[] sortedPositions(int size, Comparator<Integer> comparator) {
+        return IntStream.range(0, size)
+                .boxed()
+                .sorted(comparator)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static int[] ranks(int[] order) {
+        int[] rank = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+        return rank;
+    }
+
+    private ProductTile tile(int pos) {
+        return new ProductTile(ids[pos], names.get(pos), prices[pos],
+                descriptions.prefix(pos, ProductTile.DESCRIPTION_LENGTH), imgPaths.get(pos));
+    }
+
+    private Product materialize(int pos) {
+        return new Product(ids[pos], names.get(pos), prices[pos], descriptions.get(pos), imgPaths.get(pos), 0);
+    }
+}
@@ -0,0 +1,96 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Держит текущий снимок каталога и периодически перечитывает его из MySQL.
+ * <p>
+ * Новый снимок строится целиком в стороне и подменяется атомарно, поэтому читатели
+ * всегда видят согласованный каталог. Пока снимок не загружен (или выключен через
+ * catalog.snapshot.enabled), ProductService работает через БД и Redis-кеш.
+ */
+@Slf4j
+@Service
+public class CatalogSnapshotService {
+
+    private final ProductRepository productRepository;
+    private final boolean enabled;
+    private final Duration refreshInterval;
+
+    private final AtomicReference<CatalogSnapshot> current = new AtomicReference<>();
+    private volatile Disposable refreshLoop;
+
+    public CatalogSnapshotService(ProductRepository productRepository,
+                                  @Value("${catalog.snapshot.enabled:true}") boolean enabled,
+                                  @Value("${catalog.snapshot.refresh-interval:PT5M}") Duration refreshInterval) {
+        this.productRepository = productRepository;
+        this.enabled = enabled;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return текущий снимок или null, если он ещё не загружен
+     */
+    public CatalogSnapshot current() {
+        return current.get();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isReady() {
+        return current.get() != null;
+    }
+
+    /**
+     * Перечитывает каталог и атомарно подменяет снимок.
+     */
+    public Mono<CatalogSnapshot> refresh() {
+        long started = System.nanoTime();
+        return productRepository.findAll()
+                .collectList()
+                .map(CatalogSnapshot::of)
+                .doOnNext(snapshot -> {
+                    current.set(snapshot);
+                    log.info("Catalog snapshot refreshed: {} products in {} ms",
+                            snapshot.size(), Duration.ofNanos(System.nanoTime() - started).toMillis());
+                });
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void startRefreshLoop() {
+        if (!enabled) {
+            log.info("Catalog snapshot is disabled, serving catalog from DB and cache");
+            return;
+        }
+        refreshLoop = Flux.interval(Duration.ZERO, refreshInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> refresh()
+                        .onErrorResume(e -> {
+                            // старый снимок продолжает обслуживать запросы
+                            log.error("Catalog snapshot refresh failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopRefreshLoop() {
+        if (refreshLoop != null) {
+            refreshLoop.dispose();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.domain.enums.ProductSort;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Прогрев перед приёмом трафика: Spring Boot переводит readiness в ACCEPTING_TRAFFIC
+ * только после того, как отработают все ApplicationRunner, поэтому пока run() не вернулся,
+ * /actuator/health/readiness отвечает OUT_OF_SERVICE и балансировщик не шлёт сюда запросы.
+ * <p>
+ * Шаги: дождаться снимка каталога (если включён), загрузить в кеш products первые страницы
+ * для каждой ProductSort (переход по keyset-курсору, как в UI) и самые просматриваемые товары
+ * (ProductViewStats), затем один раз запросить /main/items и /items/{id}, чтобы прогреть
+ * Thymeleaf-шаблоны и JIT. Пока чтение идёт из снимка, @Cacheable отключён и страницы в кеш
+ * не загружаются. Запросы прогрева помечены заголовком WARMUP_HEADER и не считаются просмотрами.
+ * Все шаги укладываются в один общий warmup.timeout. Ошибки и таймаут прогрева не мешают
+ * старту - инстанс просто становится готовым с холодным кешем.
+ */
+@Slf4j
+@Component
+public class CatalogWarmupRunner implements ApplicationRunner {
+
+    /**
+     * Заголовок запросов прогрева к собственным страницам.
+     */
+    public static final String WARMUP_HEADER = "X-Warmup";
+
+    private static final Duration SNAPSHOT_POLL_INTERVAL = Duration.ofMillis(100);
+
+    private final ProductService productService;
+    private final ProductViewStats productViewStats;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final ApplicationContext applicationContext;
+    private final boolean enabled;
+    private final int pagesPerSort;
+    private final int pageSize;
+    private final int topProducts;
+    private final Duration timeout;
+
+    public CatalogWarmupRunner(ProductService productService,
+                               ProductViewStats productViewStats,
+                               CatalogSnapshotService catalogSnapshotService,
+                               ApplicationContext applicationContext,
+                               @Value("${warmup.enabled:true}") boolean enabled,
+                               @Value("${warmup.pages-per-sort:3}") int pagesPerSort,
+                               @Value("${warmup.page-size:10}") int pageSize,
+                               @Value("${warmup.top-products:100}") int topProducts,
+                               @Value("${warmup.timeout:PT60S}") Duration timeout) {
+        this.productService = productService;
+        this.productViewStats = productViewStats;
+        this.catalogSnapshotService = catalogSnapshotService;
+        this.applicationContext = applicationContext;
+        this.enabled = enabled;
+        this.pagesPerSort = pagesPerSort;
+        this.pageSize = pageSize;
+        this.topProducts = topProducts;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            log.info("Catalog warm-up is disabled");
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            // один таймаут на весь прогрев: шаги не получают его каждый заново
+            warmCaches().flatMap(this::renderPages).block(timeout);
+            log.info("Catalog warm-up finished in {} ms", Duration.ofNanos(System.nanoTime() - started).toMillis());
+        } catch (RuntimeException e) {
+            log.warn("Catalog warm-up did not complete, starting with a cold cache: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Загружает страницы витрины и популярные товары через ProductService (а значит, и в кеш).
+     *
+     * @return id популярных товаров, которые удалось найти
+     */
+    Mono<List<Long>> warmCaches() {
+        Mono<Void> snapshotReady = catalogSnapshotService.isEnabled()
+                ? Mono.defer(() -> Mono.justOrEmpty(catalogSnapshotService.current()))
+                        .repeatWhenEmpty(attempts -> attempts.delayElements(SNAPSHOT_POLL_INTERVAL))
+                        .then()
+                : Mono.empty();
+
+        // страницы из снимка отдаются из памяти, кешировать нечего
+        Mono<Integer> pages = catalogSnapshotService.isEnabled()
+                ? Mono.just(0)
+                : Flux.fromArray(ProductSort.values())
+                        .concatMap(sort -> preloadPages(sort.name(), 1, null))
+                        .reduce(0, Integer::sum);
+
+        Mono<List<Long>> topViewed = productViewStats.topViewed(topProducts)
+                .collectList()
+                .onErrorResume(e -> {
+                    log.warn("Product view stats are unavailable: {}", e.getMessage());
+                    return Mono.just(List.of());
+                })
+                .flatMap(ids -> productService.findAllByIds(ids)
+                        .map(found -> ids.stream().filter(found::containsKey).toList()));
+
+        return snapshotReady
+                .then(pages)
+                .zipWith(topViewed)
+                .doOnNext(result -> log.info("Warmed up {} catalog pages and {} popular products",
+                        result.getT1(), result.getT2().size()))
+                .map(result -> result.getT2());
+    }
+
+    /**
+     * Страницы загружаются так же, как их листает пользователь: первая без курсора (ключ кеша
+     * совпадает с /main/items), следующие - по курсору последнего товара предыдущей страницы.
+     */
+    private Mono<Integer> preloadPages(String sort, int pageNumber, String cursor) {
+        if (pageNumber > pagesPerSort) {
+            return Mono.just(pageNumber - 1);
+        }
+        return productService.getProducts("", sort, pageNumber, pageSize, cursor)
+                .collectList()
+                .flatMap(products -> products.size() < pageSize
+                        ? Mono.just(pageNumber)
+                        : preloadPages(sort, pageNumber + 1, ProductCursor.of(last(products)).encode()));
+    }
+
+    private Mono<Void> renderPages(List<Long> topIds) {
+        if (!(applicationContext instanceof WebServerApplicationContext webContext)
+                || webContext.getWebServer() == null) {
+            return Mono.empty();
+        }
+        WebClient client = WebClient.create("http://localhost:" + webContext.getWebServer().getPort());
+        List<String> uris = new ArrayList<>();
+        for (ProductSort sort : ProductSort.values()) {
+            uris.add("/main/items?sort=" + sort.name() + "&pageSize=" + pageSize);
+        }
+        // карточка самого популярного товара, а без статистики - первого в каталоге
+        Mono<Long> itemId = topIds.isEmpty()
+                ? productService.getProducts("", ProductSort.NO.name(), 1, 1, null).next().map(ProductTile::id)
+                : Mono.just(topIds.get(0));
+        return itemId.map(id -> "/items/" + id)
+                .doOnNext(uris::add)
+                .thenMany(Flux.defer(() -> Flux.fromIterable(uris)))
+                .concatMap(uri -> client.get().uri(uri)
+                        .header(WARMUP_HEADER, "true")
+                        .retrieve()
+                        .toBodilessEntity()
+                        .doOnNext(response -> log.debug("Warm-up GET {} -> {}", uri, response.getStatusCode()))
+                        .onErrorResume(e -> {
+                            log.warn("Warm-up GET {} failed: {}", uri, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    private static ProductTile last(List<ProductTile> products) {
+        return products.get(products.size() - 1);
+    }
+}
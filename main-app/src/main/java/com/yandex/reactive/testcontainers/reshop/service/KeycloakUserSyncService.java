@@ -1,13 +1,17 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
 import com.yandex.reactive.testcontainers.reshop.repository.UserRepository;
+import com.yandex.reactive.testcontainers.reshop.security.ShopOidcUser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.util.Optional;
+
 
 @Slf4j
 @Service
@@ -15,17 +19,21 @@ public class KeycloakUserSyncService {
 
     private final UserRepository userRepo;
     private final PasswordEncoder passwordEncoder;
+    private final CartService cartService;
 
-    public KeycloakUserSyncService(UserRepository userRepo, PasswordEncoder passwordEncoder) {
+    public KeycloakUserSyncService(UserRepository userRepo, PasswordEncoder passwordEncoder, CartService cartService) {
         this.userRepo = userRepo;
         this.passwordEncoder = passwordEncoder;
+        this.cartService = cartService;
     }
 
     /**
      * Synchronizes the OIDC user with MySQL.
+     * Заодно находит (или создаёт) корзину пользователя и кладёт id пользователя и корзины
+     * в атрибуты principal, чтобы запросы не искали их по username каждый раз.
      *
      * @param oidcUser from Keycloak
-     * @return Mono with the same OidcUser after synchronization
+     * @return Mono with ShopOidcUser wrapping the same OIDC user after synchronization
      */
     public Mono<OidcUser> syncUser(OidcUser oidcUser) {
         String username = oidcUser.getPreferredUsername();
@@ -44,6 +52,27 @@ public class KeycloakUserSyncService {
                                 ).doOnSuccess(user -> log.info("User has been created: {}", user.getUsername()))
                         )
                 )
-                .thenReturn(oidcUser);
+                .flatMap(user -> cartService.getOrCreateCart(user.getId())
+                        .map(cart -> new ShopOidcUser(oidcUser, user.getId(), cart.getId())));
+    }
+
+    /**
+     * Переносит гостевую корзину в корзину только что вошедшего пользователя.
+     * Вызывается после логина (см. SecurityConfig), когда principal уже создан syncUser.
+     *
+     * @param principal ShopOidcUser с id пользователя и корзины
+     * @param guestId   id гостевой корзины из cookie
+     */
+    public Mono<Void> mergeGuestCart(Object principal, String guestId) {
+        Optional<Long> cartId = ShopOidcUser.cartId(principal);
+        Optional<Long> userId = ShopOidcUser.userId(principal);
+        if (cartId.isEmpty() || userId.isEmpty()) {
+            log.warn("Principal has no cart id, guest cart {} is not merged", guestId);
+            return Mono.empty();
+        }
+        Cart cart = new Cart();
+        cart.setId(cartId.get());
+        cart.setUserId(userId.get());
+        return cartService.mergeGuestCart(cart, guestId);
     }
 }
\ No newline at end of file
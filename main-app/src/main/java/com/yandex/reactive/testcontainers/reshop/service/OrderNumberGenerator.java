@@ -0,0 +1,116 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Номера заказов в стиле Snowflake: 64-битное число из миллисекунд с EPOCH (41 бит),
+ * id узла (10 бит) и счётчика внутри миллисекунды (12 бит).
+ * <p>
+ * Номер создаётся в памяти без обращений к БД и без блокировок: время и счётчик хранятся
+ * в одном AtomicLong и сдвигаются CAS-ом. Если счётчик миллисекунды исчерпан или часы ушли назад,
+ * номер берётся "в долг" у следующей миллисекунды, поэтому номера узла всегда возрастают.
+ * Уникальность между инстансами даёт id узла: order.number.node-id или аренда в Redis
+ * (OrderNumberNodeLease). С арендой номер выдаётся, только пока она действует и его миллисекунда
+ * раньше конца аренды, иначе nextId бросает IllegalStateException; номера в долг отмечаются в аренде.
+ * Страховка от ошибки конфигурации - уникальный индекс orders.number.
+ * <p>
+ * Для людей номер показывается в base32 Крокфорда (13 символов без I, L, O, U);
+ * строки одной длины сортируются так же, как числа.
+ */
+@Slf4j
+@Component
+public class OrderNumberGenerator {
+
+    static final long EPOCH_MILLIS = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int NUMBER_LENGTH = 13;
+
+    // null - id узла задан в конфигурации
+    private final OrderNumberNodeLease nodeLease;
+    private final int nodeId;
+    private final LongSupplier clock;
+    // (миллисекунды с EPOCH << SEQUENCE_BITS) | счётчик последнего выданного номера
+    private final AtomicLong lastState = new AtomicLong();
+
+    public OrderNumberGenerator(OrderNumberNodeLease nodeLease,
+                                @Value("${order.number.node-id:-1}") int nodeId) {
+        this(nodeId >= 0 ? null : nodeLease, nodeId >= 0 ? nodeId : nodeLease.acquire(MAX_NODE_ID),
+                System::currentTimeMillis);
+        log.info("Order numbers are generated with node id {}", this.nodeId);
+    }
+
+    OrderNumberGenerator(int nodeId, LongSupplier clock) {
+        this(null, nodeId, clock);
+    }
+
+    /**
+     * @param nodeLease аренда id узла; null - всегда используется nodeId
+     * @param nodeId    id узла из конфигурации или первой аренды
+     */
+    OrderNumberGenerator(OrderNumberNodeLease nodeLease, int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Order number node id must be in [0, " + MAX_NODE_ID + "]: " + nodeId);
+        }
+        this.nodeLease = nodeLease;
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    /**
+     * @throws IllegalStateException если аренды id узла нет или она кончается раньше миллисекунды номера
+     */
+    public long nextId() {
+        int node = nodeId;
+        long validUntil = Long.MAX_VALUE;
+        if (nodeLease != null) {
+            OrderNumberNodeLease.Grant grant = nodeLease.grant();
+            if (grant == null) {
+                throw new IllegalStateException("Order number node id lease is not held");
+            }
+            node = grant.nodeId();
+            validUntil = grant.validUntil();
+        }
+        long now = clock.getAsLong();
+        long candidate = (now - EPOCH_MILLIS) << SEQUENCE_BITS;
+        // та же миллисекунда или часы назад - следующий номер после последнего выданного
+        long state = lastState.updateAndGet(last -> candidate > last ? candidate : last + 1);
+        long millis = state >>> SEQUENCE_BITS;
+        long sequence = state & ((1L << SEQUENCE_BITS) - 1);
+        long epochMillis = millis + EPOCH_MILLIS;
+        if (epochMillis >= validUntil) {
+            throw new IllegalStateException("Order number node id " + node + " lease ends before "
+                    + Instant.ofEpochMilli(epochMillis));
+        }
+        if (nodeLease != null && epochMillis > now) {
+            nodeLease.borrowed(epochMillis);
+        }
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | ((long) node << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * @return номер заказа для Order.number
+     * @throws IllegalStateException см. nextId
+     */
+    public String nextNumber() {
+        return format(nextId());
+    }
+
+    static String format(long id) {
+        char[] chars = new char[NUMBER_LENGTH];
+        for (int i = NUMBER_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,209 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Аренда id узла для OrderNumberGenerator в Redis: ключ order-number:node:{id} с id инстанса
+ * и TTL order.number.lease-ttl. Свободный id ищется с случайного места (SET NX),
+ * аренда продлевается каждые ttl/3 и снимается при остановке.
+ * <p>
+ * Аренда действует до момента отправки последнего успешного продления плюс TTL (Grant.validUntil):
+ * ключ в Redis истечёт не раньше. Генератор не выдаёт номера с миллисекундой после этого момента,
+ * поэтому, пока Redis недоступен дольше TTL, номера не создаются. Если ключ истёк, аренда берётся
+ * заново на тот же id; если его уже занял другой инстанс - на любой свободный.
+ * <p>
+ * Номера, взятые генератором в долг у будущих миллисекунд, отмечаются в borrowed: при остановке
+ * ключ не удаляется, а доживает до последней такой миллисекунды, чтобы следующий владелец id
+ * не выдал те же номера.
+ */
+@Slf4j
+@Component
+public class OrderNumberNodeLease {
+
+    private static final String KEY_PREFIX = "order-number:node:";
+    private static final Duration ACQUIRE_TIMEOUT = Duration.ofSeconds(10);
+
+    // ARGV: владелец, ttl в миллисекундах
+    private static final RedisScript<Long> RENEW = RedisScript.of("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    // ARGV: владелец, сколько миллисекунд ещё держать id (0 - освободить сразу)
+    private static final RedisScript<Long> RELEASE = RedisScript.of("""
+            if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end
+            if tonumber(ARGV[2]) > 0 then
+                return redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return redis.call('del', KEYS[1])
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final Duration ttl;
+    private final String owner = UUID.randomUUID().toString();
+    // последняя миллисекунда (epoch ms), у которой генератор взял номер в долг
+    private final AtomicLong borrowedUntil = new AtomicLong();
+
+    private volatile int maxNodeId;
+    // последний арендованный id; остаётся и после потери аренды, чтобы попробовать взять его снова
+    private volatile Integer nodeId;
+    // null - аренды сейчас нет
+    private volatile Grant grant;
+    private volatile Disposable renewLoop;
+
+    public OrderNumberNodeLease(ReactiveStringRedisTemplate redisTemplate,
+                                @Value("${order.number.lease-ttl:PT30S}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Берёт свободный id из [0, maxNodeId] и запускает продление аренды. Блокирует до ACQUIRE_TIMEOUT.
+     *
+     * @throws IllegalStateException если свободных id нет
+     */
+    public synchronized int acquire(int maxNodeId) {
+        if (nodeId != null) {
+            return nodeId;
+        }
+        this.maxNodeId = maxNodeId;
+        Integer acquired = acquireFree().block(ACQUIRE_TIMEOUT);
+        if (acquired == null) {
+            throw new IllegalStateException("No free order number node id in Redis");
+        }
+        Duration renewInterval = ttl.dividedBy(3);
+        renewLoop = Flux.interval(renewInterval, renewInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> renew()
+                        .onErrorResume(e -> {
+                            log.warn("Order number node id {} lease renewal failed: {}", nodeId, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+        return acquired;
+    }
+
+    /**
+     * @return действующая аренда или null, если её нет: тогда номера создавать нельзя
+     */
+    public Grant grant() {
+        return grant;
+    }
+
+    /**
+     * Отмечает, что генератор выдал номер с миллисекундой millis (epoch ms) раньше, чем она наступила.
+     */
+    public void borrowed(long millis) {
+        borrowedUntil.accumulateAndGet(millis, Math::max);
+    }
+
+    /**
+     * Продлевает аренду; если ключ истёк, пытается взять тот же id заново, а если его занял
+     * другой инстанс - любой свободный.
+     *
+     * @return true, если у инстанса есть аренда
+     */
+    Mono<Boolean> renew() {
+        Integer id = nodeId;
+        if (id == null) {
+            return Mono.just(false);
+        }
+        long requestedAt = System.currentTimeMillis();
+        return redisTemplate.execute(RENEW, List.of(key(id)), List.of(owner, Long.toString(ttl.toMillis())))
+                .next()
+                .flatMap(renewed -> renewed == 1 ? Mono.just(true) : tryAcquire(id))
+                .flatMap(held -> {
+                    if (held) {
+                        hold(id, requestedAt);
+                        return Mono.just(true);
+                    }
+                    grant = null;
+                    return acquireFree()
+                            .doOnNext(acquired -> log.error("Order number node id {} lease was taken by another instance, "
+                                    + "switched to node id {}", id, acquired))
+                            .map(acquired -> true)
+                            .switchIfEmpty(Mono.fromCallable(() -> {
+                                log.error("Order number node id {} lease was taken by another instance "
+                                        + "and there is no free node id, order numbers are not issued", id);
+                                return false;
+                            }));
+                });
+    }
+
+    @PreDestroy
+    public void release() {
+        if (renewLoop != null) {
+            renewLoop.dispose();
+        }
+        Integer id = nodeId;
+        if (id == null) {
+            return;
+        }
+        grant = null;
+        long keepMillis = Math.max(borrowedUntil.get() - System.currentTimeMillis() + 1, 0);
+        try {
+            redisTemplate.execute(RELEASE, List.of(key(id)), List.of(owner, Long.toString(keepMillis)))
+                    .blockLast(ACQUIRE_TIMEOUT);
+        } catch (RuntimeException e) {
+            // ключ истечёт сам через ttl
+            log.warn("Order number node id {} lease release failed: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Ищет свободный id с случайного места и берёт его.
+     */
+    private Mono<Integer> acquireFree() {
+        int max = maxNodeId;
+        int start = ThreadLocalRandom.current().nextInt(max + 1);
+        return Flux.range(0, max + 1)
+                .map(i -> (start + i) % (max + 1))
+                .concatMap(id -> Mono.fromSupplier(System::currentTimeMillis)
+                        .flatMap(requestedAt -> tryAcquire(id)
+                                .filter(Boolean::booleanValue)
+                                .map(ok -> {
+                                    hold(id, requestedAt);
+                                    return id;
+                                })))
+                .next();
+    }
+
+    /**
+     * @param requestedAt когда отправлен запрос, продливший ключ: от него отсчитывается срок аренды
+     */
+    private void hold(int id, long requestedAt) {
+        nodeId = id;
+        grant = new Grant(id, requestedAt + ttl.toMillis());
+    }
+
+    private Mono<Boolean> tryAcquire(int id) {
+        return redisTemplate.opsForValue().setIfAbsent(key(id), owner, ttl);
+    }
+
+    private static String key(int id) {
+        return KEY_PREFIX + id;
+    }
+
+    /**
+     * @param nodeId     арендованный id узла
+     * @param validUntil epoch ms, до которого ключ аренды точно не истечёт
+     */
+    public record Grant(int nodeId, long validUntil) {
+    }
+}
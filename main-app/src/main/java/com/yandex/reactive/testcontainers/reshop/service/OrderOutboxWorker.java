@@ -0,0 +1,259 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderOutboxEvent;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.OutboxEventType;
+import com.yandex.reactive.testcontainers.reshop.dto.CartCheckout;
+import com.yandex.reactive.testcontainers.reshop.repository.OrderOutboxRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.OrderProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Доделывает оплаченные заказы по событиям order_outbox (см. OrderService.placeOrder):
+ * <ul>
+ *     <li>ORDER_LINES - вставляет строки заказа;</li>
+ *     <li>CART_CHECKOUT - убирает купленное из корзины;</li>
+ *     <li>ORDER_PLACED - публикует OrderPlaced в Redis-канал order.outbox.channel.</li>
+ * </ul>
+ * События забираются пачками по batch-size (см. OrderOutboxRepository), внутри пачки выполняются
+ * параллельно, не больше concurrency сразу. Очередь проверяется раз в poll-interval и сразу после
+ * оформления заказа (wakeUp). Неудавшееся событие повторяется с паузой retry-backoff, удваивающейся
+ * до max-retry-backoff; после max-attempts попыток оно остаётся в таблице с last_error для разбора.
+ * <p>
+ * Строки заказа и изменение корзины выполняются в одной транзакции с удалением события, т.е. ровно
+ * один раз: событие удаляется первым, и если его уже завершил другой обработчик, действие пропускается.
+ * Корзина в Redis (cart.storage=redis) в MySQL-транзакции не участвует: купленное снимется повторно,
+ * только если коммит не удался уже после изменения хеша. Уведомление - не в транзакции, поэтому при
+ * сбое между публикацией и удалением события оно повторится (at-least-once).
+ * <p>
+ * Метрики: order.outbox.completed и order.outbox.failed с тегом type.
+ */
+@Slf4j
+@Service
+public class OrderOutboxWorker {
+
+    private static final TypeReference<List<OrderProduct>> ORDER_LINES = new TypeReference<>() {
+    };
+    private static final int MAX_ERROR_LENGTH = 512;
+
+    private final OrderOutboxRepository orderOutboxRepository;
+    private final OrderProductRepository orderProductRepository;
+    private final CartService cartService;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final TransactionalOperator transactionalOperator;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration pollInterval;
+    private final int batchSize;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Duration lease;
+    private final Duration retryBackoff;
+    private final Duration maxRetryBackoff;
+    private final String channel;
+
+    // сигналы "появились события"; без подписчика (воркер выключен) просто теряются
+    private final Sinks.Many<Long> wakeUps = Sinks.many().multicast().directBestEffort();
+    private volatile Disposable workerLoop;
+
+    public OrderOutboxWorker(OrderOutboxRepository orderOutboxRepository,
+                             OrderProductRepository orderProductRepository,
+                             CartService cartService,
+                             ReactiveStringRedisTemplate redisTemplate,
+                             TransactionalOperator transactionalOperator,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${order.outbox.enabled:true}") boolean enabled,
+                             @Value("${order.outbox.poll-interval:PT1S}") Duration pollInterval,
+                             @Value("${order.outbox.batch-size:50}") int batchSize,
+                             @Value("${order.outbox.concurrency:4}") int concurrency,
+                             @Value("${order.outbox.max-attempts:10}") int maxAttempts,
+                             @Value("${order.outbox.lease:PT1M}") Duration lease,
+                             @Value("${order.outbox.retry-backoff:PT1S}") Duration retryBackoff,
+                             @Value("${order.outbox.max-retry-backoff:PT5M}") Duration maxRetryBackoff,
+                             @Value("${order.outbox.channel:order:placed}") String channel) {
+        this.orderOutboxRepository = orderOutboxRepository;
+        this.orderProductRepository = orderProductRepository;
+        this.cartService = cartService;
+        this.redisTemplate = redisTemplate;
+        this.transactionalOperator = transactionalOperator;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.pollInterval = pollInterval;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.lease = lease;
+        this.retryBackoff = retryBackoff;
+        this.maxRetryBackoff = maxRetryBackoff;
+        this.channel = channel;
+    }
+
+    /**
+     * Просит проверить очередь, не дожидаясь poll-interval. Вызывается после коммита заказа.
+     */
+    public void wakeUp() {
+        wakeUps.tryEmitNext(System.nanoTime());
+    }
+
+    /**
+     * Один проход: пачки подряд, пока очередная не окажется неполной.
+     *
+     * @return число обработанных событий (и успешных, и отложенных)
+     */
+    public Mono<Long> drain() {
+        return drainBatch()
+                .expand(processed -> processed == batchSize ? drainBatch() : Mono.empty())
+                .reduce(0L, Long::sum)
+                .doOnNext(processed -> {
+                    if (processed > 0) {
+                        log.debug("Order outbox processed {} events", processed);
+                    }
+                });
+    }
+
+    /**
+     * Забирает до batchSize событий в короткой транзакции и выполняет их уже вне её.
+     */
+    private Mono<Long> drainBatch() {
+        return Mono.defer(() -> orderOutboxRepository.lockDue(maxAttempts, batchSize)
+                .collectList()
+                .flatMap(events -> events.isEmpty()
+                        ? Mono.just(events)
+                        : orderOutboxRepository.claim(events.stream().map(OrderOutboxEvent::getId).toList(),
+                                lease.toSeconds()).thenReturn(events))
+                .as(transactionalOperator::transactional)
+                .flatMap(events -> Flux.fromIterable(events)
+                        .flatMap(this::process, concurrency)
+                        .then(Mono.just((long) events.size()))));
+    }
+
+    private Mono<Void> process(OrderOutboxEvent event) {
+        // claim уже засчитал эту попытку в БД, в прочитанной строке её ещё нет
+        int attempt = event.getAttempts() + 1;
+        return Mono.defer(() -> handle(event))
+                .doOnSuccess(ignored -> {
+                    log.debug("Outbox event {} ({}) of order {} completed",
+                            event.getId(), event.getEventType(), event.getOrderId());
+                    meterRegistry.counter("order.outbox.completed", "type", event.getEventType()).increment();
+                })
+                .onErrorResume(e -> retryLater(event, attempt, e));
+    }
+
+    private Mono<Void> handle(OrderOutboxEvent event) {
+        return switch (OutboxEventType.valueOf(event.getEventType())) {
+            case ORDER_LINES -> insertLines(event);
+            case CART_CHECKOUT -> removePurchased(event);
+            case ORDER_PLACED -> publishPlaced(event);
+        };
+    }
+
+    /**
+     * Событие удаляется первым: если его уже завершил другой обработчик (истекла аренда),
+     * удалять нечего и строки не вставляются повторно.
+     */
+    private Mono<Void> insertLines(OrderOutboxEvent event) {
+        return Mono.fromCallable(() -> objectMapper.readValue(event.getPayload(), ORDER_LINES))
+                .flatMap(lines -> orderOutboxRepository.complete(event.getId())
+                        .flatMap(completed -> completed > 0
+                                ? orderProductRepository.insertLines(event.getOrderId(), lines)
+                                : Mono.just(0L))
+                        .as(transactionalOperator::transactional))
+                .then();
+    }
+
+    /**
+     * Как insertLines: событие удаляется первым, в той же транзакции. Конфликт с параллельным
+     * изменением корзины откатывает транзакцию целиком, и она повторяется (CartService.CONFLICT_RETRY).
+     */
+    private Mono<Void> removePurchased(OrderOutboxEvent event) {
+        return Mono.fromCallable(() -> objectMapper.readValue(event.getPayload(), CartCheckout.class))
+                .flatMap(checkout -> Mono.defer(() -> orderOutboxRepository.complete(event.getId())
+                                .flatMap(completed -> completed > 0
+                                        ? cartService.removePurchased(checkout.cartId(), checkout.userId(),
+                                        checkout.quantities())
+                                        : Mono.<Void>empty())
+                                .as(transactionalOperator::transactional))
+                        .retryWhen(CartService.CONFLICT_RETRY))
+                .then();
+    }
+
+    private Mono<Void> publishPlaced(OrderOutboxEvent event) {
+        return redisTemplate.convertAndSend(channel, event.getPayload())
+                .doOnNext(receivers -> log.debug("Order {} placed, notified {} receivers", event.getOrderId(), receivers))
+                .then(Mono.defer(() -> orderOutboxRepository.complete(event.getId())))
+                .then();
+    }
+
+    private Mono<Void> retryLater(OrderOutboxEvent event, int attempt, Throwable e) {
+        meterRegistry.counter("order.outbox.failed", "type", event.getEventType()).increment();
+        Duration delay = backoff(retryBackoff, maxRetryBackoff, attempt);
+        if (attempt >= maxAttempts) {
+            log.error("Outbox event {} ({}) of order {} failed {} times, giving up: {}",
+                    event.getId(), event.getEventType(), event.getOrderId(), attempt, e.getMessage());
+        } else {
+            log.warn("Outbox event {} ({}) of order {} failed, attempt {} of {}, retry in {}: {}",
+                    event.getId(), event.getEventType(), event.getOrderId(), attempt, maxAttempts, delay, e.getMessage());
+        }
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        return orderOutboxRepository.reschedule(event.getId(), delay.toMillis(),
+                        error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error)
+                // не удалось даже отложить - событие вернётся в работу, когда истечёт аренда
+                .onErrorResume(rescheduleError -> {
+                    log.error("Cannot reschedule outbox event {}: {}", event.getId(), rescheduleError.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Пауза перед попыткой attempt + 1: base, 2 * base, 4 * base ..., но не больше max.
+     */
+    static Duration backoff(Duration base, Duration max, int attempt) {
+        Duration delay = base.multipliedBy(1L << Math.min(Math.max(attempt - 1, 0), 30));
+        return delay.compareTo(max) > 0 ? max : delay;
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void startWorkerLoop() {
+        if (!enabled) {
+            log.info("Order outbox worker is disabled");
+            return;
+        }
+        workerLoop = Flux.merge(Flux.interval(pollInterval, pollInterval), wakeUps.asFlux())
+                .onBackpressureDrop()
+                // за время прохода копится не больше одного сигнала: следующий проход подберёт всё сразу
+                .concatMap(tick -> drain()
+                        .onErrorResume(e -> {
+                            log.error("Order outbox worker failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopWorkerLoop() {
+        if (workerLoop != null) {
+            workerLoop.dispose();
+        }
+    }
+}
@@ -4,16 +4,11 @@ import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
 import com.yandex.reactive.testcontainers.reshop.exception.PaymentException;
 import com.yandex.reactive.testcontainers.reshop.exception.ResourceNotFoundException;
 import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
-import com.yandex.reactive.testcontainers.reshop.repository.OrderProductRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -21,81 +16,74 @@ public class OrderProcessingService {
 
     private final OrderService orderService;
     private final CartService cartService;
-    private final ProductService productService;
-    private final OrderProductRepository orderProductRepository;
     private final CartProductRepository cartProductRepository;
     private final PaymentClientService paymentClientService;
+    private final OrderNumberGenerator orderNumberGenerator;
+    private final OrderOutboxWorker orderOutboxWorker;
 
     public OrderProcessingService(OrderService orderService,
                                   CartService cartService,
-                                  ProductService productService,
-                                  OrderProductRepository orderProductRepository,
                                   CartProductRepository cartProductRepository,
-                                  PaymentClientService paymentClientService) {
+                                  PaymentClientService paymentClientService,
+                                  OrderNumberGenerator orderNumberGenerator,
+                                  OrderOutboxWorker orderOutboxWorker) {
         this.orderService = orderService;
         this.cartService = cartService;
-        this.productService = productService;
-        this.orderProductRepository = orderProductRepository;
         this.cartProductRepository = cartProductRepository;
         this.paymentClientService = paymentClientService;
+        this.orderNumberGenerator = orderNumberGenerator;
+        this.orderOutboxWorker = orderOutboxWorker;
     }
 
     /**
      * Обрабатывает заказ
-     * - Получает корзину.
-     * - Из join-таблицы (cart_products) получает все записи для корзины. Если корзина пуста – выдаёт ошибку.
-     * - Группирует записи по productId чтобы подсчитать count каждого продукта.
-     * - Загружает unique продукты и устанавливает их count.
-     * - Формирует Order
+     * - Получает корзину и синхронно сохраняет её в MySQL (CartStore.flush).
+     * - Одним запросом cart_products JOIN products получает товары корзины с количеством в count
+     *   и текущими ценами из MySQL. Если корзина пуста – выдаёт ошибку.
+     * - Считает сумму по этим же строкам: оплачивается ровно сумма строк заказа, а не total_price
+     *   корзины (она ведётся дельтами) и не цены из кеша каталога.
+     * - Формирует Order с номером из OrderNumberGenerator (без обращения к БД). Номер создаётся
+     *   до оплаты: если генератор не может его выдать (нет аренды id узла), заказ не оплачивается.
      * - Делает rest call в payment с помощью PaymentClientService.
-     * - Сохраняет заказ (в OrderService после сохранения вставляются записи в order_products).
-     * - Очищает корзину.
+     * - Сохраняет заказ вместе с событиями outbox (OrderService.placeOrder) и будит OrderOutboxWorker.
+     *   Строки order_products, удаление купленного из корзины и уведомление выполняются уже в фоне,
+     *   ответ покупателю ждёт только оплату и запись заказа.
      */
     public Mono<Order> processOrder() {
         return cartService.getCart()
+                // корзина могла жить в Redis - сохраняем её в MySQL до чтения строк
+                .flatMap(cart -> cartService.flush(cart).thenReturn(cart))
                 .flatMap(cart ->
-                        cartProductRepository.findByCartId(cart.getId())  // use cartProductRepository here
+                        cartProductRepository.findProductsInCart(cart.getId())
                                 .collectList()
-                                .flatMap(cartProducts -> {
-                                    if (cartProducts.isEmpty()) {
+                                .flatMap(products -> {
+                                    if (products.isEmpty()) {
                                         log.warn("Cart is empty, cannot process order");
                                         return Mono.error(new ResourceNotFoundException("Cart is empty"));
                                     }
-                                    Map<Long, Integer> counts = cartProducts.stream()
-                                            .collect(Collectors.groupingBy(
-                                                    cp -> cp.getProductId(),
-                                                    Collectors.summingInt(cp -> 1)
-                                            ));
-                                    List<Long> productIds = cartProducts.stream()
-                                            .map(cp -> cp.getProductId())
-                                            .distinct()
-                                            .collect(Collectors.toList());
-                                    return Flux.fromIterable(productIds)
-                                            .flatMap(productService::findById)
-                                            .collectList()
-                                            .map(products -> {
-                                                products.forEach(p -> p.setCount(counts.getOrDefault(p.getId(), 0)));
-                                                return products;
-                                            })
-                                            .flatMap(products -> {
-                                                log.debug("Products retrieved: {}, with counts: {}", products, counts);
+                                    double totalSum = products.stream()
+                                            .mapToDouble(product -> product.getPrice() * product.getCount())
+                                            .sum();
+                                    return Mono.fromCallable(orderNumberGenerator::nextNumber)
+                                            .flatMap(number -> {
+                                                log.debug("Products in cart: {}, total: {}", products, totalSum);
                                                 Order order = new Order();
                                                 order.setUserId(cart.getUserId());
                                                 order.setProducts(products);
-                                                order.setTotalSum(cart.getTotalPrice());
+                                                order.setTotalSum(totalSum);
                                                 order.setOrderDate(LocalDateTime.now());
+                                                order.setNumber(number);
                                                 log.debug("Call remote payment service before saving order");
-                                                return paymentClientService.makePayment(String.valueOf(cart.getUserId()), cart.getTotalPrice())
+                                                return paymentClientService.makePayment(String.valueOf(cart.getUserId()), totalSum)
                                                         .flatMap(paymentSuccess -> {
                                                             if (!paymentSuccess) {
                                                                 log.error("Payment failed");
                                                                 return Mono.error(new PaymentException("Payment failed due to processing error."));
                                                             }
                                                             log.debug("Payment service response: {}", paymentSuccess);
-                                                            return orderService.save(order)
-                                                                    .flatMap(savedOrder ->
-                                                                            cartService.clearCart().thenReturn(savedOrder)
-                                                                    );
+                                                            // заказ приходит после коммита транзакции, события outbox уже видны воркеру
+                                                            return orderService.placeOrder(order, cart.getId())
+                                                                    .doOnNext(savedOrder -> orderOutboxWorker.wakeUp());
                                                         });
                                             });
                                 })
@@ -1,18 +1,29 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderOutboxEvent;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.OutboxEventType;
+import com.yandex.reactive.testcontainers.reshop.dto.CartCheckout;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderCursor;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderLine;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderPlaced;
 import com.yandex.reactive.testcontainers.reshop.exception.ResourceNotFoundException;
+import com.yandex.reactive.testcontainers.reshop.repository.OrderOutboxRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.OrderProductRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.OrderRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.UserRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -23,32 +34,40 @@ public class OrderService {
 
     private final OrderRepository orderRepository;
     private final OrderProductRepository orderProductRepository;
-    private final ProductService productService;
     private final UserRepository userRepository;
+    private final OrderOutboxRepository orderOutboxRepository;
+    private final ObjectMapper objectMapper;
 
     public OrderService(OrderRepository orderRepository,
-                        OrderProductRepository orderProductRepository, ProductService productService, UserRepository userRepository) {
+                        OrderProductRepository orderProductRepository, UserRepository userRepository,
+                        OrderOutboxRepository orderOutboxRepository, ObjectMapper objectMapper) {
         this.orderRepository = orderRepository;
         this.orderProductRepository = orderProductRepository;
-        this.productService = productService;
         this.userRepository = userRepository;
+        this.orderOutboxRepository = orderOutboxRepository;
+        this.objectMapper = objectMapper;
     }
 
     /**
-     * Находит заказы для пользователя по его username.
+     * Находит страницу заказов для пользователя по его username.
      * Сначала достаёт User из БД, потом ищет по его id.
      */
-    public Flux<Order>  findOrdersForUsername(String username) {
+    public Flux<Order> findOrdersForUsername(String username, OrderCursor after, int limit) {
         return userRepository.findByUsername(username)
-                .flatMapMany(user -> findOrdersForUser(user.getId()));
+                .flatMapMany(user -> findOrdersForUser(user.getId(), after, limit));
     }
 
     /**
-     * retrieve orders for current user.
+     * Страница заказов пользователя от новых к старым.
+     *
+     * @param after последний заказ предыдущей страницы или null для первой страницы
+     * @param limit сколько заказов вернуть
      */
-    public Flux<Order> findOrdersForUser(Long userId) {
-        log.debug("Retrieving orders for user with id: {}", userId);
-        return orderRepository.findByUserId(userId);
+    public Flux<Order> findOrdersForUser(Long userId, OrderCursor after, int limit) {
+        log.debug("Retrieving {} orders for user with id: {} after {}", limit, userId, after);
+        return after == null
+                ? orderRepository.findFirstPageByUserId(userId, limit)
+                : orderRepository.findPageByUserIdAfter(userId, after.orderDate(), after.id(), limit);
     }
 
     public Mono<Order> findById(Long id) {
@@ -68,10 +87,13 @@ public class OrderService {
 
     /**
      * Сохраняет заказ и регистрирует связи с продуктами в таблице order_products.
+     * Строки заказа (по одной на товар, с количеством и снимком цены и названия) вставляются пакетно,
+     * заказ и его строки пишутся в одной транзакции.
      *
-     * @param order заказ с заполненным списком продуктов (order.getProducts())
+     * @param order заказ с заполненным списком продуктов (order.getProducts(), count - количество единиц)
      * @return Mono<Order> с сохранённым заказом
      */
+    @Transactional
     public Mono<Order> save(Order order) {
         log.info("Saving order: {}", order);
         return orderRepository.save(order)
@@ -81,17 +103,51 @@ public class OrderService {
                     if (products == null || products.isEmpty()) {
                         return Mono.just(savedOrder);
                     }
-                    // Для каждого продукта сохраняем запись в таблице order_products
-                    return Flux.fromIterable(products)
-                            .flatMap(product ->
-                                    orderProductRepository.save(
-                                            new OrderProduct(null, savedOrder.getId(), product.getId())
-                                    )
-                            )
-                            .then(Mono.just(savedOrder));
+                    List<OrderProduct> lines = products.stream()
+                            .map(product -> OrderProduct.snapshot(savedOrder.getId(), product))
+                            .toList();
+                    return orderProductRepository.insertLines(savedOrder.getId(), lines)
+                            .doOnNext(inserted -> log.debug("Inserted {} order lines for order {}", inserted, savedOrder.getId()))
+                            .thenReturn(savedOrder);
                 });
     }
 
+    /**
+     * Сохраняет оплаченный заказ без строк: в одной транзакции с заказом в order_outbox пишется
+     * оставшаяся работа - вставка строк (ORDER_LINES), удаление купленного из корзины cartId
+     * (CART_CHECKOUT) и уведомление о заказе (ORDER_PLACED). Её выполняет OrderOutboxWorker,
+     * так что ответ покупателю не ждёт ни строк, ни корзины.
+     *
+     * @param order заказ с заполненным списком продуктов (count - количество единиц)
+     * @return сохранённый заказ (products - те же, что переданы)
+     */
+    @Transactional
+    public Mono<Order> placeOrder(Order order, Long cartId) {
+        log.info("Placing order: {}", order);
+        return orderRepository.save(order)
+                .flatMap(savedOrder -> Mono.fromCallable(() -> outboxEvents(savedOrder, cartId))
+                        .flatMap(events -> orderOutboxRepository.saveAll(events).count())
+                        .doOnNext(count -> log.debug("Recorded {} outbox events for order {}", count, savedOrder.getId()))
+                        .thenReturn(savedOrder));
+    }
+
+    private List<OrderOutboxEvent> outboxEvents(Order order, Long cartId) throws JsonProcessingException {
+        List<Product> products = order.getProducts() != null ? order.getProducts() : List.of();
+        List<OrderProduct> lines = products.stream()
+                .map(product -> OrderProduct.snapshot(order.getId(), product))
+                .toList();
+        Map<Long, Integer> quantities = lines.stream()
+                .collect(Collectors.toMap(OrderProduct::getProductId, OrderProduct::getQuantity, Integer::sum));
+        OrderPlaced placed = new OrderPlaced(order.getId(), order.getNumber(), order.getUserId(), order.getTotalSum());
+        return List.of(
+                OrderOutboxEvent.of(order.getId(), OutboxEventType.ORDER_LINES.name(),
+                        objectMapper.writeValueAsString(lines)),
+                OrderOutboxEvent.of(order.getId(), OutboxEventType.CART_CHECKOUT.name(),
+                        objectMapper.writeValueAsString(new CartCheckout(cartId, order.getUserId(), quantities))),
+                OrderOutboxEvent.of(order.getId(), OutboxEventType.ORDER_PLACED.name(),
+                        objectMapper.writeValueAsString(placed)));
+    }
+
     public Mono<Void> deleteById(Long id) {
         log.info("Deleting order with id: {}", id);
         return orderRepository.deleteById(id)
@@ -100,7 +156,8 @@ public class OrderService {
 
     /**
      * Рассчитывает итоговую сумму заказа.
-     * Умножает цену каждого продукта на его count и суммирует.
+     * Умножает цену каждого продукта на его count и суммирует. Для прочитанного заказа
+     * это цены из снимка строк, т.е. сумма на момент покупки.
      *
      * @param order с заполненным списком продуктов
      * @return итоговая сумма
@@ -114,42 +171,35 @@ public class OrderService {
     }
 
     /**
-     * Фетчит уникальные продукты и их количество.
-     * Работает синхронно.
+     * Заполняет products у всех заказов списка одним запросом строк order_products,
+     * так что число запросов не зависит от длины истории. Товар в заказе - снимок на момент покупки:
+     * цена, название и картинка из строки заказа, count - количество единиц.
      *
-     * @param products исходный список продуктов
-     * @return список уникальных продуктов с установленным количеством
+     * @return те же заказы в том же порядке
      */
-    public List<Product> groupProductsWithCounts(List<Product> products) {
-        if (products == null) {
-            log.error("Grouping 0 products (products list is null)");
+    public Mono<List<Order>> attachProducts(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return Mono.just(orders);
         }
-        log.debug("Grouping {} products", products.size());
-        Map<Long, Integer> productCounts = products.stream()
-                .collect(Collectors.groupingBy(Product::getId, Collectors.summingInt(p -> 1)));
-        return products.stream()
-                .collect(Collectors.toMap(
-                        Product::getId,
-                        p -> p,
-                        (p1, p2) -> p1
-                ))
-                .values().stream()
-                .peek(p -> p.setCount(productCounts.getOrDefault(p.getId(), 0)))
-                .collect(Collectors.toList());
+        List<Long> orderIds = orders.stream().map(Order::getId).toList();
+        return orderProductRepository.findLinesByOrderIds(orderIds)
+                .collectMultimap(OrderLine::orderId, OrderLine::product)
+                .map(productsByOrder -> {
+                    log.debug("Loaded order lines for {} orders", orders.size());
+                    orders.forEach(order -> order.setProducts(
+                            new ArrayList<>(productsByOrder.getOrDefault(order.getId(), List.of()))));
+                    return orders;
+                });
     }
 
+    /**
+     * Заказ со строками из снимка (см. attachProducts), без обращений к каталогу.
+     */
     public Mono<Order> findByIdWithProducts(Long id) {
         return orderRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Order with id [" + id + "] not found")))
-                .flatMap(order ->
-                        orderProductRepository.findByOrderId(order.getId())
-                                .flatMap(op -> productService.findById(op.getProductId()))
-                                .collectList()
-                                .map(products -> {
-                                    order.setProducts(products);
-                                    return order;
-                                })
-                );
+                .flatMap(order -> attachProducts(List.of(order)))
+                .map(List::getFirst);
     }
 }
 
@@ -0,0 +1,93 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import java.util.List;
+
+/**
+ * Строковая колонка, упакованная в один char-буфер: строка i занимает [offsets[i], offsets[i + 1]).
+ * null хранится как отрицательное смещение конца.
+ */
+final class PackedStrings {
+
+    private final char[] chars;
+    private final int[] offsets;
+
+    private PackedStrings(char[] chars, int[] offsets) {
+        this.chars = chars;
+        this.offsets = offsets;
+    }
+
+    static PackedStrings of(List<String> values) {
+        int total = values.stream().mapToInt(v -> v != null ? v.length() : 0).sum();
+        char[] chars = new char[total];
+        int[] offsets = new int[values.size() + 1];
+        int cursor = 0;
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            if (value != null) {
+                value.getChars(0, value.length(), chars, cursor);
+                cursor += value.length();
+                offsets[i + 1] = cursor;
+            } else {
+                offsets[i + 1] = -cursor - 1;
+            }
+        }
+        return new PackedStrings(chars, offsets);
+    }
+
+    int size() {
+        return offsets.length - 1;
+    }
+
+    String get(int i) {
+        int end = offsets[i + 1];
+        if (end < 0) {
+            return null;
+        }
+        int start = decode(offsets[i]);
+        return new String(chars, start, end - start);
+    }
+
+    /**
+     * Первые maxLength символов строки i без копирования всей строки (не разрывая суррогатную пару).
+     */
+    String prefix(int i, int maxLength) {
+        int end = offsets[i + 1];
+        if (end < 0) {
+            return null;
+        }
+        int start = decode(offsets[i]);
+        if (end - start > maxLength) {
+            end = start + maxLength;
+            if (Character.isHighSurrogate(chars[end - 1])) {
+                end--;
+            }
+        }
+        return new String(chars, start, end - start);
+    }
+
+    /**
+     * Проверяет вхождение подстроки без материализации строки i.
+     */
+    boolean contains(int i, String needle) {
+        int end = offsets[i + 1];
+        if (end < 0) {
+            return false;
+        }
+        int start = decode(offsets[i]);
+        int last = end - needle.length();
+        outer:
+        for (int from = start; from <= last; from++) {
+            for (int k = 0; k < needle.length(); k++) {
+                if (chars[from + k] != needle.charAt(k)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int decode(int offset) {
+        return offset < 0 ? -offset - 1 : offset;
+    }
+}
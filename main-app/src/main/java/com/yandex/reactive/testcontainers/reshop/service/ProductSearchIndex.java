@@ -0,0 +1,142 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Инвертированный триграммный индекс по name и description снимка каталога.
+ * <p>
+ * Для каждой триграммы (3 символа в нижнем регистре) хранится отсортированный
+ * posting list позиций товаров. Поиск подстроки длиной от 3 символов пересекает
+ * posting lists её триграмм и проверяет только оставшихся кандидатов, поэтому
+ * время поиска зависит от числа совпадений, а не от размера каталога.
+ * Более короткие запросы проверяются перебором.
+ * <p>
+ * Индекс неизменяем и строится вместе с CatalogSnapshot, так что при обновлении
+ * каталога он подменяется атомарно вместе со снимком.
+ */
+final class ProductSearchIndex {
+
+    private static final int GRAM = 3;
+    // name и description индексируются как одна строка; разделитель не может прийти из запроса
+    private static final char FIELD_SEPARATOR = '\u0000';
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final PackedStrings texts;
+    private final Map<Long, int[]> postings;
+
+    private ProductSearchIndex(PackedStrings texts, Map<Long, int[]> postings) {
+        this.texts = texts;
+        this.postings = postings;
+    }
+
+    static ProductSearchIndex build(PackedStrings names, PackedStrings descriptions) {
+        int size = names.size();
+        List<String> lowerCased = new ArrayList<>(size);
+        Map<Long, IntList> building = new HashMap<>();
+        for (int pos = 0; pos < size; pos++) {
+            String text = normalize(names.get(pos)) + FIELD_SEPARATOR + normalize(descriptions.get(pos));
+            lowerCased.add(text);
+            for (long gram : grams(text)) {
+                // позиции обходятся по возрастанию, поэтому списки получаются отсортированными
+                building.computeIfAbsent(gram, g -> new IntList()).addIfLast(pos);
+            }
+        }
+        Map<Long, int[]> postings = new HashMap<>(building.size() * 2);
+        building.forEach((gram, list) -> postings.put(gram, list.toArray()));
+        return new ProductSearchIndex(PackedStrings.of(lowerCased), postings);
+    }
+
+    /**
+     * @param query строка поиска (регистр не важен)
+     * @return позиции товаров, у которых name или description содержит query, по возрастанию
+     */
+    int[] search(String query) {
+        String needle = normalize(query);
+        if (needle.isEmpty() || needle.indexOf(FIELD_SEPARATOR) >= 0) {
+            return NO_POSITIONS;
+        }
+        if (needle.length() < GRAM) {
+            return IntStream.range(0, texts.size())
+                    .filter(pos -> texts.contains(pos, needle))
+                    .toArray();
+        }
+
+        List<int[]> lists = new ArrayList<>();
+        for (long gram : grams(needle)) {
+            int[] list = postings.get(gram);
+            if (list == null) {
+                return NO_POSITIONS;
+            }
+            lists.add(list);
+        }
+        // пересекаем начиная с самого короткого списка
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+        // совпадение всех триграмм необходимо, но не достаточно
+        return Arrays.stream(candidates)
+                .filter(pos -> texts.contains(pos, needle))
+                .toArray();
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<Long> grams(String text) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return grams;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void addIfLast(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
+import com.yandex.reactive.testcontainers.reshop.cache.MultiGetCache;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
 import com.yandex.reactive.testcontainers.reshop.domain.enums.ProductSort;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
 import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.annotation.Cacheable;
@@ -9,83 +12,100 @@ import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Service
 public class ProductService {
 
     private final ProductRepository productRepository;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final MultiGetCache multiGetCache;
     // Количество товаров в одном ряду плитки (может быть вынесено в конфигурацию)
     private static final int ITEMS_PER_ROW = 3;
 
-    public ProductService(ProductRepository productRepository) {
+    public ProductService(ProductRepository productRepository,
+                          CatalogSnapshotService catalogSnapshotService,
+                          MultiGetCache multiGetCache) {
         this.productRepository = productRepository;
+        this.catalogSnapshotService = catalogSnapshotService;
+        this.multiGetCache = multiGetCache;
     }
 
     /**
      * Searches for products considering search, sorting, and pagination.
-     * Реализована сортировка с помощью оператора Flux.sort() и пагинация через skip() и take().
+     * Если загружен снимок каталога (CatalogSnapshotService), страница отдаётся из памяти,
+     * иначе сортировка и пагинация выполняются в MySQL (ORDER BY ... LIMIT).
+     * Если передан keyset-курсор, страница начинается сразу после него и pageNumber
+     * используется только для отображения; без курсора страница вычисляется через OFFSET.
      *
      * @param search     search string for name or description
      * @param sort       "NO" (no sorting), "ALPHA" (by name), "PRICE" (by price)
      * @param pageNumber page number (1-based)
      * @param pageSize   page size
-     * @return Flux<Product> – поток найденных продуктов
+     * @param cursor     keyset-курсор (последний товар предыдущей страницы), может быть null
+     * @return Flux<ProductTile> – поток плиток найденных продуктов (без полного описания)
      *
-     * Caches the product lists: the cache key is a combination of the parameters.
+     * Caches the product lists only while the snapshot is not loaded (fallback):
+     * the cache key is a combination of the parameters.
+     * Префикс tiles в ключе отделяет страницы плиток от прежних записей со списками Product.
+     * sync = true: concurrent misses on the same key share one DB query (see NearCache).
      */
     @Cacheable(cacheNames = "products",
-            key = "#root.methodName + ':' + #search + ':' + #sort + ':' + #pageNumber + ':' + #pageSize")
-    public Flux<Product> getProducts(String search, String sort, int pageNumber, int pageSize) {
-        log.debug("Empty cache, Fetching products with search: '{}', sort: '{}', pageNumber: {}, pageSize: {}",
-                search, sort, pageNumber, pageSize);
-
-        // Определяем тип сортировки по строке
+            key = "#root.methodName + ':tiles:' + #search + ':' + #sort + ':' + #pageNumber + ':' + #pageSize + ':' + #cursor",
+            condition = "!@catalogSnapshotService.ready",
+            sync = true)
+    public Flux<ProductTile> getProducts(String search, String sort, int pageNumber, int pageSize, String cursor) {
         ProductSort sortType = ProductSort.from(sort);
-        Comparator<Product> comparator = null;
-        switch (sortType) {
-            case ALPHA:
-                comparator = Comparator.comparing(Product::getName);
-                break;
-            case PRICE:
-                comparator = Comparator.comparingDouble(Product::getPrice);
-                break;
-            default:
-                // NO сортировки
-                break;
-        }
+        ProductCursor after = ProductCursor.decode(cursor);
 
-        Flux<Product> productFlux;
-        if (search == null || search.trim().isEmpty()) {
-            // Если поиск не указан, получаем все продукты
-            productFlux = productRepository.findAll();
-        } else {
-            productFlux = productRepository.findByNameContainingIgnoreCaseOrDescriptionContainingIgnoreCase(search, search);
-        }
-        // Если компаратор не null, выполняем сортировку
-        if (comparator != null) {
-            productFlux = productFlux.sort(comparator);
+        CatalogSnapshot snapshot = catalogSnapshotService.current();
+        if (snapshot != null) {
+            return Flux.fromIterable(snapshot.page(search, sortType, pageNumber, pageSize, after));
         }
-        // Реализуем пагинацию через skip и take.
-        return productFlux
-                .skip((pageNumber - 1L) * pageSize)
-                .take(pageSize);
+
+        log.debug("Empty cache, Fetching products with search: '{}', sort: '{}', pageNumber: {}, pageSize: {}, cursor: {}",
+                search, sort, pageNumber, pageSize, cursor);
+        String pattern = (search == null || search.trim().isEmpty()) ? null : "%" + escapeLike(search.trim()) + "%";
+        // с курсором offset не нужен: условие по ключу сортировки само отсекает предыдущие страницы
+        long offset = after != null ? 0 : Math.max(pageNumber - 1L, 0) * pageSize;
+        Long lastId = after != null ? after.id() : null;
+
+        return switch (sortType) {
+            case ALPHA -> productRepository.findPageOrderByName(
+                    pattern, after != null ? after.name() : null, lastId, pageSize, offset);
+            case PRICE -> productRepository.findPageOrderByPrice(
+                    pattern, after != null ? after.price() : null, lastId, pageSize, offset);
+            default -> productRepository.findPageOrderById(pattern, lastId, pageSize, offset);
+        };
+    }
+
+    /**
+     * Экранирует спецсимволы LIKE, чтобы пользовательский ввод искался как есть.
+     */
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
     }
 
     /**
      * Splits the list of products into groups of ITEMS_PER_ROW for tile display.
      *
-     * @param productsFlux Flux of products
-     * @return Mono<List < List < Product>>> – список рядов, где каждый ряд — это список товаров
+     * @param productsFlux Flux of products (or product tiles)
+     * @return Mono<List < List < T>>> – список рядов, где каждый ряд — это список товаров
      */
-    public Mono<List<List<Product>>> groupProducts(Flux<Product> productsFlux) {
+    public <T> Mono<List<List<T>>> groupProducts(Flux<T> productsFlux) {
         return productsFlux
                 .collectList()
                 .map(products -> {
                     log.debug("Grouping {} products into rows of {} items each", products.size(), ITEMS_PER_ROW);
-                    List<List<Product>> grouped = new java.util.ArrayList<>();
+                    List<List<T>> grouped = new java.util.ArrayList<>();
                     for (int i = 0; i < products.size(); i += ITEMS_PER_ROW) {
                         grouped.add(new java.util.ArrayList<>(products.subList(i, Math.min(i + ITEMS_PER_ROW, products.size()))));
                     }
@@ -94,9 +114,56 @@ public class ProductService {
                 });
     }
 
-    @Cacheable(cacheNames = "products", key = "#id")
+    @Cacheable(cacheNames = "products", key = "#id", condition = "!@catalogSnapshotService.ready", sync = true)
     public Mono<Product> findById(Long id) {
+        CatalogSnapshot snapshot = catalogSnapshotService.current();
+        if (snapshot != null) {
+            return Mono.justOrEmpty(snapshot.findById(id));
+        }
         log.debug("Empty CACHE, Searching for product with id: {}", id);
         return productRepository.findById(id);
     }
+
+    /**
+     * Загружает сразу несколько товаров (корзина, заказ) вместо findById на каждую позицию.
+     * Порядок: снимок каталога, затем кеш products (L1 и один MGET по тем же ключам, что у findById),
+     * затем один SELECT ... WHERE id IN (...) по промахам с записью их в кеш одним пайплайном.
+     *
+     * @return товары по id; несуществующие id в результат не попадают
+     */
+    public Mono<Map<Long, Product>> findAllByIds(Collection<Long> ids) {
+        Set<Long> distinctIds = new LinkedHashSet<>(ids);
+        if (distinctIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        CatalogSnapshot snapshot = catalogSnapshotService.current();
+        if (snapshot != null) {
+            Map<Long, Product> found = new HashMap<>();
+            for (Long id : distinctIds) {
+                Product product = snapshot.findById(id);
+                if (product != null) {
+                    found.put(id, product);
+                }
+            }
+            return Mono.just(found);
+        }
+        return multiGetCache.<Long, Product>getAll("products", distinctIds)
+                .flatMap(cached -> {
+                    List<Long> misses = distinctIds.stream()
+                            .filter(id -> !cached.containsKey(id))
+                            .toList();
+                    log.debug("findAllByIds: {} ids, {} from cache, {} from DB", distinctIds.size(), cached.size(), misses.size());
+                    if (misses.isEmpty()) {
+                        return Mono.just(cached);
+                    }
+                    return productRepository.findAllById(misses)
+                            .collectMap(Product::getId)
+                            .flatMap(loaded -> multiGetCache.putAll("products", loaded)
+                                    .then(Mono.fromSupplier(() -> {
+                                        Map<Long, Product> all = new HashMap<>(cached);
+                                        all.putAll(loaded);
+                                        return all;
+                                    })));
+                });
+    }
 }
@@ -0,0 +1,146 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Счётчики просмотров карточек товаров в Redis (ZSET на каждый день).
+ * <p>
+ * Просмотры сначала копятся в памяти инстанса и раз в flush-interval уходят в Redis
+ * одной пачкой: по ZINCRBY на товар с накопленным числом и один EXPIRE, а не команда на
+ * каждый просмотр. Если Redis недоступен, счётчики возвращаются в память до следующего сброса;
+ * при остановке инстанса несброшенные просмотры теряются - для прогрева это допустимо.
+ * <p>
+ * "Недавние" просмотры - за сегодня и вчера, более старые ключи удаляются по TTL.
+ * Используется прогревом кеша при старте (CatalogWarmupRunner).
+ */
+@Slf4j
+@Service
+public class ProductViewStats {
+
+    private static final String KEY_PREFIX = "stats:product-views:";
+    private static final Duration KEY_TTL = Duration.ofDays(2);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final Clock clock;
+    private final Duration flushInterval;
+
+    // просмотры, ещё не отправленные в Redis: id товара -> число
+    private final ConcurrentMap<Long, Long> pending = new ConcurrentHashMap<>();
+    private volatile Disposable flushLoop;
+
+    @Autowired
+    public ProductViewStats(ReactiveStringRedisTemplate redisTemplate,
+                            @Value("${stats.product-views.flush-interval:PT10S}") Duration flushInterval) {
+        this(redisTemplate, Clock.systemUTC(), flushInterval);
+    }
+
+    ProductViewStats(ReactiveStringRedisTemplate redisTemplate, Clock clock, Duration flushInterval) {
+        this.redisTemplate = redisTemplate;
+        this.clock = clock;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Только увеличивает счётчик в памяти: статистика не должна задерживать или ломать показ карточки.
+     */
+    public void recordView(Long productId) {
+        pending.merge(productId, 1L, Long::sum);
+    }
+
+    /**
+     * Отправляет накопленные просмотры в ZSET текущего дня.
+     *
+     * @return число товаров, счётчики которых были отправлены
+     */
+    public Mono<Integer> flush() {
+        if (pending.isEmpty()) {
+            return Mono.just(0);
+        }
+        // remove атомарен: просмотры, пришедшие после него, попадут в новую запись и следующий сброс
+        Map<Long, Long> batch = new HashMap<>();
+        for (Long productId : pending.keySet()) {
+            Long views = pending.remove(productId);
+            if (views != null) {
+                batch.put(productId, views);
+            }
+        }
+        String key = keyFor(LocalDate.now(clock));
+        return Flux.fromIterable(batch.entrySet())
+                .flatMap(entry -> redisTemplate.opsForZSet()
+                        .incrementScore(key, String.valueOf(entry.getKey()), entry.getValue()))
+                .then(redisTemplate.expire(key, KEY_TTL))
+                .thenReturn(batch.size())
+                .onErrorResume(e -> {
+                    // ZINCRBY могли частично пройти - лучше изредка посчитать просмотр дважды, чем потерять пачку
+                    batch.forEach((productId, views) -> pending.merge(productId, views, Long::sum));
+                    log.debug("Failed to flush views of {} products, will retry: {}", batch.size(), e.getMessage());
+                    return Mono.just(0);
+                });
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void startFlushLoop() {
+        flushLoop = Flux.interval(flushInterval, flushInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flush())
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopFlushLoop() {
+        if (flushLoop != null) {
+            flushLoop.dispose();
+        }
+    }
+
+    /**
+     * @return id самых просматриваемых товаров за сегодня и вчера, по убыванию просмотров
+     */
+    public Flux<Long> topViewed(int limit) {
+        if (limit <= 0) {
+            return Flux.empty();
+        }
+        LocalDate today = LocalDate.now(clock);
+        return Flux.just(keyFor(today), keyFor(today.minusDays(1)))
+                .flatMap(key -> redisTemplate.opsForZSet()
+                        .reverseRangeWithScores(key, Range.closed(0L, (long) limit - 1)))
+                .collect(Collectors.toMap(ZSetOperations.TypedTuple::getValue,
+                        tuple -> tuple.getScore() != null ? tuple.getScore() : 0.0,
+                        Double::sum))
+                .flatMapMany(scores -> {
+                    List<Long> top = scores.entrySet().stream()
+                            .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                            .limit(limit)
+                            .map(entry -> Long.valueOf(entry.getKey()))
+                            .toList();
+                    return Flux.fromIterable(top);
+                });
+    }
+
+    private static String keyFor(LocalDate day) {
+        return KEY_PREFIX + day;
+    }
+}
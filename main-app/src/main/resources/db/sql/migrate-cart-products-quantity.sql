@@ -0,0 +1,19 @@
+-- Переход cart_products на одну строку на (cart_id, product_id) с колонкой quantity.
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+USE reshop;
+
+ALTER TABLE cart_products ADD COLUMN quantity INT NOT NULL DEFAULT 1;
+
+-- в строке с минимальным id для каждой пары сохраняем количество всех дублей
+UPDATE cart_products cp
+    JOIN (SELECT MIN(id) AS id, COUNT(*) AS units
+          FROM cart_products
+          GROUP BY cart_id, product_id) grouped ON cp.id = grouped.id
+SET cp.quantity = grouped.units;
+
+-- остальные строки пары больше не нужны
+DELETE cp FROM cart_products cp
+    JOIN cart_products kept
+        ON kept.cart_id = cp.cart_id AND kept.product_id = cp.product_id AND kept.id < cp.id;
+
+ALTER TABLE cart_products ADD UNIQUE KEY uk_cart_products_cart_product (cart_id, product_id);
@@ -0,0 +1,6 @@
+-- Ревизия Redis-хеша корзины, записанная в MySQL последней (см. RedisCartStore, cart.storage=redis).
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+USE reshop;
+
+ALTER TABLE carts
+    ADD COLUMN redis_revision BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,8 @@
+-- Время последнего изменения корзины для очистки брошенных корзин (см. CartReaper).
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+-- Существующие корзины получают текущее время, т.е. считаются изменёнными в момент миграции.
+USE reshop;
+
+ALTER TABLE carts
+    ADD COLUMN updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    ADD INDEX idx_carts_updated_at (updated_at);
@@ -0,0 +1,5 @@
+-- Версия корзины для оптимистической блокировки (см. CartRepository).
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+USE reshop;
+
+ALTER TABLE carts ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,17 @@
+-- Таблица outbox для асинхронного завершения заказа (см. OrderOutboxWorker).
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+USE reshop;
+
+CREATE TABLE IF NOT EXISTS order_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    -- ORDER_LINES, CART_CHECKOUT, ORDER_PLACED (см. OrderOutboxWorker)
+    event_type VARCHAR(32) NOT NULL,
+    payload TEXT NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    -- событие берётся в работу не раньше этого времени: при захвате сдвигается на срок аренды, при ошибке - на паузу повтора
+    next_attempt_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    last_error VARCHAR(512),
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    INDEX idx_order_outbox_next_attempt (next_attempt_at)
+);
@@ -0,0 +1,31 @@
+-- Переход order_products на одну строку на (order_id, product_id) с количеством
+-- и снимком цены, названия и картинки товара.
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+-- Для старых заказов цена и название берутся из текущего каталога: исторических значений в БД нет.
+USE reshop;
+
+ALTER TABLE order_products
+    ADD COLUMN quantity INT NOT NULL DEFAULT 1,
+    ADD COLUMN unit_price DOUBLE NULL,
+    ADD COLUMN name VARCHAR(255) NULL,
+    ADD COLUMN img_path VARCHAR(255) NULL;
+
+-- в строке с минимальным id для каждой пары сохраняем количество всех дублей
+UPDATE order_products op
+    JOIN (SELECT MIN(id) AS id, COUNT(*) AS units
+          FROM order_products
+          GROUP BY order_id, product_id) grouped ON op.id = grouped.id
+SET op.quantity = grouped.units;
+
+-- остальные строки пары больше не нужны
+DELETE op FROM order_products op
+    JOIN order_products kept
+        ON kept.order_id = op.order_id AND kept.product_id = op.product_id AND kept.id < op.id;
+
+UPDATE order_products op
+    JOIN products p ON p.id = op.product_id
+SET op.unit_price = p.price, op.name = p.name, op.img_path = p.img_path;
+
+ALTER TABLE order_products
+    MODIFY COLUMN unit_price DOUBLE NOT NULL,
+    MODIFY COLUMN name VARCHAR(255) NOT NULL;
@@ -0,0 +1,6 @@
+-- Уникальный индекс номера заказа (см. OrderNumberGenerator).
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+-- У старых заказов номера нет (NULL), уникальный индекс это допускает.
+USE reshop;
+
+CREATE UNIQUE INDEX uk_orders_number ON orders (number);
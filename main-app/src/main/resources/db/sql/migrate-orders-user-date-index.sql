@@ -0,0 +1,5 @@
+-- Индекс для keyset-пагинации истории заказов (см. OrderRepository).
+-- Выполняется один раз на существующей БД до запуска новой версии приложения.
+USE reshop;
+
+CREATE INDEX idx_orders_user_date ON orders (user_id, order_date, id);
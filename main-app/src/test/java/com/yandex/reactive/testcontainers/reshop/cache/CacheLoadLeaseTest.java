@@ -0,0 +1,97 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheLoadLeaseTest {
+
+    @SuppressWarnings("unchecked")
+    private final ReactiveValueOperations<String, String> valueOperations = mock(ReactiveValueOperations.class);
+    private final ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+    private final CacheLoadLease underTest =
+            new CacheLoadLease(redisTemplate, Duration.ofSeconds(1), Duration.ofMillis(10));
+
+    CacheLoadLeaseTest() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(redisTemplate.execute(any(), anyList(), anyList())).thenReturn(Flux.just(1L));
+    }
+
+    @Test
+    void testLeaseHolderLoadsAndReleases() throws Exception {
+        when(valueOperations.setIfAbsent(eq("lease:products::1"), anyString(), any(Duration.class)))
+                .thenReturn(Mono.just(true));
+
+        String value = underTest.load("products::1",
+                () -> CompletableFuture.completedFuture("from-db"),
+                Mono::empty).get(5, TimeUnit.SECONDS);
+
+        assertThat(value).isEqualTo("from-db");
+        verify(redisTemplate).execute(any(), anyList(), anyList());
+    }
+
+    @Test
+    void testLeaseIsHeldUntilLoaderStoresValue() throws Exception {
+        when(valueOperations.setIfAbsent(eq("lease:products::1"), anyString(), any(Duration.class)))
+                .thenReturn(Mono.just(true));
+        // loader завершается только после записи значения в Redis
+        CompletableFuture<String> stored = new CompletableFuture<>();
+
+        CompletableFuture<String> value = underTest.load("products::1", () -> stored, Mono::empty);
+
+        // пока значения нет в Redis, аренду не отдаём: иначе другой инстанс загрузит ключ ещё раз
+        verify(redisTemplate, never()).execute(any(), anyList(), anyList());
+        stored.complete("from-db");
+        assertThat(value.get(5, TimeUnit.SECONDS)).isEqualTo("from-db");
+        verify(redisTemplate).execute(any(), anyList(), anyList());
+    }
+
+    @Test
+    void testOtherNodeWaitsForValueInsteadOfLoading() throws Exception {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenReturn(Mono.just(false));
+        AtomicInteger polls = new AtomicInteger();
+        AtomicInteger loads = new AtomicInteger();
+
+        String value = underTest.<String>load("products::1",
+                () -> {
+                    loads.incrementAndGet();
+                    return CompletableFuture.completedFuture("from-db");
+                },
+                () -> polls.incrementAndGet() < 3 ? Mono.empty() : Mono.just(Optional.of("from-redis"))
+        ).get(5, TimeUnit.SECONDS);
+
+        assertThat(value).isEqualTo("from-redis");
+        assertThat(loads).hasValue(0);
+    }
+
+    @Test
+    void testLoadsLocallyWhenRedisIsUnavailable() throws Exception {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenReturn(Mono.error(new IllegalStateException("connection refused")));
+
+        String value = underTest.load("products::1",
+                () -> CompletableFuture.completedFuture("from-db"),
+                Mono::empty).get(5, TimeUnit.SECONDS);
+
+        assertThat(value).isEqualTo("from-db");
+    }
+}
@@ -0,0 +1,65 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveStringCommands;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MultiGetCacheTest {
+
+    private final ProductCacheSerializer serializer = new ProductCacheSerializer(Integer.MAX_VALUE);
+    private final ReactiveStringCommands stringCommands = mock(ReactiveStringCommands.class);
+    private MultiGetCache underTest;
+
+    @BeforeEach
+    void setUp() {
+        RedisCache redisCache = mock(RedisCache.class);
+        when(redisCache.getCacheConfiguration()).thenReturn(RedisCacheConfiguration.defaultCacheConfig()
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(serializer)));
+        RedisCacheManager redisCacheManager = mock(RedisCacheManager.class);
+        when(redisCacheManager.getCache("products")).thenReturn(redisCache);
+
+        ReactiveRedisConnection connection = mock(ReactiveRedisConnection.class);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(connection.closeLater()).thenReturn(Mono.empty());
+        ReactiveRedisConnectionFactory connectionFactory = mock(ReactiveRedisConnectionFactory.class);
+        when(connectionFactory.getReactiveConnection()).thenReturn(connection);
+
+        underTest = new MultiGetCache(mock(CacheManager.class), redisCacheManager, connectionFactory);
+    }
+
+    @Test
+    void testCachedNullAndBrokenEntryDoNotHideOtherKeys() {
+        var product = new Product(1L, "Кепка", 10.0, "Летняя кепка", "img1", 0);
+        // так @Cacheable хранит пустой результат: JDK-сериализованный NullValue, мимо сериализатора значений
+        var cachedNull = ByteBuffer.wrap(RedisSerializer.java().serialize(NullValue.INSTANCE));
+        var broken = ByteBuffer.wrap(new byte[]{ProductCacheSerializer.VERSION, 0x0E, 1, 2});
+        when(stringCommands.mGet(anyList())).thenReturn(Mono.just(Arrays.asList(
+                ByteBuffer.wrap(serializer.serialize(product)), cachedNull, broken, null)));
+
+        Map<Long, Product> found = underTest.<Long, Product>getAll("products", List.of(1L, 2L, 3L, 4L)).block();
+
+        assertThat(found).containsOnlyKeys(1L);
+        assertThat(found.get(1L).getName()).isEqualTo("Кепка");
+    }
+}
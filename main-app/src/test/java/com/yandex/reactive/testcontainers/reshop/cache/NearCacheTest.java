@@ -0,0 +1,245 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+
+class NearCacheTest {
+
+    private final Cache remote = spy(new ConcurrentMapCache("products"));
+    private final CacheInvalidationBus bus = mock(CacheInvalidationBus.class);
+    private final CacheWriteTimeReader writeTimeReader = mock(CacheWriteTimeReader.class);
+    private final NearCache underTest = new NearCache(remote,
+            Caffeine.newBuilder().maximumWeight(1_000_000).weigher(new CacheWeigher()).build(),
+            bus,
+            null,
+            Duration.ofMinutes(5),
+            writeTimeReader,
+            Schedulers.boundedElastic());
+
+    @BeforeEach
+    void setUp() {
+        when(writeTimeReader.writtenAt(any(), any())).thenReturn(CompletableFuture.completedFuture(System.currentTimeMillis()));
+    }
+
+    @Test
+    void testSecondReadIsServedLocally() {
+        remote.put(1L, new Product(1L, "Кепка", 10.0, "Летняя кепка", "img1", 0));
+
+        assertThat(underTest.get(1L).get()).extracting("name").isEqualTo("Кепка");
+        assertThat(underTest.get(1L).get()).extracting("name").isEqualTo("Кепка");
+
+        verify(remote, times(1)).get(1L);
+    }
+
+    @Test
+    void testRetrieveCachesRemoteHitAndNullValue() throws Exception {
+        remote.put("page", "value");
+
+        assertThat(underTest.retrieve("page").get()).isInstanceOf(Cache.ValueWrapper.class);
+        Object localHit = underTest.retrieve("page").get();
+        assertThat(((Cache.ValueWrapper) localHit).get()).isEqualTo("value");
+        verify(remote, times(1)).retrieve("page");
+
+        // пустой Mono кешируется как null и тоже отдаётся из L1
+        CompletableFuture<Object> loaded = underTest.retrieve(42L, () -> CompletableFuture.completedFuture(null));
+        assertThat(loaded.get()).isNull();
+        assertThat(((Cache.ValueWrapper) underTest.retrieve(42L).get()).get()).isNull();
+        verify(remote, never()).retrieve(42L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLeaseIsReleasedOnlyAfterValueIsStoredInRedis() throws Exception {
+        var redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        var valueOperations = (ReactiveValueOperations<String, String>) mock(ReactiveValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("lease:products::page"), any(), any(Duration.class)))
+                .thenReturn(Mono.just(true));
+        CompletableFuture<Boolean> storedBeforeRelease = new CompletableFuture<>();
+        when(redisTemplate.execute(any(), anyList(), anyList())).thenAnswer(invocation -> {
+            storedBeforeRelease.complete(remote.get("page") != null);
+            return Flux.just(1L);
+        });
+        var leased = new NearCache(remote, Caffeine.newBuilder().maximumSize(100).build(), bus,
+                new CacheLoadLease(redisTemplate, Duration.ofSeconds(1), Duration.ofMillis(10)),
+                null, null, null);
+
+        assertThat(leased.retrieve("page", () -> CompletableFuture.completedFuture("fresh")).get(5, TimeUnit.SECONDS))
+                .isEqualTo("fresh");
+
+        // аренда снимается асинхронно, дожидаемся её снятия
+        assertThat(storedBeforeRelease.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void testConcurrentMissesShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        Supplier<CompletableFuture<String>> loader = () -> {
+            loads.incrementAndGet();
+            return pending;
+        };
+
+        CompletableFuture<String> first = underTest.retrieve("page", loader);
+        CompletableFuture<String> second = underTest.retrieve("page", loader);
+        pending.complete("value");
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        assertThat(loads).hasValue(1);
+        // после загрузки значение уже в L1, новых загрузок нет
+        assertThat(underTest.retrieve("page", loader).get()).isEqualTo("value");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void testFailedLoadIsNotCachedAndCanBeRetried() throws Exception {
+        CompletableFuture<String> failed = underTest.retrieve("page",
+                () -> CompletableFuture.failedFuture(new IllegalStateException("db down")));
+
+        assertThat(failed).failsWithin(5, TimeUnit.SECONDS);
+        assertThat(underTest.retrieve("page", () -> CompletableFuture.completedFuture("value"))
+                .get(5, TimeUnit.SECONDS)).isEqualTo("value");
+    }
+
+    @Test
+    void testStaleEntryIsServedAndRefreshedInBackground() throws Exception {
+        long sixMinutesAgo = System.currentTimeMillis() - Duration.ofMinutes(6).toMillis();
+        remote.put("page", "stale");
+        when(writeTimeReader.writtenAt("products", "page")).thenReturn(CompletableFuture.completedFuture(sixMinutesAgo));
+
+        CompletableFuture<String> result = underTest.retrieve("page", () -> CompletableFuture.completedFuture("fresh"));
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("stale");
+        verify(bus, timeout(5000)).publish("products", "page");
+        assertThat(remote.get("page").get()).isEqualTo("fresh");
+    }
+
+    @Test
+    void testRefreshedValueIsStoredOnRefreshScheduler() throws Exception {
+        var refreshScheduler = Schedulers.newSingle("cache-refresh");
+        var loaderThread = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "reactor-tcp-nio"));
+        var nearCache = new NearCache(remote, Caffeine.newBuilder().build(), bus, null, Duration.ofMinutes(5),
+                writeTimeReader, refreshScheduler);
+        var putThread = new CompletableFuture<String>();
+        doAnswer(invocation -> {
+            putThread.complete(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(remote).put(eq("page"), eq("fresh"));
+        long sixMinutesAgo = System.currentTimeMillis() - Duration.ofMinutes(6).toMillis();
+        remote.put("page", "stale");
+        when(writeTimeReader.writtenAt("products", "page")).thenReturn(CompletableFuture.completedFuture(sixMinutesAgo));
+
+        try {
+            // загрузчик, как R2DBC, завершается на потоке драйвера
+            nearCache.retrieve("page", () -> CompletableFuture.supplyAsync(() -> "fresh", loaderThread))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertThat(putThread.get(5, TimeUnit.SECONDS)).startsWith("cache-refresh");
+        } finally {
+            refreshScheduler.dispose();
+            loaderThread.shutdown();
+        }
+    }
+
+    @Test
+    void testStaleEntryIsKeptWhenRefreshFails() throws Exception {
+        long sixMinutesAgo = System.currentTimeMillis() - Duration.ofMinutes(6).toMillis();
+        remote.put("page", "stale");
+        when(writeTimeReader.writtenAt("products", "page")).thenReturn(CompletableFuture.completedFuture(sixMinutesAgo));
+
+        CompletableFuture<String> result = underTest.retrieve("page",
+                () -> CompletableFuture.failedFuture(new IllegalStateException("db down")));
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("stale");
+        verify(bus, after(200).never()).publish(any(), any());
+        assertThat(remote.get("page").get()).isEqualTo("stale");
+    }
+
+    @Test
+    void testFreshOrLoadedEntryIsNotRefreshed() throws Exception {
+        remote.put("page", "cached");
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(underTest.retrieve("page", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("fresh");
+        }).get(5, TimeUnit.SECONDS)).isEqualTo("cached");
+        // только что загруженное значение время записи не проверяет
+        assertThat(underTest.retrieve("other", () -> CompletableFuture.completedFuture("loaded"))
+                .get(5, TimeUnit.SECONDS)).isEqualTo("loaded");
+
+        verify(writeTimeReader, timeout(5000)).writtenAt("products", "page");
+        verify(writeTimeReader, never()).writtenAt("products", "other");
+        assertThat(loads).hasValue(0);
+    }
+
+    @Test
+    void testEvictDropsLocalEntryAndNotifiesOtherNodes() {
+        underTest.put(1L, "old");
+
+        underTest.evict(1L);
+
+        assertThat(underTest.get(1L)).isNull();
+        // первая рассылка - запись ключа, которого не было в L1
+        verify(bus, times(2)).publish("products", "1");
+    }
+
+    @Test
+    void testOnlyReplacingPutNotifiesOtherNodes() {
+        // в L1 записи нет - у соседей может быть старое значение
+        underTest.put(1L, "value");
+        verify(bus, times(1)).publish("products", "1");
+
+        // повторная запись того же значения и putIfAbsent соседям не рассылаются
+        underTest.put(1L, "value");
+        underTest.putIfAbsent(2L, "other");
+        verify(bus, times(1)).publish(any(), any());
+
+        underTest.put(1L, "changed");
+        verify(bus, times(2)).publish("products", "1");
+        // решение принимается по L1, Redis при записи не читается
+        verify(remote, never()).get(1L);
+    }
+
+    @Test
+    void testRemoteInvalidationDropsOnlyLocalCopy() {
+        underTest.put(1L, "value");
+
+        underTest.evictLocal(NearCache.localKey(1L));
+
+        // значение по-прежнему в Redis, следующий get сходит туда
+        assertThat(underTest.get(1L).get()).isEqualTo("value");
+        verify(remote, times(1)).get(1L);
+    }
+}
@@ -0,0 +1,81 @@
+package com.yandex.reactive.testcontainers.reshop.cache;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProductCacheSerializerTest {
+
+    private final ProductCacheSerializer underTest = new ProductCacheSerializer(256);
+
+    @Test
+    void testProductRoundTripKeepsNullFields() {
+        Product product = new Product(7L, "Кепка", 10.5, null, "img7", 0);
+
+        long before = System.currentTimeMillis();
+        byte[] bytes = underTest.serialize(product);
+
+        assertThat(bytes[0]).isEqualTo(ProductCacheSerializer.VERSION);
+        assertThat(underTest.deserialize(bytes)).isEqualTo(product);
+        // время записи читается по одному заголовку
+        assertThat(ProductCacheSerializer.writtenAt(Arrays.copyOf(bytes, ProductCacheSerializer.HEADER)))
+                .isGreaterThanOrEqualTo(before);
+    }
+
+    @Test
+    void testLargePageIsCompressedAndRestored() {
+        List<Product> page = new ArrayList<>();
+        for (long id = 1; id <= 50; id++) {
+            page.add(new Product(id, "Товар " + id, id, "Одинаковое длинное описание товара", "img", 0));
+        }
+
+        byte[] compressed = underTest.serialize(page);
+        byte[] raw = new ProductCacheSerializer(Integer.MAX_VALUE).serialize(page);
+
+        assertThat(compressed.length).isLessThan(raw.length);
+        assertThat(underTest.deserialize(compressed)).isEqualTo(page);
+        assertThat(underTest.deserialize(raw)).isEqualTo(page);
+    }
+
+    @Test
+    void testTilePageRoundTrip() {
+        List<ProductTile> page = List.of(
+                new ProductTile(1L, "Кеды", 70.0, "Белые", "img1"),
+                new ProductTile(2L, "Кепка", 10.5, null, null)
+        );
+
+        assertThat(underTest.deserialize(underTest.serialize(page))).isEqualTo(page);
+    }
+
+    @Test
+    void testNullValueAndLegacyJsonAreSupported() {
+        assertThat(underTest.deserialize(underTest.serialize(NullValue.INSTANCE))).isSameAs(NullValue.INSTANCE);
+
+        // запись, сохранённая прежним JSON-сериализатором
+        byte[] legacy = new GenericJackson2JsonRedisSerializer()
+                .serialize(new ArrayList<>(List.of(new Product(1L, "Кеды", 70.0, "Белые", "img1", 0))));
+        assertThat(ProductCacheSerializer.writtenAt(legacy)).isZero(); // время записи неизвестно - запись считается устаревшей
+        assertThat(underTest.deserialize(legacy))
+                .asList()
+                .extracting("name")
+                .containsExactly("Кеды");
+    }
+
+    @Test
+    void testCorruptedValueIsRejected() {
+        byte[] bytes = underTest.serialize(new Product(1L, "Кеды", 70.0, "Белые", "img1", 0));
+
+        assertThatThrownBy(() -> underTest.deserialize(Arrays.copyOf(bytes, bytes.length - 3)))
+                .isInstanceOf(SerializationException.class);
+    }
+}
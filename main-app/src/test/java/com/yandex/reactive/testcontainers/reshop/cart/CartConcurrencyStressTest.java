@@ -0,0 +1,153 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.yandex.reactive.testcontainers.reshop.AbstractDaoTest;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.CartAction;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.UserRepository;
+import com.yandex.reactive.testcontainers.reshop.service.CartService;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Нагрузочная проверка одной корзины: одиночные клики и пакетные изменения идут параллельно
+ * (как двойные клики и несколько вкладок). Считаются пропускная способность и потерянные
+ * обновления - разница между успешно применёнными единицами и тем, что оказалось в корзине.
+ */
+class CartConcurrencyStressTest extends AbstractDaoTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CartConcurrencyStressTest.class);
+
+    private static final int OPERATIONS = 400;
+    private static final int CONCURRENCY = 32;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private CartProductRepository cartProductRepository;
+
+    @Autowired
+    private GuestCartStore guestCartStore;
+
+    @Test
+    void testConcurrentClicksAndBatchesLoseNoUpdates() {
+        var user = userRepository.save(User.builder()
+                .username("stressuser")
+                .password("password")
+                .email("stressuser@example.com")
+                .build()).block();
+        var shoes = productRepository.save(new Product(null, "Stress shoes", 10.0, "stress", "img", 0)).block();
+        var cap = productRepository.save(new Product(null, "Stress cap", 2.5, "stress", "img", 0)).block();
+        var auth = new UsernamePasswordAuthenticationToken(user.getUsername(), "password");
+        // корзина создаётся заранее, чтобы гонка была только за её содержимое
+        var cart = cartService.getCartForUser(user.getId()).block();
+
+        var appliedShoes = new AtomicInteger();
+        var appliedCaps = new AtomicInteger();
+        var failed = new AtomicInteger();
+
+        long started = System.nanoTime();
+        Flux.range(0, OPERATIONS)
+                .flatMap(i -> operation(i, shoes, cap, appliedShoes, appliedCaps)
+                        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(auth))
+                        .onErrorResume(e -> {
+                            failed.incrementAndGet();
+                            log.warn("Operation {} failed after retries: {}", i, e.getMessage());
+                            return Mono.empty();
+                        }), CONCURRENCY)
+                .blockLast(Duration.ofMinutes(2));
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        Map<Long, Integer> quantities = cartProductRepository.findByCartId(cart.getId())
+                .collectMap(CartProduct::getProductId, CartProduct::getQuantity)
+                .block();
+        int lostShoes = appliedShoes.get() - quantities.getOrDefault(shoes.getId(), 0);
+        int lostCaps = appliedCaps.get() - quantities.getOrDefault(cap.getId(), 0);
+        double total = cartRepository.findById(cart.getId()).block().getTotalPrice();
+
+        log.info("Cart stress: {} operations in {} s ({} ops/s), failed after retries: {}, lost updates: {}",
+                OPERATIONS, String.format("%.2f", seconds), String.format("%.0f", OPERATIONS / seconds),
+                failed.get(), lostShoes + lostCaps);
+
+        assertThat(lostShoes).isZero();
+        assertThat(lostCaps).isZero();
+        assertThat(total).isEqualTo(quantities.getOrDefault(shoes.getId(), 0) * shoes.getPrice()
+                + quantities.getOrDefault(cap.getId(), 0) * cap.getPrice());
+        // повторы с jitter должны разводить почти все конфликты
+        assertThat(failed.get()).isLessThan(OPERATIONS / 100);
+    }
+
+    @Test
+    void testConcurrentGuestMergesAddItemsOnce() {
+        var user = userRepository.save(User.builder()
+                .username("mergeuser")
+                .password("password")
+                .email("mergeuser@example.com")
+                .build()).block();
+        var shoes = productRepository.save(new Product(null, "Merge shoes", 10.0, "merge", "img", 0)).block();
+        var cart = cartService.getCartForUser(user.getId()).block();
+        guestCartStore.change("guest-merge", shoes.getId(), CartAction.PLUS).block();
+        guestCartStore.change("guest-merge", shoes.getId(), CartAction.PLUS).block();
+
+        // два логина с одним гостевым cookie сливают корзину одновременно
+        Flux.range(0, 2)
+                .flatMap(i -> cartService.mergeGuestCart(cart, "guest-merge").subscribeOn(Schedulers.parallel()))
+                .blockLast(Duration.ofSeconds(30));
+        // повторный логин после слияния ничего не добавляет
+        cartService.mergeGuestCart(cart, "guest-merge").block();
+
+        Map<Long, Integer> quantities = cartProductRepository.findByCartId(cart.getId())
+                .collectMap(CartProduct::getProductId, CartProduct::getQuantity)
+                .block();
+        assertThat(quantities).isEqualTo(Map.of(shoes.getId(), 2));
+        assertThat(cartRepository.findById(cart.getId()).block().getTotalPrice()).isEqualTo(20.0);
+    }
+
+    /**
+     * Чётные операции - клик "+" по кедам, нечётные - пакет "+кеды, +кепка".
+     */
+    private Mono<Void> operation(int i, Product shoes, Product cap,
+                                 AtomicInteger appliedShoes, AtomicInteger appliedCaps) {
+        if (i % 2 == 0) {
+            return cartService.modifyItem(shoes.getId(), "plus")
+                    .doOnSuccess(ignored -> appliedShoes.incrementAndGet());
+        }
+        return cartService.modifyItems(List.of(
+                        new CartItemChange(shoes.getId(), "plus", null),
+                        new CartItemChange(cap.getId(), "plus", null)))
+                .doOnSuccess(ignored -> {
+                    appliedShoes.incrementAndGet();
+                    appliedCaps.incrementAndGet();
+                })
+                .then();
+    }
+}
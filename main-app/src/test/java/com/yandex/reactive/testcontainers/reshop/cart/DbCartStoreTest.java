@@ -0,0 +1,199 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DbCartStoreTest {
+
+    @Mock
+    private CartRepository cartRepository;
+
+    @Mock
+    private CartProductRepository cartProductRepository;
+
+    @InjectMocks
+    private DbCartStore underTest;
+
+    private Cart cart;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        cart = new Cart();
+        cart.setId(200L);
+        cart.setUserId(1L);
+        cart.setTotalPrice(100.0);
+
+        product = new Product(10L, "Test Product", 50.0, "desc", "img", 0);
+    }
+
+    @Test
+    void testAddUpsertsLineAndShiftsTotal() {
+        when(cartProductRepository.incrementQuantity(cart.getId(), product.getId())).thenReturn(Mono.just(1));
+        when(cartRepository.addToTotal(cart.getId(), product.getId(), 1)).thenReturn(Mono.just(1));
+
+        underTest.add(cart, product).block();
+
+        verify(cartProductRepository).incrementQuantity(cart.getId(), product.getId());
+        verify(cartRepository).addToTotal(cart.getId(), product.getId(), 1);
+        // остальные строки корзины не перечитываются
+        verify(cartProductRepository, never()).findByCartId(anyLong());
+    }
+
+    @Test
+    void testRemoveOneDeletesLastUnit() {
+        // уменьшать нечего - в строке одна единица, поэтому строка удаляется
+        when(cartProductRepository.decrementQuantity(cart.getId(), product.getId())).thenReturn(Mono.just(0));
+        when(cartProductRepository.deleteLastUnit(cart.getId(), product.getId())).thenReturn(Mono.just(1));
+        when(cartRepository.addToTotal(cart.getId(), product.getId(), -1)).thenReturn(Mono.just(1));
+
+        underTest.removeOne(cart, product).block();
+
+        verify(cartProductRepository).deleteLastUnit(cart.getId(), product.getId());
+        verify(cartRepository).addToTotal(cart.getId(), product.getId(), -1);
+    }
+
+    @Test
+    void testRemoveOneKeepsLineWithRemainingUnits() {
+        when(cartProductRepository.decrementQuantity(cart.getId(), product.getId())).thenReturn(Mono.just(1));
+        when(cartRepository.addToTotal(cart.getId(), product.getId(), -1)).thenReturn(Mono.just(1));
+
+        underTest.removeOne(cart, product).block();
+
+        verify(cartProductRepository, never()).deleteLastUnit(anyLong(), anyLong());
+        verify(cartRepository).addToTotal(cart.getId(), product.getId(), -1);
+    }
+
+    @Test
+    void testRemoveOneOnMissingLineKeepsTotal() {
+        // строки нет: ни уменьшать, ни удалять нечего
+        when(cartProductRepository.decrementQuantity(cart.getId(), product.getId())).thenReturn(Mono.just(0));
+        when(cartProductRepository.deleteLastUnit(cart.getId(), product.getId())).thenReturn(Mono.just(0));
+
+        underTest.removeOne(cart, product).block();
+
+        verify(cartRepository, never()).addToTotal(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void testRemoveAllSubtractsLineBeforeDeleting() {
+        when(cartRepository.subtractLine(cart.getId(), product.getId())).thenReturn(Mono.just(1));
+        when(cartProductRepository.deleteByCartIdAndProductId(cart.getId(), product.getId())).thenReturn(Mono.just(1));
+
+        underTest.removeAll(cart, product).block();
+
+        var inOrder = inOrder(cartRepository, cartProductRepository);
+        inOrder.verify(cartRepository).subtractLine(cart.getId(), product.getId());
+        inOrder.verify(cartProductRepository).deleteByCartIdAndProductId(cart.getId(), product.getId());
+    }
+
+    @Test
+    void testApplyWritesFoldedLinesAndReconcilesOnce() {
+        cart.setVersion(3L);
+        when(cartRepository.findById(cart.getId())).thenReturn(Mono.just(cart));
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), 10L, 2), new CartProduct(2L, cart.getId(), 11L, 1)));
+        when(cartProductRepository.setQuantity(cart.getId(), 12L, 4)).thenReturn(Mono.just(1));
+        when(cartProductRepository.deleteByCartIdAndProductIdIn(cart.getId(), List.of(11L))).thenReturn(Mono.just(1));
+        when(cartRepository.reconcileTotalIfVersion(cart.getId(), 3L)).thenReturn(Mono.just(1));
+
+        underTest.apply(cart, List.of(
+                new CartItemChange(10L, "plus", null),
+                new CartItemChange(10L, "minus", null),   // в итоге 10L не меняется
+                new CartItemChange(11L, "delete", null),
+                new CartItemChange(12L, null, 4)), Map.of()).block();
+
+        verify(cartProductRepository, times(1)).setQuantity(anyLong(), anyLong(), anyInt());
+        verify(cartProductRepository).deleteByCartIdAndProductIdIn(cart.getId(), List.of(11L));
+        verify(cartRepository, times(1)).reconcileTotalIfVersion(cart.getId(), 3L);
+        verify(cartRepository, never()).addToTotal(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void testApplyWithoutEffectWritesNothing() {
+        cart.setVersion(0L);
+        when(cartRepository.findById(cart.getId())).thenReturn(Mono.just(cart));
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), 10L, 2)));
+
+        underTest.apply(cart, List.of(new CartItemChange(10L, null, 2), new CartItemChange(11L, "minus", null)), Map.of())
+                .block();
+
+        verify(cartProductRepository, never()).setQuantity(anyLong(), anyLong(), anyInt());
+        verify(cartRepository, never()).reconcileTotalIfVersion(anyLong(), anyLong());
+    }
+
+    @Test
+    void testApplyShiftsQuantityByDelta() {
+        cart.setVersion(1L);
+        when(cartRepository.findById(cart.getId())).thenReturn(Mono.just(cart));
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), 10L, 2), new CartProduct(2L, cart.getId(), 11L, 1)));
+        when(cartProductRepository.setQuantity(cart.getId(), 10L, 5)).thenReturn(Mono.just(1));
+        when(cartProductRepository.deleteByCartIdAndProductIdIn(cart.getId(), List.of(11L))).thenReturn(Mono.just(1));
+        when(cartRepository.reconcileTotalIfVersion(cart.getId(), 1L)).thenReturn(Mono.just(1));
+
+        // сдвиг ниже нуля убирает строку
+        underTest.apply(cart, List.of(CartItemChange.delta(10L, 3), CartItemChange.delta(11L, -4)), Map.of()).block();
+
+        verify(cartProductRepository).setQuantity(cart.getId(), 10L, 5);
+        verify(cartProductRepository).deleteByCartIdAndProductIdIn(cart.getId(), List.of(11L));
+    }
+
+    @Test
+    void testApplyFailsWhenCartChangedConcurrently() {
+        cart.setVersion(5L);
+        when(cartRepository.findById(cart.getId())).thenReturn(Mono.just(cart));
+        when(cartProductRepository.findByCartId(cart.getId())).thenReturn(Flux.empty());
+        when(cartProductRepository.setQuantity(cart.getId(), 10L, 1)).thenReturn(Mono.just(1));
+        // версию уже увеличил параллельный клик
+        when(cartRepository.reconcileTotalIfVersion(cart.getId(), 5L)).thenReturn(Mono.just(0));
+
+        assertThatThrownBy(() -> underTest.apply(cart, List.of(new CartItemChange(10L, "plus", null)), Map.of()).block())
+                .isInstanceOf(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void testQuantitiesReadOnlyRequestedLines() {
+        when(cartProductRepository.findByCartIdAndProductIdIn(cart.getId(), List.of(10L, 12L)))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), 10L, 2)));
+
+        assertThat(underTest.quantities(cart, List.of(10L, 12L)).block()).isEqualTo(Map.of(10L, 2));
+        // пустая страница - без запроса
+        assertThat(underTest.quantities(cart, List.of()).block()).isEmpty();
+        verify(cartProductRepository, never()).findByCartId(anyLong());
+    }
+
+    @Test
+    void testContentsReadQuantitiesAndTotal() {
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), 10L, 2), new CartProduct(2L, cart.getId(), 11L, 1)));
+
+        var contents = underTest.contents(cart).block();
+
+        assertThat(contents).isNotNull();
+        assertThat(contents.quantities()).isEqualTo(Map.of(10L, 2, 11L, 1));
+        assertThat(contents.total()).isEqualTo(100.0);
+    }
+}
@@ -0,0 +1,94 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.redis.testcontainers.RedisContainer;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.CartAction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers
+class GuestCartStoreTest {
+
+    @Container
+    static final RedisContainer redisContainer =
+            new RedisContainer(DockerImageName.parse("redis:7.4.2-bookworm"));
+
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveStringRedisTemplate redisTemplate;
+    private GuestCartStore underTest;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisContainer.getHost(), redisContainer.getFirstMappedPort()));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        redisTemplate.execute(connection -> connection.serverCommands().flushAll()).blockLast();
+
+        underTest = new GuestCartStore(redisTemplate, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void testClicksChangeGuestCartWithTtl() {
+        underTest.change("guest-1", 10L, CartAction.PLUS).block();
+        underTest.change("guest-1", 10L, CartAction.PLUS).block();
+        underTest.change("guest-1", 11L, CartAction.PLUS).block();
+        underTest.change("guest-1", 11L, CartAction.MINUS).block();
+        underTest.change("guest-1", 12L, CartAction.MINUS).block();
+
+        assertThat(underTest.contents("guest-1").block()).isEqualTo(Map.of(10L, 2));
+        assertThat(underTest.quantities("guest-1", List.of(10L, 11L)).block()).isEqualTo(Map.of(10L, 2));
+        // у гостевой корзины всегда есть срок жизни
+        var ttl = redisTemplate.getExpire("guest-cart:guest-1").block();
+        assertThat(ttl).isPositive().isLessThanOrEqualTo(Duration.ofHours(1));
+
+        underTest.change("guest-1", 10L, CartAction.DELETE).block();
+        assertThat(underTest.contents("guest-1").block()).isEmpty();
+    }
+
+    @Test
+    void testDeleteRemovesGuestCart() {
+        underTest.change("guest-2", 10L, CartAction.PLUS).block();
+
+        underTest.delete("guest-2").block();
+
+        assertThat(underTest.contents("guest-2").block()).isEmpty();
+        assertThat(underTest.contents("unknown").block()).isEmpty();
+    }
+
+    @Test
+    void testConcurrentTakesClaimGuestCartOnce() {
+        underTest.change("guest-3", 10L, CartAction.PLUS).block();
+        underTest.change("guest-3", 10L, CartAction.PLUS).block();
+        underTest.change("guest-3", 11L, CartAction.PLUS).block();
+
+        // два логина с одним cookie одновременно
+        List<Map<Long, Integer>> taken = Flux.range(0, 2)
+                .flatMap(i -> underTest.take("guest-3").subscribeOn(Schedulers.parallel()))
+                .collectList()
+                .block();
+
+        assertThat(taken).containsExactlyInAnyOrder(Map.of(10L, 2, 11L, 1), Map.of());
+        assertThat(redisTemplate.hasKey("guest-cart:guest-3").block()).isFalse();
+        assertThat(underTest.take("unknown").block()).isEmpty();
+    }
+}
@@ -0,0 +1,226 @@
+package com.yandex.reactive.testcontainers.reshop.cart;
+
+import com.redis.testcontainers.RedisContainer;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.CartItemChange;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@Testcontainers
+@ExtendWith(MockitoExtension.class)
+class RedisCartStoreTest {
+
+    @Container
+    static final RedisContainer redisContainer =
+            new RedisContainer(DockerImageName.parse("redis:7.4.2-bookworm"));
+
+    @Mock
+    private CartRepository cartRepository;
+
+    @Mock
+    private CartProductRepository cartProductRepository;
+
+    @Mock
+    private TransactionalOperator transactionalOperator;
+
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveStringRedisTemplate redisTemplate;
+    private RedisCartStore underTest;
+
+    private Cart cart;
+    private final Product shoes = new Product(10L, "Кеды", 70.0, "Белые", "img10", 0);
+    private final Product cap = new Product(11L, "Кепка", 10.5, "Синяя", "img11", 0);
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisContainer.getHost(), redisContainer.getFirstMappedPort()));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        redisTemplate.execute(connection -> connection.serverCommands().flushAll()).blockLast();
+
+        underTest = new RedisCartStore(redisTemplate, cartRepository, cartProductRepository,
+                transactionalOperator, Duration.ofSeconds(1), 100, Duration.ofMinutes(10));
+
+        cart = new Cart();
+        cart.setId(7L);
+        cart.setUserId(1L);
+        cart.setTotalPrice(70.0);
+        // сумма при загрузке хеша читается из строки carts
+        lenient().when(cartRepository.findById(cart.getId())).thenReturn(Mono.just(cart));
+        // хеш загружается под блокировкой строки carts
+        lenient().when(cartRepository.lockRedisRevision(anyLong())).thenReturn(Mono.just(0L));
+        lenient().when(transactionalOperator.transactional(any(Mono.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void testClicksChangeHashLoadedFromDb() {
+        // в MySQL уже лежит одна пара кед
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), shoes.getId(), 1)));
+
+        underTest.add(cart, shoes).block();
+        underTest.add(cart, cap).block();
+        underTest.add(cart, cap).block();
+        underTest.removeOne(cart, cap).block();
+
+        CartContents contents = underTest.contents(cart).block();
+        assertThat(contents).isNotNull();
+        assertThat(contents.quantities()).isEqualTo(Map.of(shoes.getId(), 2, cap.getId(), 1));
+        assertThat(contents.total()).isEqualTo(150.5);
+        // хеш загружается из БД только один раз
+        verify(cartProductRepository, times(1)).findByCartId(cart.getId());
+
+        // только запрошенные поля хеша, отсутствующего товара в результате нет
+        assertThat(underTest.quantities(cart, List.of(cap.getId(), 99L)).block()).isEqualTo(Map.of(cap.getId(), 1));
+
+        underTest.removeAll(cart, shoes).block();
+        assertThat(underTest.contents(cart).block().quantities()).isEqualTo(Map.of(cap.getId(), 1));
+        assertThat(redisTemplate.opsForSet().isMember(RedisCartStore.DIRTY_KEY, "7").block()).isTrue();
+    }
+
+    @Test
+    void testWriteBehindCoalescesClicksIntoOneWrite() {
+        cart.setTotalPrice(0.0);
+        when(cartProductRepository.findByCartId(cart.getId())).thenReturn(Flux.empty());
+        when(cartProductRepository.setQuantity(anyLong(), anyLong(), anyInt())).thenReturn(Mono.just(1));
+        when(cartProductRepository.deleteByCartIdAndProductIdNotIn(anyLong(), any())).thenReturn(Mono.just(0));
+        when(cartRepository.updateTotalFromRedis(anyLong(), anyDouble(), anyLong())).thenReturn(Mono.just(1));
+
+        for (int i = 0; i < 5; i++) {
+            underTest.add(cart, cap).block();
+        }
+        // пока изменения не записаны, хеш не истекает
+        assertThat(redisTemplate.getExpire("cart:7").block()).isEqualTo(Duration.ZERO);
+
+        assertThat(underTest.flushDirty().block()).isEqualTo(1L);
+        verify(cartProductRepository, times(1)).setQuantity(cart.getId(), cap.getId(), 5);
+        verify(cartProductRepository).deleteByCartIdAndProductIdNotIn(cart.getId(), Set.of(cap.getId()));
+        verify(cartRepository, times(1)).updateTotalFromRedis(cart.getId(), 52.5, 5L);
+        // записанная корзина живёт в Redis не дольше clean-ttl
+        assertThat(redisTemplate.getExpire("cart:7").block()).isPositive();
+
+        // всё записано - следующий проход ничего не делает
+        assertThat(underTest.flushDirty().block()).isZero();
+
+        // новое изменение снимает TTL до следующей записи
+        underTest.add(cart, cap).block();
+        assertThat(redisTemplate.getExpire("cart:7").block()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void testOlderSnapshotDoesNotOverwriteNewerWrite() {
+        when(cartProductRepository.findByCartId(cart.getId())).thenReturn(Flux.empty());
+        // другой инстанс уже записал ревизию 3, а у этого хеш на ревизии 2
+        when(cartRepository.lockRedisRevision(cart.getId())).thenReturn(Mono.just(3L));
+
+        underTest.add(cart, cap).block();
+        underTest.add(cart, cap).block();
+        underTest.flush(cart).block();
+
+        verify(cartProductRepository, never()).setQuantity(anyLong(), anyLong(), anyInt());
+        verify(cartRepository, never()).updateTotalFromRedis(anyLong(), anyDouble(), anyLong());
+    }
+
+    @Test
+    void testExpiredHashIsReloadedWithWrittenRevision() {
+        cart.setRedisRevision(4L);
+        when(cartProductRepository.findByCartId(cart.getId())).thenReturn(Flux.empty());
+
+        underTest.contents(cart).block();
+        // хеш истёк между проверкой и скриптом
+        redisTemplate.delete("cart:7").block();
+        underTest.add(cart, cap).block();
+
+        assertThat(underTest.contents(cart).block().quantities()).isEqualTo(Map.of(cap.getId(), 1));
+        assertThat(redisTemplate.<String, String>opsForHash().get("cart:7", "rev").block()).isEqualTo("5");
+        verify(cartProductRepository, times(2)).findByCartId(cart.getId());
+    }
+
+    @Test
+    void testApplyRunsBatchInOneScript() {
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), shoes.getId(), 1)));
+
+        underTest.apply(cart, List.of(
+                new CartItemChange(shoes.getId(), "plus", null),
+                new CartItemChange(cap.getId(), null, 3),
+                new CartItemChange(cap.getId(), "minus", null),
+                new CartItemChange(shoes.getId(), "delete", null),
+                CartItemChange.delta(cap.getId(), 4),
+                CartItemChange.delta(cap.getId(), -1)), Map.of(shoes.getId(), shoes, cap.getId(), cap))
+                .block();
+
+        CartContents contents = underTest.contents(cart).block();
+        assertThat(contents).isNotNull();
+        assertThat(contents.quantities()).isEqualTo(Map.of(cap.getId(), 5));
+        assertThat(contents.total()).isEqualTo(52.5);
+        assertThat(redisTemplate.opsForSet().isMember(RedisCartStore.DIRTY_KEY, "7").block()).isTrue();
+    }
+
+    @Test
+    void testClearKeepsEmptyLoadedCart() {
+        when(cartProductRepository.findByCartId(cart.getId()))
+                .thenReturn(Flux.just(new CartProduct(1L, cart.getId(), shoes.getId(), 1)));
+        underTest.add(cart, cap).block();
+
+        underTest.clear(cart).block();
+
+        CartContents contents = underTest.contents(cart).block();
+        assertThat(contents).isNotNull();
+        assertThat(contents.isEmpty()).isTrue();
+        assertThat(contents.total()).isZero();
+        // пустой хеш не перезагружается из БД, где строки ещё не удалены
+        verify(cartProductRepository, times(1)).findByCartId(cart.getId());
+    }
+
+    @Test
+    void testEvictKeepsCartsWaitingForWriteBehind() {
+        var idle = new Cart();
+        idle.setId(8L);
+        idle.setUserId(2L);
+        when(cartRepository.findById(idle.getId())).thenReturn(Mono.just(idle));
+        when(cartProductRepository.findByCartId(anyLong())).thenReturn(Flux.empty());
+        underTest.add(cart, cap).block();
+        underTest.contents(idle).block();
+
+        List<Long> evicted = underTest.evict(List.of(cart.getId(), idle.getId())).block();
+
+        // неизменённая корзина забыта, а помеченную ещё нужно записать в MySQL - её очистка пропустит
+        assertThat(evicted).containsExactly(idle.getId());
+        assertThat(redisTemplate.hasKey("cart:8").block()).isFalse();
+        assertThat(redisTemplate.hasKey("cart:7").block()).isTrue();
+    }
+}
@@ -1,13 +1,12 @@
 package com.yandex.reactive.testcontainers.reshop.handler;
 
+import com.yandex.reactive.testcontainers.reshop.cart.CartContents;
 import com.yandex.reactive.testcontainers.reshop.controller.handler.CartHandler;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
-import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
-import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
-import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
 import com.yandex.reactive.testcontainers.reshop.controller.router.CartRouter;
 import com.yandex.reactive.testcontainers.reshop.service.CartService;
+import com.yandex.reactive.testcontainers.reshop.service.ProductService;
 import com.yandex.reactive.testcontainers.reshop.service.PaymentClientService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,9 +16,11 @@ import org.springframework.http.MediaType;
 import org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.reactive.server.WebTestClient;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Map;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
@@ -34,10 +35,7 @@ public class CartFunctionalEndpointTest {
     private CartService cartService;
 
     @MockitoBean
-    private CartProductRepository cartProductRepository;
-
-    @MockitoBean
-    private ProductRepository productRepository;
+    private ProductService productService;
 
     @MockitoBean
     private PaymentClientService paymentClientService;
@@ -68,15 +66,12 @@ public class CartFunctionalEndpointTest {
         cart.setUserId(1L);
         when(cartService.getCart()).thenReturn(Mono.just(cart));
 
-        // Two entries for product 100 so that count is 2
-        var cp1 = new CartProduct(1L, 1L, 100L);
-        var cp2 = new CartProduct(2L, 1L, 100L);
-        when(cartProductRepository.findByCartId(1L))
-                .thenReturn(Flux.just(cp1, cp2));
+        when(cartService.getContents(cart))
+                .thenReturn(Mono.just(new CartContents(Map.of(100L, 2), cart.getTotalPrice())));
 
         // Return a Product for id=100
         var product = new Product(100L, "Product A", 10.0, "Description A", "imgA.jpg", 0);
-        when(productRepository.findById(100L)).thenReturn(Mono.just(product));
+        when(productService.findAllByIds(Set.of(100L))).thenReturn(Mono.just(Map.of(100L, product)));
 
         // Payment check returns true for both health and balance
         when(paymentClientService.healthCheck()).thenReturn(Mono.just(true));
@@ -111,11 +106,11 @@ public class CartFunctionalEndpointTest {
         cart.setUserId(1L);
         when(cartService.getCart()).thenReturn(Mono.just(cart));
 
-        var cp = new CartProduct(1L, 1L, 200L);
-        when(cartProductRepository.findByCartId(1L)).thenReturn(Flux.just(cp));
+        when(cartService.getContents(cart))
+                .thenReturn(Mono.just(new CartContents(Map.of(200L, 1), cart.getTotalPrice())));
 
         var product = new Product(200L, "Expensive Product", 150.0, "Description B", "imgB.jpg", 0);
-        when(productRepository.findById(200L)).thenReturn(Mono.just(product));
+        when(productService.findAllByIds(Set.of(200L))).thenReturn(Mono.just(Map.of(200L, product)));
 
         // Payment check returns healthy but insufficient funds.
         when(paymentClientService.healthCheck()).thenReturn(Mono.just(true));
@@ -150,11 +145,11 @@ public class CartFunctionalEndpointTest {
         cart.setUserId(1L);
         when(cartService.getCart()).thenReturn(Mono.just(cart));
 
-        var cp = new CartProduct(1L, 1L, 300L);
-        when(cartProductRepository.findByCartId(1L)).thenReturn(Flux.just(cp));
+        when(cartService.getContents(cart))
+                .thenReturn(Mono.just(new CartContents(Map.of(300L, 1), cart.getTotalPrice())));
 
         var product = new Product(300L, "Product C", 50.0, "Description C", "imgC.jpg", 0);
-        when(productRepository.findById(300L)).thenReturn(Mono.just(product));
+        when(productService.findAllByIds(Set.of(300L))).thenReturn(Mono.just(Map.of(300L, product)));
 
         when(paymentClientService.healthCheck()).thenReturn(Mono.just(false));
         when(paymentClientService.checkBalance(eq(String.valueOf(cart.getUserId())), eq(cart.getTotalPrice())))
@@ -200,11 +195,11 @@ public class CartFunctionalEndpointTest {
         cart.setUserId(1L);
         when(cartService.getCart()).thenReturn(Mono.just(cart));
 
-        var cp = new CartProduct(1L, 1L, 300L);
-        when(cartProductRepository.findByCartId(1L)).thenReturn(Flux.just(cp));
+        when(cartService.getContents(cart))
+                .thenReturn(Mono.just(new CartContents(Map.of(300L, 1), cart.getTotalPrice())));
 
         var product = new Product(300L, "Product C", 50.0, "Description C", "imgC.jpg", 0);
-        when(productRepository.findById(300L)).thenReturn(Mono.just(product));
+        when(productService.findAllByIds(Set.of(300L))).thenReturn(Mono.just(Map.of(300L, product)));
 
         // Simulate health check failure and balanceСheck true
         when(paymentClientService.healthCheck()).thenReturn(Mono.just(false));
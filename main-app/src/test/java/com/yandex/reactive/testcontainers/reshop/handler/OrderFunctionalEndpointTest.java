@@ -3,6 +3,7 @@ package com.yandex.reactive.testcontainers.reshop.handler;
 import com.yandex.reactive.testcontainers.reshop.controller.handler.OrderHandler;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderCursor;
 import com.yandex.reactive.testcontainers.reshop.exception.PaymentException;
 import com.yandex.reactive.testcontainers.reshop.controller.router.OrderRouter;
 import com.yandex.reactive.testcontainers.reshop.service.OrderProcessingService;
@@ -19,11 +20,16 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.csrf;
@@ -105,6 +111,9 @@ public class OrderFunctionalEndpointTest {
                     String body = response.getResponseBody();
                     assertNotNull(body);
                     assertTrue(body.contains("<table"));
+                    // строки ещё не вставлены OrderOutboxWorker: сумма из заказа и сообщение вместо состава
+                    assertTrue(body.contains("Сумма: 100.0"));
+                    assertTrue(body.contains("Состав заказа оформляется"));
                 });
     }
 
@@ -138,9 +147,8 @@ public class OrderFunctionalEndpointTest {
         order2.setUserId(1L);
         order2.setProducts(Collections.emptyList());
 
-        when(orderService.findOrdersForUsername(any())).thenReturn(Flux.just(order1, order2));
-        when(orderService.findByIdWithProducts(100L)).thenReturn(Mono.just(order1));
-        when(orderService.findByIdWithProducts(101L)).thenReturn(Mono.just(order2));
+        when(orderService.findOrdersForUsername(any(), isNull(), eq(11))).thenReturn(Flux.just(order1, order2));
+        when(orderService.attachProducts(List.of(order1, order2))).thenReturn(Mono.just(List.of(order1, order2)));
 
         clientWithLogin().get()
                 .uri("/orders")
@@ -152,6 +160,45 @@ public class OrderFunctionalEndpointTest {
                     String body = response.getResponseBody();
                     assertNotNull(body);
                     assertTrue(body.contains("<table"));
+                    assertFalse(body.contains("cursor="));
                 });
     }
+
+    @Test
+    void testOrdersPageLinksToNextPageByCursor() {
+        var orders = new ArrayList<Order>();
+        for (long id = 5; id >= 3; id--) {
+            var order = new Order();
+            order.setId(id);
+            order.setOrderDate(LocalDateTime.of(2025, 1, (int) id, 12, 0));
+            order.setUserId(1L);
+            order.setProducts(Collections.emptyList());
+            orders.add(order);
+        }
+        var after = new OrderCursor(7L, LocalDateTime.of(2025, 1, 7, 12, 0));
+        // pageSize + 1 заказ - значит, есть следующая страница, а третий заказ на ней
+        when(orderService.findOrdersForUsername(any(), eq(after), eq(3))).thenReturn(Flux.fromIterable(orders));
+        when(orderService.attachProducts(orders.subList(0, 2))).thenReturn(Mono.just(orders.subList(0, 2)));
+
+        clientWithLogin().get()
+                .uri("/orders?pageSize=2&pageNumber=2&cursor=" + after.encode())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .consumeWith(response -> {
+                    String body = response.getResponseBody();
+                    assertNotNull(body);
+                    assertTrue(body.contains("cursor=" + OrderCursor.of(orders.get(1)).encode()));
+                    assertTrue(body.contains("К новым заказам"));
+                    assertFalse(body.contains("Заказ №3"));
+                });
+    }
+
+    @Test
+    void testOrdersWithMalformedCursorIsBadRequest() {
+        clientWithLogin().get()
+                .uri("/orders?cursor=not-a-cursor")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
 }
@@ -2,12 +2,13 @@ package com.yandex.reactive.testcontainers.reshop.handler;
 
 import com.yandex.reactive.testcontainers.reshop.controller.handler.ProductHandler;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
-import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
-import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
 import com.yandex.reactive.testcontainers.reshop.controller.router.ProductRouter;
+import com.yandex.reactive.testcontainers.reshop.security.GuestCartCookie;
 import com.yandex.reactive.testcontainers.reshop.service.CartService;
 import com.yandex.reactive.testcontainers.reshop.service.ProductService;
+import com.yandex.reactive.testcontainers.reshop.service.ProductViewStats;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentMatchers;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,18 +23,20 @@ import reactor.core.publisher.Mono;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.csrf;
 import static org.springframework.web.reactive.function.BodyInserters.fromFormData;
 
 //todo: из коробки не видит роутер и хендлер, проресерчить вопрос
-@Import({ProductRouter.class, ProductHandler.class})
+@Import({ProductRouter.class, ProductHandler.class, GuestCartCookie.class})
 @WebFluxTest
 public class ProductFunctionalEndpointTest {
 
@@ -44,7 +47,7 @@ public class ProductFunctionalEndpointTest {
     private CartService cartService;
 
     @MockitoBean
-    private CartProductRepository cartProductRepository;
+    private ProductViewStats productViewStats;
 
     @Autowired
     private WebTestClient webTestClient;
@@ -93,19 +96,18 @@ public class ProductFunctionalEndpointTest {
         product.setImgPath("https://example.com/default.jpg");
 
         // без сорта
-        List<List<Product>> groupedProducts = Collections.singletonList(Collections.singletonList(product));
-        when(productService.getProducts(eq(""), eq("NO"), eq(1), eq(10)))
-                .thenReturn(Flux.just(product));
-        when(productService.groupProducts(ArgumentMatchers.<Flux<Product>>any()))
+        List<List<ProductTile>> groupedProducts = Collections.singletonList(Collections.singletonList(ProductTile.of(product)));
+        when(productService.getProducts(eq(""), eq("NO"), eq(1), eq(10), isNull()))
+                .thenReturn(Flux.just(ProductTile.of(product)));
+        when(productService.groupProducts(ArgumentMatchers.<Flux<ProductTile>>any()))
                 .thenReturn(Mono.just(groupedProducts));
 
         // пустая корзина
         var cart = new Cart();
         cart.setId(10L);
         cart.setTotalPrice(0.0);
-        when(cartService.getCart()).thenReturn(Mono.just(cart));
-        when(cartProductRepository.findByCartId(eq(10L)))
-                .thenReturn(Flux.empty());
+        when(cartService.getCartRef()).thenReturn(Mono.just(cart));
+        when(cartService.getQuantities(cart, List.of(product.getId()))).thenReturn(Mono.just(Map.of()));
 
         clientWithLogin().get()
                 .uri(uriBuilder -> uriBuilder
@@ -142,29 +144,21 @@ public class ProductFunctionalEndpointTest {
         product2.setImgPath("https://example.com/expensive.jpg");
 
         // сорт по price, ожидаем что первый будет дешевый
-        Flux<Product> flux = Flux.just(product1, product2);
-        List<List<Product>> groupedProducts = Collections.singletonList(List.of(product1, product2));
-        when(productService.getProducts(eq(""), eq("PRICE"), eq(1), eq(10)))
+        Flux<ProductTile> flux = Flux.just(ProductTile.of(product1), ProductTile.of(product2));
+        List<List<ProductTile>> groupedProducts = Collections.singletonList(List.of(ProductTile.of(product1), ProductTile.of(product2)));
+        when(productService.getProducts(eq(""), eq("PRICE"), eq(1), eq(10), isNull()))
                 .thenReturn(flux);
-        when(productService.groupProducts(ArgumentMatchers.<Flux<Product>>any()))
+        when(productService.groupProducts(ArgumentMatchers.<Flux<ProductTile>>any()))
                 .thenReturn(Mono.just(groupedProducts));
 
         // пусть для каждого продукта в Корзине count будет 1
         var cart = new Cart();
         cart.setId(20L);
         cart.setTotalPrice(22.0);
-        when(cartService.getCart()).thenReturn(Mono.just(cart));
-
-        var cpA = new CartProduct();
-        cpA.setId(200L);
-        cpA.setCartId(20L);
-        cpA.setProductId(3L);
-        var cpB = new CartProduct();
-        cpB.setId(201L);
-        cpB.setCartId(20L);
-        cpB.setProductId(4L);
-        when(cartProductRepository.findByCartId(eq(20L)))
-                .thenReturn(Flux.just(cpA, cpB));
+        when(cartService.getCartRef()).thenReturn(Mono.just(cart));
+
+        // в корзине по одной единице товаров 3 и 4, запрашиваются только товары страницы
+        when(cartService.getQuantities(cart, List.of(3L, 4L))).thenReturn(Mono.just(Map.of(3L, 1, 4L, 1)));
 
         clientWithLogin().get()
                 .uri(uriBuilder -> uriBuilder
@@ -199,28 +193,20 @@ public class ProductFunctionalEndpointTest {
         product.setImgPath("https://example.com/image.jpg");
 
         // Предположим, что группировка возвращает одну строку с одним продуктом.
-        List<List<Product>> groupedProducts = Collections.singletonList(Collections.singletonList(product));
-        when(productService.getProducts(eq(""), eq("NO"), eq(1), eq(10)))
-                .thenReturn(Flux.just(product));
-        when(productService.groupProducts(ArgumentMatchers.<Flux<Product>>any()))
+        List<List<ProductTile>> groupedProducts = Collections.singletonList(Collections.singletonList(ProductTile.of(product)));
+        when(productService.getProducts(eq(""), eq("NO"), eq(1), eq(10), isNull()))
+                .thenReturn(Flux.just(ProductTile.of(product)));
+        when(productService.groupProducts(ArgumentMatchers.<Flux<ProductTile>>any()))
                 .thenReturn(Mono.just(groupedProducts));
 
         // Симулируем корзину и записи join-таблицы, чтобы getProductCounts() вернуло count = 2 для продукта id=1
         var cart = new Cart();
         cart.setId(1L);
         cart.setTotalPrice(19.98);
-        when(cartService.getCart()).thenReturn(Mono.just(cart));
-
-        var cp1 = new CartProduct();
-        cp1.setId(100L);
-        cp1.setCartId(1L);
-        cp1.setProductId(1L);
-        var cp2 = new CartProduct();
-        cp2.setId(101L);
-        cp2.setCartId(1L);
-        cp2.setProductId(1L);
-        when(cartProductRepository.findByCartId(eq(1L)))
-                .thenReturn(Flux.just(cp1, cp2));
+        when(cartService.getCartRef()).thenReturn(Mono.just(cart));
+
+        // две единицы товара 1
+        when(cartService.getQuantities(cart, List.of(1L))).thenReturn(Mono.just(Map.of(1L, 2)));
 
         clientWithLogin().get()
                 .uri(uriBuilder -> uriBuilder
@@ -256,8 +242,8 @@ public class ProductFunctionalEndpointTest {
         var cart = new Cart();
         cart.setId(10L);
         cart.setTotalPrice(0.0);
-        when(cartService.getCart()).thenReturn(Mono.just(cart));
-        when(cartProductRepository.findByCartId(eq(10L))).thenReturn(Flux.empty());
+        when(cartService.getCartRef()).thenReturn(Mono.just(cart));
+        when(cartService.getQuantities(cart, List.of(1L))).thenReturn(Mono.just(Map.of()));
 
         clientWithLogin().get()
                 .uri("/items/1")
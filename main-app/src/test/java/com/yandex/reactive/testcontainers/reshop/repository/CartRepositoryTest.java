@@ -2,11 +2,15 @@ package com.yandex.reactive.testcontainers.reshop.repository;
 
 import com.yandex.reactive.testcontainers.reshop.AbstractDaoTest;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.r2dbc.core.DatabaseClient;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -18,6 +22,15 @@ public class CartRepositoryTest extends AbstractDaoTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CartProductRepository cartProductRepository;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
     @Test
     void testCreateCartAndFindByUser() {
         var user = User.builder()
@@ -51,4 +64,96 @@ public class CartRepositoryTest extends AbstractDaoTest {
                 })
                 .block(); // Блокируем реактивную цепочку до завершения
     }
+
+    @Test
+    void testTotalFollowsLineDeltasAndReconcile() {
+        var user = userRepository.save(User.builder()
+                .username("totaluser")
+                .password("password")
+                .email("totaluser@example.com")
+                .build()).block();
+        var product = productRepository.save(new Product(null, "Delta product", 25.0, "delta", "img", 0)).block();
+        var cart = new Cart();
+        cart.setUserId(user.getId());
+        cart.setTotalPrice(0.0);
+        Long cartId = underTest.save(cart).block().getId();
+
+        // два клика "+" и один "-": 25 * 2 - 25
+        cartProductRepository.incrementQuantity(cartId, product.getId())
+                .then(underTest.addToTotal(cartId, product.getId(), 1))
+                .then(cartProductRepository.incrementQuantity(cartId, product.getId()))
+                .then(underTest.addToTotal(cartId, product.getId(), 1))
+                .then(cartProductRepository.decrementQuantity(cartId, product.getId()))
+                .then(underTest.addToTotal(cartId, product.getId(), -1))
+                .block();
+        assertThat(underTest.findById(cartId).block().getTotalPrice()).isEqualTo(25.0);
+
+        // сумма разошлась со строками - сверка возвращает её к price * quantity
+        var drifted = underTest.findById(cartId).block();
+        drifted.setTotalPrice(999.0);
+        underTest.save(drifted).block();
+        assertThat(underTest.reconcileTotals(cartId + 1, cartId + 100).block()).isZero(); // вне диапазона
+        assertThat(underTest.reconcileTotals(cartId, cartId + 1).block()).isEqualTo(1);
+        assertThat(underTest.findById(cartId).block().getTotalPrice()).isEqualTo(25.0);
+
+        // разница в последних знаках DOUBLE расхождением не считается
+        var rounded = underTest.findById(cartId).block();
+        rounded.setTotalPrice(25.0 + 1e-9);
+        rounded = underTest.save(rounded).block();
+        assertThat(underTest.reconcileTotals(cartId, cartId + 1).block()).isZero();
+        assertThat(underTest.findMaxId().block()).isGreaterThanOrEqualTo(cartId);
+        rounded.setTotalPrice(25.0);
+        underTest.save(rounded).block();
+
+        underTest.subtractLine(cartId, product.getId())
+                .then(cartProductRepository.deleteByCartIdAndProductId(cartId, product.getId()))
+                .block();
+        assertThat(underTest.findById(cartId).block().getTotalPrice()).isZero();
+    }
+
+    @Test
+    void testLockAbandonedFindsOnlyStaleCartsWithLines() {
+        var user = userRepository.save(User.builder()
+                .username("reaperuser")
+                .password("password")
+                .email("reaperuser@example.com")
+                .build()).block();
+        var product = productRepository.save(new Product(null, "Reaper product", 5.0, "reaper", "img", 0)).block();
+        Long staleId = newCart(user.getId());
+        Long freshId = newCart(user.getId());
+        Long emptyStaleId = newCart(user.getId());
+        cartProductRepository.setQuantity(staleId, product.getId(), 3)
+                .then(underTest.updateTotal(staleId, 15.0))
+                .then(cartProductRepository.setQuantity(freshId, product.getId(), 1))
+                .block();
+        // явное присваивание updated_at перекрывает ON UPDATE CURRENT_TIMESTAMP
+        databaseClient.sql("UPDATE carts SET updated_at = NOW() - INTERVAL 40 DAY WHERE id IN (:ids)")
+                .bind("ids", List.of(staleId, emptyStaleId))
+                .then()
+                .block();
+        assertThat(underTest.findById(freshId).block().getUpdatedAt()).isNotNull();
+        // сверка суммы - не активность покупателя: исправленная корзина остаётся брошенной
+        databaseClient.sql("UPDATE carts SET total_price = 999, updated_at = updated_at WHERE id = :id")
+                .bind("id", staleId)
+                .then()
+                .block();
+        assertThat(underTest.reconcileTotals(staleId, staleId + 1).block()).isEqualTo(1);
+
+        List<Long> abandoned = underTest.lockAbandoned(Duration.ofDays(30).toSeconds(), 100).collectList().block();
+        assertThat(abandoned).contains(staleId).doesNotContain(freshId, emptyStaleId);
+
+        assertThat(cartProductRepository.deleteByCartIdIn(List.of(staleId)).block()).isEqualTo(1);
+        assertThat(underTest.resetTotals(List.of(staleId)).block()).isEqualTo(1);
+        assertThat(underTest.findById(staleId).block().getTotalPrice()).isZero();
+        // очищенная корзина больше не считается брошенной
+        assertThat(underTest.lockAbandoned(Duration.ofDays(30).toSeconds(), 100).collectList().block())
+                .doesNotContain(staleId);
+    }
+
+    private Long newCart(Long userId) {
+        var cart = new Cart();
+        cart.setUserId(userId);
+        cart.setTotalPrice(0.0);
+        return underTest.save(cart).block().getId();
+    }
 }
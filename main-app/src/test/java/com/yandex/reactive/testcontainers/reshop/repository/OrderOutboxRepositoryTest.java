@@ -0,0 +1,66 @@
+package com.yandex.reactive.testcontainers.reshop.repository;
+
+import com.yandex.reactive.testcontainers.reshop.AbstractDaoTest;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderOutboxEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderOutboxRepositoryTest extends AbstractDaoTest {
+
+    private static final int MAX_ATTEMPTS = 2;
+
+    @Autowired
+    private OrderOutboxRepository orderOutboxRepository;
+
+    @BeforeEach
+    void setUp() {
+        orderOutboxRepository.deleteAll().block();
+    }
+
+    @Test
+    void testClaimedEventIsHiddenUntilLeaseExpires() {
+        var event = orderOutboxRepository.save(OrderOutboxEvent.of(1L, "ORDER_PLACED", "{}")).block();
+
+        var due = orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10).collectList().block();
+        assertThat(due).extracting(OrderOutboxEvent::getId).containsExactly(event.getId());
+        assertThat(due.getFirst().getNextAttemptAt()).isNotNull();
+
+        assertThat(orderOutboxRepository.claim(List.of(event.getId()), 60).block()).isEqualTo(1);
+
+        assertThat(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10).collectList().block()).isEmpty();
+        assertThat(orderOutboxRepository.findById(event.getId()).block().getAttempts()).isEqualTo(1);
+    }
+
+    @Test
+    void testRescheduledEventReturnsUntilAttemptsRunOut() {
+        var event = orderOutboxRepository.save(OrderOutboxEvent.of(1L, "CART_CHECKOUT", "{}")).block();
+
+        orderOutboxRepository.claim(List.of(event.getId()), 60).block();
+        orderOutboxRepository.reschedule(event.getId(), 0, "IllegalStateException: boom").block();
+
+        var due = orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10).collectList().block();
+        assertThat(due).hasSize(1);
+        assertThat(due.getFirst().getLastError()).isEqualTo("IllegalStateException: boom");
+
+        // вторая неудача исчерпывает попытки: событие остаётся в таблице, но больше не выбирается
+        orderOutboxRepository.claim(List.of(event.getId()), 60).block();
+        orderOutboxRepository.reschedule(event.getId(), 0, "IllegalStateException: boom").block();
+
+        assertThat(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10).collectList().block()).isEmpty();
+        assertThat(orderOutboxRepository.findById(event.getId()).block()).isNotNull();
+    }
+
+    @Test
+    void testCompleteDeletesEventOnce() {
+        var event = orderOutboxRepository.save(OrderOutboxEvent.of(1L, "ORDER_LINES", "[]")).block();
+
+        assertThat(orderOutboxRepository.complete(event.getId()).block()).isEqualTo(1);
+        assertThat(orderOutboxRepository.complete(event.getId()).block()).isZero();
+        assertThat(orderOutboxRepository.findById(event.getId()).block()).isNull();
+    }
+}
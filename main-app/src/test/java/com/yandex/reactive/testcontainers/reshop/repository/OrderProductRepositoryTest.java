@@ -6,10 +6,13 @@ import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderLine;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -40,7 +43,7 @@ public class OrderProductRepositoryTest extends AbstractDaoTest {
         var order = new Order();
         order.setUserId(testUser.getId());
         order.setOrderDate(LocalDateTime.now());
-        order.setNumber("123");
+        order.setNumber("123-" + System.nanoTime()); // номер уникален
         order.setTotalSum(0.0);
         return orderRepository.save(order).block();
     }
@@ -58,7 +61,7 @@ public class OrderProductRepositoryTest extends AbstractDaoTest {
     void testSaveOrderProductAndFindByOrderId() {
         var order = createTestOrder();
         var product = createTestProduct();
-        var orderProduct = new OrderProduct(null, order.getId(), product.getId());
+        var orderProduct = OrderProduct.snapshot(order.getId(), product);
         var orderProductFromDB = orderProductRepository.save(orderProduct).block();
         assertThat(orderProductFromDB).isNotNull();
         assertThat(orderProductFromDB.getId()).isNotNull();
@@ -74,11 +77,64 @@ public class OrderProductRepositoryTest extends AbstractDaoTest {
         assertThat(first.getProductId()).isEqualTo(product.getId());
     }
 
+    @Test
+    void testInsertLinesInChunks() {
+        var order = createTestOrder();
+        var product = createTestProduct();
+        var other = createTestProduct();
+        // больше одной пачки, чтобы проверить разбиение
+        var lines = new ArrayList<OrderProduct>();
+        for (int i = 0; i < OrderProductBatchRepositoryImpl.CHUNK_SIZE + 3; i++) {
+            lines.add(OrderProduct.snapshot(order.getId(), (i % 2 == 0 ? product : other).withCount(i + 1)));
+        }
+
+        var inserted = orderProductRepository.insertLines(order.getId(), lines).block();
+
+        assertThat(inserted).isEqualTo(lines.size());
+        var stored = orderProductRepository.findByOrderId(order.getId())
+                .collectList()
+                .block();
+        assertThat(stored).usingRecursiveFieldByFieldElementComparatorIgnoringFields("id")
+                .containsExactlyInAnyOrderElementsOf(lines);
+    }
+
+    @Test
+    void testFindLinesByOrderIdsReadsSnapshot() {
+        var order = createTestOrder();
+        var other = createTestOrder();
+        var product = createTestProduct();
+        var cheap = createTestProduct();
+        orderProductRepository.insertLines(order.getId(), List.of(
+                        OrderProduct.snapshot(order.getId(), product.withCount(2)),
+                        OrderProduct.snapshot(order.getId(), cheap)))
+                .then(orderProductRepository.insertLines(other.getId(),
+                        List.of(OrderProduct.snapshot(other.getId(), product))))
+                .block();
+        // цена в каталоге изменилась после покупки
+        product.setPrice(100.0);
+        product.setName("Renamed");
+        productRepository.save(product).block();
+
+        var lines = orderProductRepository.findLinesByOrderIds(List.of(order.getId(), other.getId()))
+                .collectList()
+                .block();
+
+        assertThat(lines).extracting(OrderLine::orderId)
+                .containsExactly(order.getId(), order.getId(), other.getId());
+        assertThat(lines.get(1).product().getId()).isEqualTo(cheap.getId());
+        assertThat(lines.get(1).product().getCount()).isEqualTo(1);
+        assertThat(lines.get(0).product().getName()).isEqualTo("TestProduct");
+        assertThat(lines.get(0).product().getPrice()).isEqualTo(9.99);
+        assertThat(lines.get(0).product().getCount()).isEqualTo(2);
+        assertThat(lines.get(0).product().getImgPath()).isEqualTo("http://example.com/test.jpg");
+        assertThat(orderProductRepository.findLinesByOrderIds(List.of()).collectList().block()).isEmpty();
+    }
+
     @Test
     void testFindByOrderIdAndProductId() {
         var order = createTestOrder();
         var product = createTestProduct();
-        var orderProduct = new OrderProduct(null, order.getId(), product.getId());
+        var orderProduct = OrderProduct.snapshot(order.getId(), product);
         orderProductRepository.save(orderProduct).block();
 
         var orderProducts = orderProductRepository.findByOrderIdAndProductId(order.getId(), product.getId())
@@ -6,11 +6,13 @@ import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class OrderRepositoryTest extends AbstractDaoTest {
 
@@ -49,12 +51,8 @@ void testCreateOrderAndFindByNumber() {
                             // После сохранения ищем заказы по номеру
                             .flatMap(orderFromDB ->
                                     underTest.findByNumber("ORD123")
-                                            .collectList()
-                                            .doOnNext(orders -> {
-                                                assertThat(orders)
-                                                        .withFailMessage("Orders with the given number should not be empty")
-                                                        .isNotEmpty();
-                                                assertThat(orders.get(0).getId())
+                                            .doOnNext(found -> {
+                                                assertThat(found.getId())
                                                         .withFailMessage("Retrieved order should match saved order")
                                                         .isEqualTo(orderFromDB.getId());
                                             })
@@ -63,4 +61,63 @@ void testCreateOrderAndFindByNumber() {
                 })
                 .block(); // Блокировка до завершения всей цепочки
     }
+
+    @Test
+    void testOrderPagesFollowKeysetCursor() {
+        var user = userRepository.save(User.builder()
+                .username("pageduser")
+                .password("password")
+                .email("pageduser@example.com")
+                .build()).block();
+        var sameDay = LocalDateTime.of(2025, 2, 1, 10, 0);
+        // два заказа с одинаковой датой: порядок между ними задаёт id
+        var oldest = saveOrder(user.getId(), sameDay.minusDays(1));
+        var first = saveOrder(user.getId(), sameDay);
+        var second = saveOrder(user.getId(), sameDay);
+        var newest = saveOrder(user.getId(), sameDay.plusDays(1));
+
+        var page1 = underTest.findFirstPageByUserId(user.getId(), 2).collectList().block();
+        assertThat(page1).extracting(Order::getId).containsExactly(newest.getId(), second.getId());
+
+        var last = page1.get(1);
+        var page2 = underTest.findPageByUserIdAfter(user.getId(), last.getOrderDate(), last.getId(), 2)
+                .collectList().block();
+        assertThat(page2).extracting(Order::getId).containsExactly(first.getId(), oldest.getId());
+
+        var end = page2.get(1);
+        assertThat(underTest.findPageByUserIdAfter(user.getId(), end.getOrderDate(), end.getId(), 2)
+                .collectList().block()).isEmpty();
+    }
+
+    private Order saveOrder(Long userId, LocalDateTime orderDate) {
+        var order = new Order();
+        order.setUserId(userId);
+        order.setOrderDate(orderDate);
+        // номер уникален (uk_orders_number)
+        order.setNumber("PAGE-" + orderDate + "-" + System.nanoTime());
+        order.setTotalSum(1.0);
+        return underTest.save(order).block();
+    }
+
+    @Test
+    void testOrderNumberIsUnique() {
+        var user = userRepository.save(User.builder()
+                .username("numberuser")
+                .password("password")
+                .email("numberuser@example.com")
+                .build()).block();
+        var order = new Order();
+        order.setUserId(user.getId());
+        order.setOrderDate(LocalDateTime.now());
+        order.setNumber("UNIQUE-1");
+        underTest.save(order).block();
+
+        var duplicate = new Order();
+        duplicate.setUserId(user.getId());
+        duplicate.setOrderDate(LocalDateTime.now());
+        duplicate.setNumber("UNIQUE-1");
+
+        assertThatThrownBy(() -> underTest.save(duplicate).block())
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
 }
@@ -2,6 +2,7 @@ package com.yandex.reactive.testcontainers.reshop.repository;
 
 import com.yandex.reactive.testcontainers.reshop.AbstractDaoTest;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import reactor.core.publisher.Flux;
@@ -97,4 +98,29 @@ public class ProductRepositoryTest extends AbstractDaoTest {
         assertThat(products)
                 .anyMatch(product -> product.getName().equalsIgnoreCase("Awesome T-shirt"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFindPageOrderByPriceWithKeysetCursor() {
+        var cheap = new Product(null, "Keyset cheap", 1001.0, "keyset page", "http://example.com/1.jpg", 0);
+        var middle = new Product(null, "Keyset middle", 1002.0, "keyset page", "http://example.com/2.jpg", 0);
+        var expensive = new Product(null, "Keyset expensive", 1003.0, "keyset page", "http://example.com/3.jpg", 0);
+        underTest.saveAll(List.of(expensive, cheap, middle)).collectList().block();
+
+        List<ProductTile> firstPage = underTest
+                .findPageOrderByPrice("%keyset page%", null, null, 2, 0)
+                .collectList()
+                .block();
+        assertThat(firstPage)
+                .extracting(ProductTile::name)
+                .containsExactly("Keyset cheap", "Keyset middle");
+
+        ProductTile last = firstPage.get(firstPage.size() - 1);
+        List<ProductTile> secondPage = underTest
+                .findPageOrderByPrice("%keyset page%", last.price(), last.id(), 2, 0)
+                .collectList()
+                .block();
+        assertThat(secondPage)
+                .extracting(ProductTile::name)
+                .containsExactly("Keyset expensive");
+    }
+}
@@ -0,0 +1,45 @@
+package com.yandex.reactive.testcontainers.reshop.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpCookie;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GuestCartCookieTest {
+
+    private final GuestCartCookie underTest = new GuestCartCookie("test-secret", Duration.ofDays(7));
+
+    @Test
+    void testIssuedCookieIsReadBack() {
+        var guestId = GuestCartCookie.newGuestId();
+        var cookie = underTest.issue(guestId);
+
+        assertThat(cookie.isHttpOnly()).isTrue();
+        assertThat(cookie.getMaxAge()).isEqualTo(Duration.ofDays(7));
+        assertThat(underTest.read(cookies(cookie.getValue()))).contains(guestId);
+    }
+
+    @Test
+    void testTamperedOrForeignCookieIsRejected() {
+        var value = underTest.issue("guest-1").getValue();
+        var signature = value.substring(value.lastIndexOf('.'));
+
+        // чужой guestId с подписью от другого
+        assertThat(underTest.read(cookies("guest-2" + signature))).isEmpty();
+        // подпись другим ключом
+        var otherKey = new GuestCartCookie("other-secret", Duration.ofDays(7));
+        assertThat(underTest.read(cookies(otherKey.issue("guest-1").getValue()))).isEmpty();
+        assertThat(underTest.read(cookies("garbage"))).isEmpty();
+        assertThat(underTest.read(new LinkedMultiValueMap<>())).isEmpty();
+    }
+
+    private static MultiValueMap<String, HttpCookie> cookies(String value) {
+        var cookies = new LinkedMultiValueMap<String, HttpCookie>();
+        cookies.add(GuestCartCookie.NAME, new HttpCookie(GuestCartCookie.NAME, value));
+        return cookies;
+    }
+}
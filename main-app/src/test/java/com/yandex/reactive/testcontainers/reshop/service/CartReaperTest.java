@@ -0,0 +1,128 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.cart.CartStore;
+import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CartReaperTest {
+
+    private static final long MAX_AGE_SECONDS = Duration.ofDays(30).toSeconds();
+
+    @Mock
+    private CartRepository cartRepository;
+
+    @Mock
+    private CartProductRepository cartProductRepository;
+
+    @Mock
+    private CartStore cartStore;
+
+    @Mock
+    private TransactionalOperator transactionalOperator;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transactionalOperator.transactional(any(Mono.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        lenient().when(cartStore.evict(any()))
+                .thenAnswer(invocation -> Mono.just(List.copyOf(invocation.<List<Long>>getArgument(0))));
+    }
+
+    @Test
+    void testReapPurgesBatchesUntilPartialOne() {
+        when(cartRepository.lockAbandoned(MAX_AGE_SECONDS, 2))
+                .thenReturn(Flux.just(1L, 2L), Flux.just(3L));
+        when(cartProductRepository.deleteByCartIdIn(List.of(1L, 2L))).thenReturn(Mono.just(5));
+        when(cartProductRepository.deleteByCartIdIn(List.of(3L))).thenReturn(Mono.just(1));
+        when(cartRepository.resetTotals(any())).thenReturn(Mono.just(1));
+
+        assertThat(reaper(10).reap().block()).isEqualTo(3L);
+
+        verify(cartRepository, times(2)).lockAbandoned(MAX_AGE_SECONDS, 2);
+        verify(cartRepository).resetTotals(List.of(1L, 2L));
+        verify(cartRepository).resetTotals(List.of(3L));
+        verify(cartStore).evict(List.of(1L, 2L));
+        verify(cartStore).evict(List.of(3L));
+        assertThat(meterRegistry.counter("cart.reaper.carts").count()).isEqualTo(3.0);
+        assertThat(meterRegistry.counter("cart.reaper.lines").count()).isEqualTo(6.0);
+        assertThat(meterRegistry.timer("cart.reaper.batch").count()).isEqualTo(2);
+    }
+
+    @Test
+    void testCartsWithUnsavedChangesAreNotPurged() {
+        when(cartRepository.lockAbandoned(MAX_AGE_SECONDS, 2))
+                .thenReturn(Flux.just(1L, 2L), Flux.empty());
+        // корзину 2 покупатель только что менял, её копия ещё не записана
+        when(cartStore.evict(List.of(1L, 2L))).thenReturn(Mono.just(List.of(1L)));
+        when(cartProductRepository.deleteByCartIdIn(List.of(1L))).thenReturn(Mono.just(3));
+        when(cartRepository.resetTotals(List.of(1L))).thenReturn(Mono.just(1));
+
+        assertThat(reaper(10).reap().block()).isEqualTo(1L);
+
+        // пачка была полной, поэтому проход продолжился
+        verify(cartRepository, times(2)).lockAbandoned(MAX_AGE_SECONDS, 2);
+        InOrder inOrder = inOrder(cartStore, cartProductRepository);
+        inOrder.verify(cartStore).evict(List.of(1L, 2L));
+        inOrder.verify(cartProductRepository).deleteByCartIdIn(List.of(1L));
+        assertThat(meterRegistry.counter("cart.reaper.lines").count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void testReapStopsAtBatchLimit() {
+        when(cartRepository.lockAbandoned(MAX_AGE_SECONDS, 2)).thenReturn(Flux.just(1L, 2L));
+        when(cartProductRepository.deleteByCartIdIn(List.of(1L, 2L))).thenReturn(Mono.just(2));
+        when(cartRepository.resetTotals(List.of(1L, 2L))).thenReturn(Mono.just(2));
+
+        // пачка полная, но лимит прохода - одна пачка: остальное дочистит следующий проход
+        assertThat(reaper(1).reap().block()).isEqualTo(2L);
+
+        verify(cartRepository, times(1)).lockAbandoned(MAX_AGE_SECONDS, 2);
+    }
+
+    @Test
+    void testNothingAbandonedTouchesNoRows() {
+        when(cartRepository.lockAbandoned(MAX_AGE_SECONDS, 2)).thenReturn(Flux.empty());
+
+        assertThat(reaper(10).reap().block()).isZero();
+
+        verifyNoInteractions(cartProductRepository);
+        verify(cartRepository, never()).resetTotals(any());
+    }
+
+    @Test
+    void testDisabledReaperDoesNotStartLoop() {
+        var underTest = new CartReaper(cartRepository, cartProductRepository, cartStore, transactionalOperator,
+                meterRegistry, false, Duration.ofMillis(1), Duration.ofDays(30), 2, Duration.ZERO, 10);
+
+        underTest.startReaperLoop();
+        underTest.stopReaperLoop();
+
+        verifyNoInteractions(cartRepository, cartProductRepository);
+    }
+
+    private CartReaper reaper(int maxBatchesPerRun) {
+        return new CartReaper(cartRepository, cartProductRepository, cartStore, transactionalOperator,
+                meterRegistry, true, Duration.ofHours(1), Duration.ofDays(30), 2, Duration.ofMillis(1),
+                maxBatchesPerRun);
+    }
+}
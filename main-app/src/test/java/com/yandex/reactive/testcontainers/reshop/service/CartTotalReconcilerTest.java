@@ -0,0 +1,48 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.repository.CartRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CartTotalReconcilerTest {
+
+    @Mock
+    private CartRepository cartRepository;
+
+    @Test
+    void testReconcileWalksTableInBoundedIdRanges() {
+        when(cartRepository.findMaxId()).thenReturn(Mono.just(250L));
+        when(cartRepository.reconcileTotals(anyLong(), anyLong())).thenReturn(Mono.just(0));
+        when(cartRepository.reconcileTotals(100L, 200L)).thenReturn(Mono.just(2));
+        var underTest = new CartTotalReconciler(cartRepository, true, Duration.ofMinutes(15), 100);
+
+        assertThat(underTest.reconcile().block()).isEqualTo(2);
+
+        InOrder inOrder = inOrder(cartRepository);
+        inOrder.verify(cartRepository).reconcileTotals(0L, 100L);
+        inOrder.verify(cartRepository).reconcileTotals(100L, 200L);
+        inOrder.verify(cartRepository).reconcileTotals(200L, 300L);
+        verify(cartRepository, times(3)).reconcileTotals(anyLong(), anyLong());
+    }
+
+    @Test
+    void testDisabledReconcilerDoesNotStartLoop() {
+        var underTest = new CartTotalReconciler(cartRepository, false, Duration.ofMillis(1), 100);
+
+        underTest.startReconcileLoop();
+        underTest.stopReconcileLoop();
+
+        verifyNoInteractions(cartRepository);
+    }
+}
@@ -0,0 +1,98 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.ProductSort;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogSnapshotTest {
+
+    private final CatalogSnapshot underTest = CatalogSnapshot.of(List.of(
+            new Product(3L, "Кеды", 70.0, "Белые кеды", "img3", 0),
+            new Product(1L, "Кепка", 10.0, "Летняя кепка", "img1", 0),
+            new Product(4L, "Брюки", 30.0, null, "img4", 0),
+            new Product(2L, "Рубаха", 30.0, "Льняная рубаха", null, 0)
+    ));
+
+    @Test
+    void testFindById() {
+        Product product = underTest.findById(4L);
+
+        assertThat(product).isNotNull();
+        assertThat(product.getName()).isEqualTo("Брюки");
+        assertThat(product.getDescription()).isNull();
+        assertThat(product.getImgPath()).isEqualTo("img4");
+        assertThat(underTest.findById(42L)).isNull();
+    }
+
+    @Test
+    void testPagesAreSortedByKeyAndId() {
+        assertThat(underTest.page(null, ProductSort.NO, 1, 10, null))
+                .extracting(ProductTile::id)
+                .containsExactly(1L, 2L, 3L, 4L);
+        assertThat(underTest.page(null, ProductSort.ALPHA, 1, 10, null))
+                .extracting(ProductTile::name)
+                .containsExactly("Брюки", "Кеды", "Кепка", "Рубаха");
+        // при равной цене порядок определяется id
+        assertThat(underTest.page(null, ProductSort.PRICE, 1, 10, null))
+                .extracting(ProductTile::id)
+                .containsExactly(1L, 2L, 4L, 3L);
+    }
+
+    @Test
+    void testAlphaOrderIgnoresCaseAndAccentsLikeMySql() {
+        var snapshot = CatalogSnapshot.of(List.of(
+                new Product(1L, "кеды", 1.0, null, null, 0),
+                new Product(2L, "Ёлка", 1.0, null, null, 0),
+                new Product(3L, "Кеды", 1.0, null, null, 0),
+                new Product(4L, "Жилет", 1.0, null, null, 0),
+                new Product(5L, "apple", 1.0, null, null, 0),
+                new Product(6L, "Banana", 1.0, null, null, 0)
+        ));
+
+        // naturalOrder поставил бы заглавные и Ё раньше строчных; в *_ai_ci равные названия упорядочены по id
+        assertThat(snapshot.page(null, ProductSort.ALPHA, 1, 10, null))
+                .extracting(ProductTile::id)
+                .containsExactly(5L, 6L, 2L, 4L, 1L, 3L);
+        // курсор на "кеды" (id 1): "Кеды" с id 3 равна ему по названию и идёт следом
+        assertThat(snapshot.page(null, ProductSort.ALPHA, 2, 10, new ProductCursor(1L, 1.0, "кеды")))
+                .extracting(ProductTile::id)
+                .containsExactly(3L);
+    }
+
+    @Test
+    void testKeysetCursorContinuesAfterLastSeenProduct() {
+        List<ProductTile> first = underTest.page(null, ProductSort.PRICE, 1, 2, null);
+        ProductCursor cursor = ProductCursor.of(first.get(first.size() - 1));
+
+        assertThat(underTest.page(null, ProductSort.PRICE, 2, 2, cursor))
+                .extracting(ProductTile::id)
+                .containsExactly(4L, 3L);
+        assertThat(underTest.page(null, ProductSort.PRICE, 2, 2, null))
+                .extracting(ProductTile::id)
+                .containsExactly(4L, 3L);
+    }
+
+    @Test
+    void testSearchIsCaseInsensitiveOverNameAndDescription() {
+        assertThat(underTest.page("КЕ", ProductSort.ALPHA, 1, 10, null))
+                .extracting(ProductTile::name)
+                .containsExactly("Кеды", "Кепка");
+        assertThat(underTest.page("льняная", ProductSort.NO, 1, 10, null))
+                .extracting(ProductTile::id)
+                .containsExactly(2L);
+    }
+
+    @Test
+    void testReturnedProductsAreNotShared() {
+        Product first = underTest.findById(1L);
+        first.setCount(5);
+
+        assertThat(underTest.findById(1L).getCount()).isZero();
+    }
+}
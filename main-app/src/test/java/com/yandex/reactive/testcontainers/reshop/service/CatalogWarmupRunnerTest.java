@@ -0,0 +1,93 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogWarmupRunnerTest {
+
+    @Mock
+    private ProductService productService;
+
+    @Mock
+    private ProductViewStats productViewStats;
+
+    @Mock
+    private CatalogSnapshotService catalogSnapshotService;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    private CatalogWarmupRunner runner() {
+        return new CatalogWarmupRunner(productService, productViewStats, catalogSnapshotService,
+                applicationContext, true, 3, 2, 10, Duration.ofSeconds(5));
+    }
+
+    @Test
+    void testPagesAreFollowedByCursorLikeInUi() {
+        var first = List.of(new ProductTile(1L, "a", 1.0, "d", "i"), new ProductTile(2L, "b", 2.0, "d", "i"));
+        var second = List.of(new ProductTile(3L, "c", 3.0, "d", "i"));
+        String cursor = ProductCursor.of(first.get(1)).encode();
+
+        when(catalogSnapshotService.isEnabled()).thenReturn(false);
+        when(productService.getProducts(eq(""), anyString(), eq(1), eq(2), isNull()))
+                .thenReturn(Flux.fromIterable(first));
+        when(productService.getProducts(eq(""), anyString(), eq(2), eq(2), eq(cursor)))
+                .thenReturn(Flux.fromIterable(second));
+        when(productViewStats.topViewed(10)).thenReturn(Flux.just(7L, 8L));
+        when(productService.findAllByIds(List.of(7L, 8L)))
+                .thenReturn(Mono.just(Map.of(7L, new Product(7L, "p", 1.0, "d", "i", 0))));
+
+        List<Long> warmed = runner().warmCaches().block();
+
+        // вторая страница неполная - третью не запрашиваем
+        verify(productService, never()).getProducts(any(), any(), eq(3), eq(2), any());
+        assertThat(warmed).containsExactly(7L);
+    }
+
+    @Test
+    void testPagesAreNotPreloadedWhileSnapshotServesReads() {
+        var snapshot = CatalogSnapshot.of(List.of(new Product(7L, "p", 1.0, "d", "i", 0)));
+        when(catalogSnapshotService.isEnabled()).thenReturn(true);
+        when(catalogSnapshotService.current()).thenReturn(snapshot);
+        when(productViewStats.topViewed(10)).thenReturn(Flux.just(7L));
+        when(productService.findAllByIds(List.of(7L)))
+                .thenReturn(Mono.just(Map.of(7L, snapshot.findById(7L))));
+
+        assertThat(runner().warmCaches().block()).containsExactly(7L);
+
+        verify(productService, never()).getProducts(any(), any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void testMissingViewStatsDoNotBreakWarmUp() {
+        when(catalogSnapshotService.isEnabled()).thenReturn(false);
+        when(productService.getProducts(eq(""), anyString(), eq(1), eq(2), isNull())).thenReturn(Flux.empty());
+        when(productViewStats.topViewed(10)).thenReturn(Flux.error(new IllegalStateException("redis down")));
+        when(productService.findAllByIds(List.of())).thenReturn(Mono.just(Map.of()));
+
+        assertThat(runner().warmCaches().block()).isEmpty();
+    }
+}
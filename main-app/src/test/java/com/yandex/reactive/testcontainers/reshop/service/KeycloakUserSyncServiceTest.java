@@ -1,15 +1,24 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.User;
 import com.yandex.reactive.testcontainers.reshop.repository.UserRepository;
+import com.yandex.reactive.testcontainers.reshop.security.ShopOidcUser;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -26,32 +35,45 @@ class KeycloakUserSyncServiceTest {
     @MockitoBean
     private PasswordEncoder passwordEncoder;
 
+    @MockitoBean
+    private CartService cartService;
+
+    private OidcUser oidcUser;
+
+    @BeforeEach
+    void setUp() {
+        var idToken = new OidcIdToken("token", Instant.now(), Instant.now().plusSeconds(60),
+                Map.of("sub", "kc-123", "preferred_username", "user123", "email", "user123@example.com"));
+        oidcUser = new DefaultOidcUser(List.of(), idToken);
+    }
+
     @Test
     void syncUser_createsNewUser_whenNotExists() {
         // given
         var username = "user123";
         var email = "user123@example.com";
 
-        var oidcUser = mock(OidcUser.class);
-        when(oidcUser.getPreferredUsername()).thenReturn(username);
-        when(oidcUser.getEmail()).thenReturn(email);
-
         when(userRepo.findByUsername(username)).thenReturn(Mono.empty());
         when(passwordEncoder.encode("oauth2")).thenReturn("encoded-pass");
 
         var newUser = User.builder()
+                .id(5L)
                 .username(username)
                 .email(email)
                 .password("encoded-pass")
                 .build();
 
         when(userRepo.save(any(User.class))).thenReturn(Mono.just(newUser));
+        when(cartService.getOrCreateCart(5L)).thenReturn(Mono.just(cart(50L, 5L)));
 
         // when
         var result = underTest.syncUser(oidcUser).block();
 
         // then
-        assertThat(result).isEqualTo(oidcUser);
+        assertThat(result).isInstanceOf(ShopOidcUser.class);
+        assertThat(result.getPreferredUsername()).isEqualTo(username);
+        assertThat(ShopOidcUser.userId(result)).contains(5L);
+        assertThat(ShopOidcUser.cartId(result)).contains(50L);
 
         verify(userRepo).findByUsername(username);
         verify(userRepo).save(any(User.class));
@@ -63,11 +85,8 @@ class KeycloakUserSyncServiceTest {
         // given
         var username = "user123";
 
-        var oidcUser = mock(OidcUser.class);
-        when(oidcUser.getPreferredUsername()).thenReturn(username);
-        when(oidcUser.getEmail()).thenReturn("irrelevant@example.com");
-
         var existingUser = User.builder()
+                .id(7L)
                 .username(username)
                 .email("stored@example.com")
                 .password("hashed")
@@ -75,14 +94,23 @@ class KeycloakUserSyncServiceTest {
 
         when(userRepo.findByUsername(username)).thenReturn(Mono.just(existingUser));
         when(userRepo.save(any())).thenReturn(Mono.just(User.builder().build()));
+        when(cartService.getOrCreateCart(7L)).thenReturn(Mono.just(cart(70L, 7L)));
 
         // when
         var result = underTest.syncUser(oidcUser).block();
 
         // then
-        assertThat(result).isEqualTo(oidcUser);
+        assertThat(ShopOidcUser.userId(result)).contains(7L);
+        assertThat(ShopOidcUser.cartId(result)).contains(70L);
         verify(userRepo).findByUsername(username);
         verify(userRepo, never()).save(any());
         verify(passwordEncoder, never()).encode(any());
     }
+
+    private static Cart cart(Long id, Long userId) {
+        var cart = new Cart();
+        cart.setId(id);
+        cart.setUserId(userId);
+        return cart;
+    }
 }
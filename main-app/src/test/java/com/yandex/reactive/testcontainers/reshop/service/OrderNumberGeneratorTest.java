@@ -0,0 +1,115 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderNumberGeneratorTest {
+
+    private static final long NOW = OrderNumberGenerator.EPOCH_MILLIS + 1_000_000L;
+
+    @Test
+    void testIdsCarryTimeNodeAndSequence() {
+        var underTest = new OrderNumberGenerator(5, () -> NOW);
+
+        long first = underTest.nextId();
+        long second = underTest.nextId();
+
+        int shift = OrderNumberGenerator.NODE_BITS + OrderNumberGenerator.SEQUENCE_BITS;
+        assertThat(first >>> shift).isEqualTo(1_000_000L);
+        assertThat((first >>> OrderNumberGenerator.SEQUENCE_BITS) & OrderNumberGenerator.MAX_NODE_ID).isEqualTo(5);
+        assertThat(second).isEqualTo(first + 1);
+    }
+
+    @Test
+    void testNumbersKeepIncreasingWhenSequenceOverflowsOrClockGoesBack() {
+        var clock = new AtomicLong(NOW);
+        var underTest = new OrderNumberGenerator(1, clock::get);
+
+        // больше номеров, чем помещается в одну миллисекунду, плюс часы назад
+        long previous = underTest.nextId();
+        for (int i = 0; i < (1 << OrderNumberGenerator.SEQUENCE_BITS) * 2; i++) {
+            if (i == 100) {
+                clock.addAndGet(-50);
+            }
+            long next = underTest.nextId();
+            assertThat(next).isGreaterThan(previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    void testConcurrentCallersGetDistinctNumbersAcrossNodes() {
+        var node1 = new OrderNumberGenerator(1, System::currentTimeMillis);
+        var node2 = new OrderNumberGenerator(2, System::currentTimeMillis);
+
+        List<String> numbers = Flux.range(0, 20_000)
+                .parallel(8)
+                .runOn(Schedulers.parallel())
+                .map(i -> (i % 2 == 0 ? node1 : node2).nextNumber())
+                .sequential()
+                .collectList()
+                .block();
+
+        assertThat(new HashSet<>(numbers)).hasSize(20_000);
+        assertThat(numbers).allMatch(number -> number.matches("[0-9A-HJKMNP-TV-Z]{13}"));
+    }
+
+    @Test
+    void testFormattedNumbersSortLikeIds() {
+        assertThat(OrderNumberGenerator.format(0L)).isEqualTo("0000000000000");
+        assertThat(OrderNumberGenerator.format(31L)).isEqualTo("000000000000Z");
+        assertThat(OrderNumberGenerator.format(1L << 40)).isLessThan(OrderNumberGenerator.format((1L << 40) + 1));
+        assertThat(OrderNumberGenerator.format(Long.MAX_VALUE)).isEqualTo("7ZZZZZZZZZZZZ");
+    }
+
+    @Test
+    void testLeasedNodeIdIsUsedOnlyWhileLeaseHolds() {
+        var clock = new AtomicLong(NOW);
+        var lease = mock(OrderNumberNodeLease.class);
+        var underTest = new OrderNumberGenerator(lease, 3, clock::get);
+
+        // аренда потеряна и взята заново на другой id
+        when(lease.grant()).thenReturn(new OrderNumberNodeLease.Grant(4, NOW + 1));
+        long id = underTest.nextId();
+        assertThat((id >>> OrderNumberGenerator.SEQUENCE_BITS) & OrderNumberGenerator.MAX_NODE_ID).isEqualTo(4);
+
+        when(lease.grant()).thenReturn(null);
+        assertThatThrownBy(underTest::nextId).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testNumbersAreNotBorrowedPastLeaseEnd() {
+        var lease = mock(OrderNumberNodeLease.class);
+        when(lease.grant()).thenReturn(new OrderNumberNodeLease.Grant(3, NOW + 2));
+        var underTest = new OrderNumberGenerator(lease, 3, () -> NOW);
+
+        // все номера текущей миллисекунды и следующей, взятой в долг
+        for (int i = 0; i < (1 << OrderNumberGenerator.SEQUENCE_BITS) * 2; i++) {
+            underTest.nextId();
+        }
+        verify(lease, atLeastOnce()).borrowed(NOW + 1);
+
+        // следующая миллисекунда уже после конца аренды
+        assertThatThrownBy(underTest::nextId).isInstanceOf(IllegalStateException.class);
+        verify(lease, never()).borrowed(NOW + 2);
+    }
+
+    @Test
+    void testNodeIdOutOfRangeIsRejected() {
+        assertThatThrownBy(() -> new OrderNumberGenerator(OrderNumberGenerator.MAX_NODE_ID + 1, () -> NOW))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
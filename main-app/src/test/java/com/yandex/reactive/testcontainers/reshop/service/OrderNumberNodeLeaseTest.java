@@ -0,0 +1,110 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.redis.testcontainers.RedisContainer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Testcontainers
+class OrderNumberNodeLeaseTest {
+
+    @Container
+    static final RedisContainer redisContainer =
+            new RedisContainer(DockerImageName.parse("redis:7.4.2-bookworm"));
+
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisContainer.getHost(), redisContainer.getFirstMappedPort()));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        redisTemplate.execute(connection -> connection.serverCommands().flushAll()).blockLast();
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void testInstancesLeaseDistinctNodeIds() {
+        var first = new OrderNumberNodeLease(redisTemplate, Duration.ofSeconds(30));
+        var second = new OrderNumberNodeLease(redisTemplate, Duration.ofSeconds(30));
+        var third = new OrderNumberNodeLease(redisTemplate, Duration.ofSeconds(30));
+
+        int firstId = first.acquire(1);
+        int secondId = second.acquire(1);
+
+        assertThat(firstId).isNotEqualTo(secondId);
+        // все id заняты
+        assertThatThrownBy(() -> third.acquire(1)).isInstanceOf(IllegalStateException.class);
+
+        // после остановки id освобождается
+        first.release();
+        assertThat(third.acquire(1)).isEqualTo(firstId);
+        second.release();
+        third.release();
+    }
+
+    @Test
+    void testRenewReacquiresExpiredLease() {
+        var lease = new OrderNumberNodeLease(redisTemplate, Duration.ofSeconds(30));
+        int id = lease.acquire(3);
+
+        // ключ пропал, например Redis был недоступен дольше TTL
+        redisTemplate.delete("order-number:node:" + id).block();
+
+        assertThat(lease.renew().block()).isTrue();
+        assertThat(redisTemplate.hasKey("order-number:node:" + id).block()).isTrue();
+        assertThat(lease.grant().nodeId()).isEqualTo(id);
+        lease.release();
+        assertThat(redisTemplate.hasKey("order-number:node:" + id).block()).isFalse();
+        assertThat(lease.grant()).isNull();
+    }
+
+    @Test
+    void testRenewSwitchesToFreeNodeIdWhenLeaseIsTaken() {
+        var lease = new OrderNumberNodeLease(redisTemplate, Duration.ofSeconds(30));
+        int id = lease.acquire(1);
+
+        // ключ истёк, и id занял другой инстанс
+        redisTemplate.opsForValue().set("order-number:node:" + id, "other").block();
+
+        assertThat(lease.renew().block()).isTrue();
+        assertThat(lease.grant().nodeId()).isEqualTo(1 - id);
+        assertThat(lease.grant().validUntil()).isGreaterThan(System.currentTimeMillis());
+
+        // свободных id больше нет - аренды нет, номера не выдаются
+        redisTemplate.opsForValue().set("order-number:node:" + (1 - id), "other").block();
+        assertThat(lease.renew().block()).isFalse();
+        assertThat(lease.grant()).isNull();
+        lease.release();
+    }
+
+    @Test
+    void testReleaseKeepsNodeIdWhileBorrowedMillisecondsLast() {
+        var lease = new OrderNumberNodeLease(redisTemplate, Duration.ofSeconds(30));
+        int id = lease.acquire(3);
+        lease.borrowed(System.currentTimeMillis() + 5_000);
+
+        lease.release();
+
+        // следующий владелец получит id только после последней миллисекунды, взятой в долг
+        Duration left = redisTemplate.getExpire("order-number:node:" + id).block();
+        assertThat(left).isPositive().isLessThanOrEqualTo(Duration.ofSeconds(5));
+    }
+}
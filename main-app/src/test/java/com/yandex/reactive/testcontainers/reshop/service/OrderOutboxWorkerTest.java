@@ -0,0 +1,187 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderOutboxEvent;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
+import com.yandex.reactive.testcontainers.reshop.dto.CartCheckout;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderPlaced;
+import com.yandex.reactive.testcontainers.reshop.repository.OrderOutboxRepository;
+import com.yandex.reactive.testcontainers.reshop.repository.OrderProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OrderOutboxWorkerTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long LEASE_SECONDS = 60;
+    private static final String CHANNEL = "order:placed";
+
+    @Mock
+    private OrderOutboxRepository orderOutboxRepository;
+
+    @Mock
+    private OrderProductRepository orderProductRepository;
+
+    @Mock
+    private CartService cartService;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private TransactionalOperator transactionalOperator;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transactionalOperator.transactional(any(Mono.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        lenient().when(orderOutboxRepository.claim(any(), eq(LEASE_SECONDS))).thenReturn(Mono.just(1));
+        lenient().when(orderOutboxRepository.complete(anyLong())).thenReturn(Mono.just(1));
+    }
+
+    @Test
+    void testDrainCompletesOrderEvents() throws Exception {
+        var line = new OrderProduct(null, 6L, 10L, 2, 20.0, "Кеды", "img10");
+        var checkout = new CartCheckout(1L, 3L, Map.of(10L, 2));
+        var placed = objectMapper.writeValueAsString(new OrderPlaced(6L, "0C8K2M4N6P8QR", 3L, 40.0));
+        when(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10)).thenReturn(Flux.just(
+                event(1L, "ORDER_LINES", objectMapper.writeValueAsString(List.of(line))),
+                event(2L, "CART_CHECKOUT", objectMapper.writeValueAsString(checkout)),
+                event(3L, "ORDER_PLACED", placed)));
+        when(orderProductRepository.insertLines(6L, List.of(line))).thenReturn(Mono.just(1L));
+        when(cartService.removePurchased(1L, 3L, Map.of(10L, 2))).thenReturn(Mono.empty());
+        when(redisTemplate.convertAndSend(CHANNEL, placed)).thenReturn(Mono.just(1L));
+
+        assertThat(worker(10).drain().block()).isEqualTo(3L);
+
+        verify(orderOutboxRepository).claim(List.of(1L, 2L, 3L), LEASE_SECONDS);
+        verify(orderProductRepository).insertLines(6L, List.of(line));
+        verify(cartService).removePurchased(1L, 3L, Map.of(10L, 2));
+        verify(redisTemplate).convertAndSend(CHANNEL, placed);
+        verify(orderOutboxRepository).complete(1L);
+        verify(orderOutboxRepository).complete(2L);
+        verify(orderOutboxRepository).complete(3L);
+        verify(orderOutboxRepository, never()).reschedule(anyLong(), anyLong(), any());
+        assertThat(meterRegistry.counter("order.outbox.completed", "type", "ORDER_LINES").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void testLinesAreNotInsertedTwice() throws Exception {
+        var line = new OrderProduct(null, 6L, 10L, 1, 20.0, "Кеды", null);
+        when(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10)).thenReturn(Flux.just(
+                event(1L, "ORDER_LINES", objectMapper.writeValueAsString(List.of(line)))));
+        // событие уже завершил другой обработчик, у которого истекла аренда
+        when(orderOutboxRepository.complete(1L)).thenReturn(Mono.just(0));
+
+        assertThat(worker(10).drain().block()).isEqualTo(1L);
+
+        verify(orderProductRepository, never()).insertLines(anyLong(), anyList());
+    }
+
+    @Test
+    void testPurchasedProductsAreNotRemovedTwice() throws Exception {
+        var checkout = new CartCheckout(1L, 3L, Map.of(10L, 2));
+        when(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10)).thenReturn(Flux.just(
+                event(2L, "CART_CHECKOUT", objectMapper.writeValueAsString(checkout))));
+        // событие уже завершил другой обработчик, у которого истекла аренда
+        when(orderOutboxRepository.complete(2L)).thenReturn(Mono.just(0));
+
+        assertThat(worker(10).drain().block()).isEqualTo(1L);
+
+        verify(cartService, never()).removePurchased(anyLong(), anyLong(), anyMap());
+    }
+
+    @Test
+    void testCartConflictRetriesWholeTransaction() throws Exception {
+        var checkout = new CartCheckout(1L, 3L, Map.of(10L, 2));
+        when(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10)).thenReturn(Flux.just(
+                event(2L, "CART_CHECKOUT", objectMapper.writeValueAsString(checkout))));
+        when(cartService.removePurchased(1L, 3L, Map.of(10L, 2))).thenReturn(
+                Mono.error(new OptimisticLockingFailureException("Cart 1 was modified concurrently")),
+                Mono.empty());
+
+        assertThat(worker(10).drain().block()).isEqualTo(1L);
+
+        // удаление события повторено вместе с изменением корзины
+        verify(orderOutboxRepository, times(2)).complete(2L);
+        verify(orderOutboxRepository, never()).reschedule(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void testFailedEventIsRescheduledWithBackoff() throws Exception {
+        var checkout = new CartCheckout(1L, 3L, Map.of(10L, 1));
+        var failing = event(2L, "CART_CHECKOUT", objectMapper.writeValueAsString(checkout));
+        failing.setAttempts(1);
+        when(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 10)).thenReturn(Flux.just(failing));
+        when(cartService.removePurchased(1L, 3L, Map.of(10L, 1)))
+                .thenReturn(Mono.error(new IllegalStateException("Redis is down")));
+        when(orderOutboxRepository.reschedule(anyLong(), anyLong(), any())).thenReturn(Mono.just(1));
+
+        assertThat(worker(10).drain().block()).isEqualTo(1L);
+
+        // вторая попытка: пауза удвоилась; удаление события откатилось вместе с транзакцией
+        verify(orderOutboxRepository).reschedule(eq(2L), eq(2000L), startsWith("IllegalStateException: Redis is down"));
+        assertThat(meterRegistry.counter("order.outbox.failed", "type", "CART_CHECKOUT").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void testDrainTakesBatchesUntilPartialOne() throws Exception {
+        var placed = objectMapper.writeValueAsString(new OrderPlaced(6L, "0C8K2M4N6P8QR", 3L, 40.0));
+        when(orderOutboxRepository.lockDue(MAX_ATTEMPTS, 1))
+                .thenReturn(Flux.just(event(1L, "ORDER_PLACED", placed)), Flux.empty());
+        when(redisTemplate.convertAndSend(CHANNEL, placed)).thenReturn(Mono.just(0L));
+
+        assertThat(worker(1).drain().block()).isEqualTo(1L);
+
+        verify(orderOutboxRepository, times(2)).lockDue(MAX_ATTEMPTS, 1);
+        verify(orderOutboxRepository, times(1)).claim(any(), eq(LEASE_SECONDS));
+    }
+
+    @Test
+    void testBackoffDoublesUpToMax() {
+        Duration base = Duration.ofSeconds(1);
+        Duration max = Duration.ofSeconds(5);
+
+        assertThat(OrderOutboxWorker.backoff(base, max, 1)).isEqualTo(Duration.ofSeconds(1));
+        assertThat(OrderOutboxWorker.backoff(base, max, 2)).isEqualTo(Duration.ofSeconds(2));
+        assertThat(OrderOutboxWorker.backoff(base, max, 3)).isEqualTo(Duration.ofSeconds(4));
+        assertThat(OrderOutboxWorker.backoff(base, max, 4)).isEqualTo(max);
+        assertThat(OrderOutboxWorker.backoff(base, max, 100)).isEqualTo(max);
+    }
+
+    private OrderOutboxEvent event(Long id, String type, String payload) {
+        var event = OrderOutboxEvent.of(6L, type, payload);
+        event.setId(id);
+        return event;
+    }
+
+    private OrderOutboxWorker worker(int batchSize) {
+        return new OrderOutboxWorker(orderOutboxRepository, orderProductRepository, cartService, redisTemplate,
+                transactionalOperator, objectMapper, meterRegistry, true, Duration.ofSeconds(1), batchSize, 4,
+                MAX_ATTEMPTS, Duration.ofSeconds(LEASE_SECONDS), Duration.ofSeconds(1), Duration.ofMinutes(5), CHANNEL);
+    }
+}
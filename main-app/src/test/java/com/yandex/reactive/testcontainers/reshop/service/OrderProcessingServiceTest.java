@@ -1,13 +1,11 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Cart;
-import com.yandex.reactive.testcontainers.reshop.domain.entity.CartProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
 import com.yandex.reactive.testcontainers.reshop.exception.PaymentException;
 import com.yandex.reactive.testcontainers.reshop.exception.ResourceNotFoundException;
 import com.yandex.reactive.testcontainers.reshop.repository.CartProductRepository;
-import com.yandex.reactive.testcontainers.reshop.repository.OrderProductRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -20,7 +18,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -33,16 +37,16 @@ class OrderProcessingServiceTest {
     private OrderService orderService;
 
     @Mock
-    private ProductService productService;
+    private CartProductRepository cartProductRepository;
 
     @Mock
-    private OrderProductRepository orderProductRepository;
+    private PaymentClientService paymentClientService;
 
     @Mock
-    private CartProductRepository cartProductRepository;
+    private OrderNumberGenerator orderNumberGenerator;
 
     @Mock
-    private PaymentClientService paymentClientService;
+    private OrderOutboxWorker orderOutboxWorker;
 
     @InjectMocks
     private OrderProcessingService underTest;
@@ -52,47 +56,39 @@ class OrderProcessingServiceTest {
         var cart = new Cart();
         cart.setId(1L);
         cart.setUserId(1L);
-        cart.setTotalPrice(100.0);
+        cart.setTotalPrice(70.0);
 
         when(cartService.getCart()).thenReturn(Mono.just(cart));
+        when(cartService.flush(cart)).thenReturn(Mono.empty());
 
-        var cp1 = new CartProduct();
-        cp1.setProductId(10L);
-        var cp2 = new CartProduct();
-        cp2.setProductId(10L);
-        var cp3 = new CartProduct();
-        cp3.setProductId(20L);
-
-        when(cartProductRepository.findByCartId(anyLong()))
-                .thenReturn(Flux.just(cp1, cp2, cp3));
-
-        var product10 = new Product();
-        product10.setId(10L);
-        product10.setPrice(30.0);
-
-        var product20 = new Product();
-        product20.setId(20L);
-        product20.setPrice(40.0);
-
-        when(productService.findById(10L)).thenReturn(Mono.just(product10));
-        when(productService.findById(20L)).thenReturn(Mono.just(product20));
+        // цены из MySQL тем же запросом, что и количества; total_price корзины (100.0) устарел
+        when(cartProductRepository.findProductsInCart(1L)).thenReturn(Flux.just(
+                new Product(10L, "Кеды", 30.0, null, "img10", 2),
+                new Product(20L, "Кепка", 40.0, null, "img20", 1)));
 
         var orderFromDB = new Order();
         orderFromDB.setId(5L);
         orderFromDB.setUserId(cart.getUserId());
-        orderFromDB.setTotalSum(cart.getTotalPrice());
-        when(orderService.save(any(Order.class))).thenReturn(Mono.just(orderFromDB));
+        orderFromDB.setTotalSum(100.0);
+        when(orderService.placeOrder(any(Order.class), eq(1L))).thenReturn(Mono.just(orderFromDB));
 
-        when(paymentClientService.makePayment(String.valueOf(cart.getUserId()), cart.getTotalPrice()))
+        when(paymentClientService.makePayment(String.valueOf(cart.getUserId()), 100.0))
                 .thenReturn(Mono.just(true));
 
-        when(cartService.clearCart()).thenReturn(Mono.empty());
+        when(orderNumberGenerator.nextNumber()).thenReturn("0C8K2M4N6P8QR");
 
         Order result = underTest.processOrder().block();
 
         assertThat(result).isNotNull();
         assertThat(result.getId()).isEqualTo(5L);
         assertThat(result.getUserId()).isEqualTo(cart.getUserId());
+        // оплачена ровно сумма строк заказа
+        verify(orderService).placeOrder(argThat(order -> "0C8K2M4N6P8QR".equals(order.getNumber())
+                && order.getTotalSum() == 100.0 && order.getProducts().size() == 2), eq(1L));
+        // строки заказа и корзину доделывает OrderOutboxWorker, запрос только будит его
+        verify(orderService, never()).save(any(Order.class));
+        verify(cartService, never()).clearCart();
+        verify(orderOutboxWorker).wakeUp();
     }
 
     @Test
@@ -103,7 +99,8 @@ class OrderProcessingServiceTest {
         cart.setTotalPrice(0.0);
 
         when(cartService.getCart()).thenReturn(Mono.just(cart));
-        when(cartProductRepository.findByCartId(anyLong())).thenReturn(Flux.empty());
+        when(cartService.flush(cart)).thenReturn(Mono.empty());
+        when(cartProductRepository.findProductsInCart(1L)).thenReturn(Flux.empty());
 
         ResourceNotFoundException exception = assertThrows(
                 ResourceNotFoundException.class,
@@ -119,16 +116,11 @@ class OrderProcessingServiceTest {
         cart.setUserId(1L);
         cart.setTotalPrice(100.0);
         when(cartService.getCart()).thenReturn(Mono.just(cart));
+        when(cartService.flush(cart)).thenReturn(Mono.empty());
+        when(cartProductRepository.findProductsInCart(1L))
+                .thenReturn(Flux.just(new Product(10L, "Кеды", 100.0, null, "img10", 1)));
 
-        CartProduct cp = new CartProduct();
-        cp.setProductId(10L);
-        when(cartProductRepository.findByCartId(anyLong()))
-                .thenReturn(Flux.just(cp));
-
-        Product product = new Product();
-        product.setId(10L);
-        product.setPrice(100.0);
-        when(productService.findById(10L)).thenReturn(Mono.just(product));
+        when(orderNumberGenerator.nextNumber()).thenReturn("0C8K2M4N6P8QR");
 
         // Simulate payment failure
         when(paymentClientService.makePayment(String.valueOf(cart.getUserId()), cart.getTotalPrice()))
@@ -137,5 +129,28 @@ class OrderProcessingServiceTest {
         assertThatThrownBy(() -> underTest.processOrder().block())
                 .isInstanceOf(PaymentException.class)
                 .hasMessage("Payment failed due to processing error.");
+        verify(orderService, never()).placeOrder(any(Order.class), anyLong());
+        verify(orderOutboxWorker, never()).wakeUp();
+    }
+
+    @Test
+    void testProcessOrder_NoOrderNumberSkipsPayment() {
+        Cart cart = new Cart();
+        cart.setId(1L);
+        cart.setUserId(1L);
+        cart.setTotalPrice(100.0);
+        when(cartService.getCart()).thenReturn(Mono.just(cart));
+        when(cartService.flush(cart)).thenReturn(Mono.empty());
+        when(cartProductRepository.findProductsInCart(1L))
+                .thenReturn(Flux.just(new Product(10L, "Кеды", 100.0, null, "img10", 1)));
+
+        // аренда id узла потеряна
+        when(orderNumberGenerator.nextNumber())
+                .thenThrow(new IllegalStateException("Order number node id lease is not held"));
+
+        assertThatThrownBy(() -> underTest.processOrder().block())
+                .isInstanceOf(IllegalStateException.class);
+        verify(paymentClientService, never()).makePayment(anyString(), anyDouble());
+        verify(orderService, never()).placeOrder(any(Order.class), anyLong());
     }
-}
\ No newline at end of file
+}
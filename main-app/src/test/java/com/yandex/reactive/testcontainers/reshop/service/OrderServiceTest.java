@@ -1,14 +1,23 @@
 package com.yandex.reactive.testcontainers.reshop.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Order;
+import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderOutboxEvent;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.OrderProduct;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.CartCheckout;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderCursor;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderLine;
+import com.yandex.reactive.testcontainers.reshop.dto.OrderPlaced;
+import com.yandex.reactive.testcontainers.reshop.repository.OrderOutboxRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.OrderProductRepository;
 import com.yandex.reactive.testcontainers.reshop.repository.OrderRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Sort;
 import reactor.core.publisher.Flux;
@@ -16,6 +25,7 @@ import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -30,6 +40,12 @@ class OrderServiceTest {
     @Mock
     private OrderProductRepository orderProductRepository;
 
+    @Mock
+    private OrderOutboxRepository orderOutboxRepository;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @InjectMocks
     private OrderService underTest;
 
@@ -99,13 +115,16 @@ class OrderServiceTest {
         assertThat(result.getId()).isEqualTo(5L);
         verify(orderRepository, times(1)).save(order);
         verify(orderProductRepository, never()).save(any(OrderProduct.class));
+        verify(orderProductRepository, never()).insertLines(anyLong(), anyList());
     }
 
     @Test
     void testSave_OrderWithProducts() {
         var product = new Product();
         product.setId(10L);
+        product.setName("Кеды");
         product.setPrice(20.0);
+        product.setImgPath("img10");
         orderSetProductCount(product, 2);
 
         var order = new Order();
@@ -119,17 +138,67 @@ class OrderServiceTest {
         orderFromDB.setTotalSum(order.getTotalSum());
         orderFromDB.setProducts(order.getProducts());
 
-        var orderProduct = new OrderProduct(null, orderFromDB.getId(), product.getId());
-
         when(orderRepository.save(any(Order.class))).thenReturn(Mono.just(orderFromDB));
-        when(orderProductRepository.save(any(OrderProduct.class))).thenReturn(Mono.just(orderProduct));
+        var line = new OrderProduct(null, 6L, 10L, 2, 20.0, "Кеды", "img10");
+        when(orderProductRepository.insertLines(6L, List.of(line))).thenReturn(Mono.just(1L));
 
         var result = underTest.save(order).block();
 
         assertThat(result).isNotNull();
         assertThat(result.getId()).isEqualTo(6L);
         verify(orderRepository, times(1)).save(order);
-        verify(orderProductRepository, times(1)).save(any(OrderProduct.class));
+        // одна пакетная вставка, строка на товар с количеством и ценой на момент покупки
+        verify(orderProductRepository, times(1)).insertLines(6L, List.of(line));
+        verify(orderProductRepository, never()).save(any(OrderProduct.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPlaceOrder_RecordsOutboxEventsInsteadOfLines() throws Exception {
+        var product = new Product();
+        product.setId(10L);
+        product.setName("Кеды");
+        product.setPrice(20.0);
+        product.setImgPath("img10");
+        orderSetProductCount(product, 2);
+
+        var order = new Order();
+        order.setUserId(3L);
+        order.setNumber("0C8K2M4N6P8QR");
+        order.setTotalSum(40.0);
+        order.setProducts(List.of(product));
+
+        var orderFromDB = new Order();
+        orderFromDB.setId(6L);
+        orderFromDB.setUserId(3L);
+        orderFromDB.setNumber(order.getNumber());
+        orderFromDB.setTotalSum(40.0);
+        orderFromDB.setProducts(order.getProducts());
+
+        when(orderRepository.save(any(Order.class))).thenReturn(Mono.just(orderFromDB));
+        when(orderOutboxRepository.saveAll(anyIterable()))
+                .thenAnswer(invocation -> Flux.fromIterable(invocation.<Iterable<OrderOutboxEvent>>getArgument(0)));
+
+        var result = underTest.placeOrder(order, 1L).block();
+
+        assertThat(result).isNotNull();
+        assertThat(result.getId()).isEqualTo(6L);
+        // строки заказа вставит OrderOutboxWorker
+        verify(orderProductRepository, never()).insertLines(anyLong(), anyList());
+
+        ArgumentCaptor<Iterable<OrderOutboxEvent>> captor = ArgumentCaptor.forClass(Iterable.class);
+        verify(orderOutboxRepository).saveAll(captor.capture());
+        List<OrderOutboxEvent> events = (List<OrderOutboxEvent>) captor.getValue();
+        assertThat(events).extracting(OrderOutboxEvent::getEventType)
+                .containsExactly("ORDER_LINES", "CART_CHECKOUT", "ORDER_PLACED");
+        assertThat(events).allMatch(event -> event.getOrderId() == 6L && event.getAttempts() == 0);
+
+        OrderProduct[] lines = objectMapper.readValue(events.get(0).getPayload(), OrderProduct[].class);
+        assertThat(lines).containsExactly(new OrderProduct(null, 6L, 10L, 2, 20.0, "Кеды", "img10"));
+        assertThat(objectMapper.readValue(events.get(1).getPayload(), CartCheckout.class))
+                .isEqualTo(new CartCheckout(1L, 3L, Map.of(10L, 2)));
+        assertThat(objectMapper.readValue(events.get(2).getPayload(), OrderPlaced.class))
+                .isEqualTo(new OrderPlaced(6L, "0C8K2M4N6P8QR", 3L, 40.0));
     }
 
     @Test
@@ -161,35 +230,65 @@ class OrderServiceTest {
     }
 
     @Test
-    void testGroupProductsWithCounts() {
-        var product1a = new Product();
-        product1a.setId(1L);
-        product1a.setPrice(10.0);
-        product1a.setCount(0);
+    void testFindOrdersForUserUsesKeysetCursor() {
+        var order = new Order();
+        order.setId(4L);
+        var after = new OrderCursor(9L, LocalDateTime.of(2025, 3, 1, 10, 0));
+        when(orderRepository.findFirstPageByUserId(1L, 11)).thenReturn(Flux.just(order));
+        when(orderRepository.findPageByUserIdAfter(1L, after.orderDate(), 9L, 11)).thenReturn(Flux.just(order));
 
-        var product1b = new Product();
-        product1b.setId(1L);
-        product1b.setPrice(10.0);
-        product1b.setCount(0);
+        assertThat(underTest.findOrdersForUser(1L, null, 11).collectList().block()).containsExactly(order);
+        assertThat(underTest.findOrdersForUser(1L, after, 11).collectList().block()).containsExactly(order);
 
-        var product2 = new Product();
-        product2.setId(2L);
-        product2.setPrice(20.0);
-        product2.setCount(0);
+        verify(orderRepository).findFirstPageByUserId(1L, 11);
+        verify(orderRepository).findPageByUserIdAfter(1L, after.orderDate(), 9L, 11);
+    }
 
-        List<Product> products = List.of(product1a, product1b, product2);
-        List<Product> grouped = underTest.groupProductsWithCounts(products);
+    @Test
+    void testAttachProductsReadsAllLinesInOneQuery() {
+        var first = new Order();
+        first.setId(1L);
+        var second = new Order();
+        second.setId(2L);
+        var empty = new Order();
+        empty.setId(3L);
+        var shoes = new Product(10L, "Кеды", 70.0, null, "img10", 2);
+        var cap = new Product(11L, "Кепка", 10.5, null, "img11", 1);
+        var socks = new Product(12L, "Носки", 3.0, null, "img12", 4);
+        when(orderProductRepository.findLinesByOrderIds(List.of(1L, 2L, 3L))).thenReturn(Flux.just(
+                new OrderLine(1L, shoes), new OrderLine(1L, socks), new OrderLine(2L, cap)));
+
+        List<Order> orders = underTest.attachProducts(List.of(first, second, empty)).block();
+
+        assertThat(orders).containsExactly(first, second, empty);
+        assertThat(first.getProducts()).containsExactly(shoes, socks);
+        // сумма по ценам из снимка строк
+        assertThat(underTest.calculateTotalSum(first)).isEqualTo(152.0);
+        assertThat(second.getProducts()).containsExactly(cap);
+        assertThat(empty.getProducts()).isEmpty();
+        verify(orderProductRepository, times(1)).findLinesByOrderIds(any());
+        verifyNoInteractions(orderRepository);
+    }
 
-        assertThat(grouped).isNotNull();
-        assertThat(grouped).hasSize(2);
+    @Test
+    void testFindByIdWithProductsUsesSnapshotOnly() {
+        var order = new Order();
+        order.setId(8L);
+        var shoes = new Product(10L, "Кеды", 70.0, null, "img10", 3);
+        when(orderRepository.findById(8L)).thenReturn(Mono.just(order));
+        when(orderProductRepository.findLinesByOrderIds(List.of(8L))).thenReturn(Flux.just(new OrderLine(8L, shoes)));
 
-        for (Product p : grouped) {
-            if (p.getId().equals(1L)) {
-                assertThat(p.getCount()).isEqualTo(2);
-            } else if (p.getId().equals(2L)) {
-                assertThat(p.getCount()).isEqualTo(1);
-            }
-        }
+        var result = underTest.findByIdWithProducts(8L).block();
+
+        assertThat(result.getProducts()).containsExactly(shoes);
+        assertThat(underTest.calculateTotalSum(result)).isEqualTo(210.0);
+        verify(orderProductRepository, never()).findByOrderId(any());
+    }
+
+    @Test
+    void testAttachProductsToNoOrdersSkipsQuery() {
+        assertThat(underTest.attachProducts(List.of()).block()).isEmpty();
+        verifyNoInteractions(orderProductRepository);
     }
 
     // Helper method для count продукта через сеттер (count не сохраняется в маппингах Order/Product)
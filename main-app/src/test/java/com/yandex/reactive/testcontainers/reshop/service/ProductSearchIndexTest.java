@@ -0,0 +1,62 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import com.yandex.reactive.testcontainers.reshop.domain.enums.ProductSort;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductSearchIndexTest {
+
+    private final ProductSearchIndex underTest = ProductSearchIndex.build(
+            PackedStrings.of(Arrays.asList("Awesome T-shirt", "Cool Hat", "Regular Shoes", "Hat stand")),
+            PackedStrings.of(Arrays.asList("High quality cotton t-shirt", "Stylish summer hat", null, "For hats"))
+    );
+
+    @Test
+    void testSearchMatchesNameAndDescriptionIgnoringCase() {
+        assertThat(underTest.search("T-SHIRT")).containsExactly(0);
+        assertThat(underTest.search("hat")).containsExactly(1, 3);
+        assertThat(underTest.search("summer")).containsExactly(1);
+    }
+
+    @Test
+    void testCandidatesWithAllTrigramsAreVerified() {
+        // "shoes" и "hoes hat" дают общие триграммы, но подстроки "hoes hat" нет ни в одном товаре
+        assertThat(underTest.search("hoes hat")).isEmpty();
+        assertThat(underTest.search("unknown")).isEmpty();
+    }
+
+    @Test
+    void testMatchDoesNotSpanNameAndDescription() {
+        // "Cool Hat" + "Stylish..." не должны склеиваться в "hatstylish"
+        assertThat(underTest.search("hatstylish")).isEmpty();
+        assertThat(underTest.search("hat stylish")).isEmpty();
+    }
+
+    @Test
+    void testShortQueriesFallBackToScan() {
+        assertThat(underTest.search("ha")).containsExactly(1, 3);
+        assertThat(underTest.search(" ")).isEmpty();
+    }
+
+    @Test
+    void testSnapshotSearchIsOrderedBySort() {
+        var snapshot = CatalogSnapshot.of(List.of(
+                new Product(1L, "Zebra hat", 5.0, "", "", 0),
+                new Product(2L, "Alpha hat", 9.0, "", "", 0),
+                new Product(3L, "Shoes", 1.0, "", "", 0)
+        ));
+
+        assertThat(snapshot.page("hat", ProductSort.ALPHA, 1, 10, null))
+                .extracting(ProductTile::id)
+                .containsExactly(2L, 1L);
+        assertThat(snapshot.page("hat", ProductSort.PRICE, 1, 10, null))
+                .extracting(ProductTile::id)
+                .containsExactly(1L, 2L);
+    }
+}
@@ -2,6 +2,7 @@ package com.yandex.reactive.testcontainers.reshop.service;
 
 import com.yandex.reactive.testcontainers.reshop.AbstractTestContainerTest;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
 import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -50,41 +51,42 @@ class ProductServiceCacheTest extends AbstractTestContainerTest {
 
     @Test
     void testGetProductsCache() {
-        List<Product> products = List.of(
-                new Product(1L, "CachedProduct1", 1.0, "desc1", "https://example.com/image1.jpg", 0),
-                new Product(2L, "CachedProduct2", 2.0, "desc2", "https://example.com/image2.jpg", 0),
-                new Product(3L, "CachedProduct3", 3.0, "desc3", "https://example.com/image3.jpg", 0),
-                new Product(4L, "CachedProduct4", 4.0, "desc4", "https://example.com/image4.jpg", 0)
+        List<ProductTile> products = List.of(
+                new ProductTile(1L, "CachedProduct1", 1.0, "desc1", "https://example.com/image1.jpg"),
+                new ProductTile(2L, "CachedProduct2", 2.0, "desc2", "https://example.com/image2.jpg"),
+                new ProductTile(3L, "CachedProduct3", 3.0, "desc3", "https://example.com/image3.jpg"),
+                new ProductTile(4L, "CachedProduct4", 4.0, "desc4", "https://example.com/image4.jpg")
         );
 
-        when(productRepository.findAll()).thenReturn(Flux.fromIterable(products));
+        when(productRepository.findPageOrderByName(null, null, null, 3, 0L))
+                .thenReturn(Flux.fromIterable(products.subList(0, 3)));
 
-        List<Product> listFromDB = underTest
-                .getProducts("", "ALPHA", 1, 3)
+        List<ProductTile> listFromDB = underTest
+                .getProducts("", "ALPHA", 1, 3, null)
                 .collectList()
                 .block();
 
         assertThat(listFromDB)
                 .isNotNull()
                 .hasSize(3)
-                .extracting(Product::getName)
+                .extracting(ProductTile::name)
                 .containsExactly("CachedProduct1", "CachedProduct2", "CachedProduct3");
-        verify(productRepository, times(1)).findAll();
+        verify(productRepository, times(1)).findPageOrderByName(null, null, null, 3, 0L);
 
         // Fetching the products from the Redis cache
-        when(productRepository.findAll()).thenReturn(Flux.empty());
-        List<Product> listFromCache = underTest
-                .getProducts("", "ALPHA", 1, 3)
+        when(productRepository.findPageOrderByName(null, null, null, 3, 0L)).thenReturn(Flux.empty());
+        List<ProductTile> listFromCache = underTest
+                .getProducts("", "ALPHA", 1, 3, null)
                 .collectList()
                 .block();
 
         assertThat(listFromCache)
                 .isNotNull()
                 .hasSize(3)
-                .extracting(Product::getName)
+                .extracting(ProductTile::name)
                 .containsExactly("CachedProduct1", "CachedProduct2", "CachedProduct3");
 
-        verify(productRepository, times(1)).findAll();
+        verify(productRepository, times(1)).findPageOrderByName(null, null, null, 3, 0L);
     }
 
 }
@@ -3,7 +3,10 @@ package com.yandex.reactive.testcontainers.reshop.service;
 import org.junit.jupiter.api.Test;
 
 
+import com.yandex.reactive.testcontainers.reshop.cache.MultiGetCache;
 import com.yandex.reactive.testcontainers.reshop.domain.entity.Product;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductTile;
+import com.yandex.reactive.testcontainers.reshop.dto.ProductCursor;
 import com.yandex.reactive.testcontainers.reshop.repository.ProductRepository;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -13,8 +16,12 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,6 +30,12 @@ public class ProductServiceTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private CatalogSnapshotService catalogSnapshotService;
+
+    @Mock
+    private MultiGetCache multiGetCache;
+
     @InjectMocks
     private ProductService underTest;
 
@@ -46,44 +59,72 @@ public class ProductServiceTest {
 
     @Test
     void testGetProductsWithoutSearch() {
-        List<Product> products = List.of(
-                new Product(1L, "Test product 1", 1.2, "testdescription1", "https://example.com/test1.jpg", 0),
-                new Product(2L, "Test product 2", 2.5, "testdescription2", "https://example.com/test2.jpg", 0),
-                new Product(3L, "Test product 3", 3.0, "testdescription3", "https://example.com/test4.jpg", 0),
-                new Product(4L, "Test product 5", 4.0, "testdescription4", "https://example.com/test5.jpg", 0)
+        List<ProductTile> products = List.of(
+                new ProductTile(1L, "Test product 1", 1.2, "testdescription1", "https://example.com/test1.jpg"),
+                new ProductTile(2L, "Test product 2", 2.5, "testdescription2", "https://example.com/test2.jpg"),
+                new ProductTile(3L, "Test product 3", 3.0, "testdescription3", "https://example.com/test4.jpg"),
+                new ProductTile(4L, "Test product 5", 4.0, "testdescription4", "https://example.com/test5.jpg")
         );
 
-        when(productRepository.findAll()).thenReturn(Flux.fromIterable(products));
+        when(productRepository.findPageOrderByName(null, null, null, 3, 0L))
+                .thenReturn(Flux.fromIterable(products.subList(0, 3)));
 
-        var result = underTest.getProducts("", "ALPHA", 1, 3).collectList().block();
+        var result = underTest.getProducts("", "ALPHA", 1, 3, null).collectList().block();
 
         assertThat(result)
                 .isNotNull()
                 .hasSize(3)
-                .extracting(Product::getName)
+                .extracting(ProductTile::name)
                 .containsExactly("Test product 1", "Test product 2", "Test product 3");
     }
 
     @Test
     void testGetProductsSortedByPrice() {
-        List<Product> products = List.of(
-                new Product(1L, "Test product 1", 3.0, "testdescription1", "https://example.com/test1.jpg", 0),
-                new Product(2L, "Test product 2", 1.2, "testdescription2", "https://example.com/test2.jpg", 0),
-                new Product(3L, "Test product 3", 4.0, "testdescription3", "https://example.com/test3.jpg", 0),
-                new Product(4L, "Test product 4", 2.5, "testdescription4", "https://example.com/test4.jpg", 0)
+        List<ProductTile> products = List.of(
+                new ProductTile(1L, "Test product 1", 3.0, "testdescription1", "https://example.com/test1.jpg"),
+                new ProductTile(2L, "Test product 2", 1.2, "testdescription2", "https://example.com/test2.jpg"),
+                new ProductTile(3L, "Test product 3", 4.0, "testdescription3", "https://example.com/test3.jpg"),
+                new ProductTile(4L, "Test product 4", 2.5, "testdescription4", "https://example.com/test4.jpg")
         );
 
-        when(productRepository.findAll()).thenReturn(Flux.fromIterable(products));
+        when(productRepository.findPageOrderByPrice(null, null, null, 4, 0L))
+                .thenReturn(Flux.just(products.get(1), products.get(3), products.get(0), products.get(2)));
 
-        var result = underTest.getProducts("", "PRICE", 1, 4).collectList().block();
+        var result = underTest.getProducts("", "PRICE", 1, 4, null).collectList().block();
 
         assertThat(result)
                 .isNotNull()
                 .hasSize(4)
-                .extracting(Product::getPrice)
+                .extracting(ProductTile::price)
                 .containsExactly(1.2, 2.5, 3.0, 4.0);
     }
 
+    @Test
+    void testGetProductsWithCursorUsesKeysetInsteadOfOffset() {
+        var last = new ProductTile(2L, "Test product 2", 2.5, "testdescription2", "https://example.com/test2.jpg");
+        var next = new ProductTile(3L, "Test product 3", 3.0, "testdescription3", "https://example.com/test3.jpg");
+        String cursor = ProductCursor.of(last).encode();
+
+        when(productRepository.findPageOrderByPrice(null, 2.5, 2L, 2, 0L)).thenReturn(Flux.just(next));
+
+        var result = underTest.getProducts("", "PRICE", 5, 2, cursor).collectList().block();
+
+        assertThat(result)
+                .isNotNull()
+                .extracting(ProductTile::id)
+                .containsExactly(3L);
+    }
+
+    @Test
+    void testGetProductsSearchIsEscapedForLike() {
+        when(productRepository.findPageOrderById("%50\\%%", null, 10, 10L)).thenReturn(Flux.empty());
+
+        var result = underTest.getProducts("50%", "NO", 2, 10, null).collectList().block();
+
+        assertThat(result).isNotNull().isEmpty();
+        verify(productRepository).findPageOrderById("%50\\%%", null, 10, 10L);
+    }
+
     @Test
     void testGroupProducts() {
         List<Product> products = List.of(
@@ -112,4 +153,36 @@ public class ProductServiceTest {
                 .withFailMessage("Во втором ряду должно быть 2 продукта")
                 .hasSize(2);
     }
+
+    @Test
+    void testGetProductsServedFromSnapshotWithoutRepository() {
+        var snapshot = CatalogSnapshot.of(List.of(
+                new Product(1L, "B", 2.0, "desc", "img", 0),
+                new Product(2L, "A", 1.0, "desc", "img", 0)
+        ));
+        when(catalogSnapshotService.current()).thenReturn(snapshot);
+
+        var result = underTest.getProducts("", "ALPHA", 1, 10, null).collectList().block();
+
+        assertThat(result)
+                .isNotNull()
+                .extracting(ProductTile::name)
+                .containsExactly("A", "B");
+        verifyNoInteractions(productRepository);
+    }
+
+    @Test
+    void testFindAllByIdsLoadsOnlyCacheMissesFromDb() {
+        var cached = new Product(1L, "Cached", 1.0, "desc1", "img1", 0);
+        var loaded = new Product(2L, "Loaded", 2.0, "desc2", "img2", 0);
+        when(multiGetCache.<Long, Product>getAll("products", Set.of(1L, 2L)))
+                .thenReturn(Mono.just(Map.of(1L, cached)));
+        when(productRepository.findAllById(List.of(2L))).thenReturn(Flux.just(loaded));
+        when(multiGetCache.putAll("products", Map.of(2L, loaded))).thenReturn(Mono.empty());
+
+        var result = underTest.findAllByIds(List.of(1L, 2L, 1L)).block();
+
+        assertThat(result).containsOnlyKeys(1L, 2L);
+        verify(multiGetCache).putAll("products", Map.of(2L, loaded));
+    }
 }
@@ -0,0 +1,74 @@
+package com.yandex.reactive.testcontainers.reshop.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveZSetOperations;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductViewStatsTest {
+
+    private static final String KEY = "stats:product-views:2026-10-18";
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveZSetOperations<String, String> zSetOperations;
+
+    private ProductViewStats underTest;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        lenient().when(redisTemplate.expire(eq(KEY), any(Duration.class))).thenReturn(Mono.just(true));
+        underTest = new ProductViewStats(redisTemplate,
+                Clock.fixed(Instant.parse("2026-10-18T12:00:00Z"), ZoneOffset.UTC), Duration.ofSeconds(10));
+    }
+
+    @Test
+    void testViewsAreAggregatedIntoOneIncrementPerProduct() {
+        when(zSetOperations.incrementScore(eq(KEY), anyString(), anyDouble())).thenReturn(Mono.just(1.0));
+
+        underTest.recordView(1L);
+        underTest.recordView(1L);
+        underTest.recordView(2L);
+        verifyNoInteractions(redisTemplate);
+
+        assertThat(underTest.flush().block()).isEqualTo(2);
+
+        verify(zSetOperations).incrementScore(KEY, "1", 2.0);
+        verify(zSetOperations).incrementScore(KEY, "2", 1.0);
+        verify(redisTemplate, times(1)).expire(eq(KEY), any(Duration.class));
+        // всё уже отправлено
+        assertThat(underTest.flush().block()).isZero();
+    }
+
+    @Test
+    void testFailedFlushKeepsViewsForNextOne() {
+        when(zSetOperations.incrementScore(KEY, "1", 1.0))
+                .thenReturn(Mono.error(new IllegalStateException("redis down")));
+
+        underTest.recordView(1L);
+        assertThat(underTest.flush().block()).isZero();
+
+        underTest.recordView(1L);
+        when(zSetOperations.incrementScore(KEY, "1", 2.0)).thenReturn(Mono.just(2.0));
+        assertThat(underTest.flush().block()).isEqualTo(1);
+    }
+}
@@ -12,7 +12,10 @@ CREATE TABLE IF NOT EXISTS products (
     name VARCHAR(255) NOT NULL,
     price DOUBLE NOT NULL,
     description VARCHAR(500),
-    img_path VARCHAR(255)
+    img_path VARCHAR(255),
+    -- keyset-пагинация витрины: ORDER BY name, id / ORDER BY price, id
+    INDEX idx_products_name_id (name, id),
+    INDEX idx_products_price_id (price, id)
 );
 
 
@@ -23,6 +26,10 @@ CREATE TABLE IF NOT EXISTS orders (
     order_date TIMESTAMP NOT NULL,
     number VARCHAR(255),
     total_sum DOUBLE,
+    -- keyset-пагинация истории заказов: WHERE user_id = ? ORDER BY order_date DESC, id DESC
+    INDEX idx_orders_user_date (user_id, order_date, id),
+    -- номер заказа из OrderNumberGenerator, поиск по нему - findByNumber
+    UNIQUE KEY uk_orders_number (number),
     CONSTRAINT fk_orders_users FOREIGN KEY (user_id) REFERENCES users(id)
 );
 
@@ -31,15 +38,42 @@ CREATE TABLE IF NOT EXISTS order_products (
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
     order_id BIGINT NOT NULL,
     product_id BIGINT NOT NULL,
+    -- снимок товара на момент покупки: заказ показывается без обращения к products
+    quantity INT NOT NULL DEFAULT 1,
+    unit_price DOUBLE NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    img_path VARCHAR(255),
     CONSTRAINT fk_order_products_orders FOREIGN KEY (order_id) REFERENCES orders(id),
     CONSTRAINT fk_order_products_products FOREIGN KEY (product_id) REFERENCES products(id)
 );
 
+-- Outbox: работа после оплаты, записанная в одной транзакции с заказом
+CREATE TABLE IF NOT EXISTS order_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    -- ORDER_LINES, CART_CHECKOUT, ORDER_PLACED (см. OrderOutboxWorker)
+    event_type VARCHAR(32) NOT NULL,
+    payload TEXT NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    -- событие берётся в работу не раньше этого времени: при захвате сдвигается на срок аренды, при ошибке - на паузу повтора
+    next_attempt_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    last_error VARCHAR(512),
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    INDEX idx_order_outbox_next_attempt (next_attempt_at)
+);
+
 -- Schema for the `carts` table
 CREATE TABLE IF NOT EXISTS carts (
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
     user_id BIGINT NOT NULL,
     total_price DOUBLE NOT NULL,
+    -- оптимистическая блокировка: любое изменение корзины увеличивает версию
+    version BIGINT NOT NULL DEFAULT 0,
+    -- время последнего изменения, по нему CartReaper находит брошенные корзины
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    -- ревизия Redis-хеша корзины, записанная последней: более старый снимок хеша не перезапишет новый
+    redis_revision BIGINT NOT NULL DEFAULT 0,
+    INDEX idx_carts_updated_at (updated_at),
     CONSTRAINT fk_carts_users FOREIGN KEY (user_id) REFERENCES users(id)
 );
 
@@ -48,6 +82,9 @@ CREATE TABLE IF NOT EXISTS cart_products (
     cart_id BIGINT NOT NULL,
     product_id BIGINT NOT NULL,
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    quantity INT NOT NULL DEFAULT 1,
+    -- одна строка на товар в корзине, нужна для INSERT ... ON DUPLICATE KEY UPDATE
+    UNIQUE KEY uk_cart_products_cart_product (cart_id, product_id),
     CONSTRAINT fk_cart_products_carts FOREIGN KEY (cart_id) REFERENCES carts(id),
     CONSTRAINT fk_cart_products_products FOREIGN KEY (product_id) REFERENCES products(id)
 );